@@ -35,4 +35,12 @@ public interface AbsoluteLinkConverter {
    */
   void convertLinks(BaseContentEntry<?> entry, EntryStore entryStore, URL siteUrl,
       boolean isRevision);
+  
+  /**
+   * Returns the content of the given entry belonging to the given EntryStore
+   * with all of the links starting with the given siteUrl converted to 
+   * relative links, leaving the entry itself unchanged.
+   */
+  String getConvertedContent(BaseContentEntry<?> entry, EntryStore entryStore,
+      URL siteUrl, boolean isRevision);
 }
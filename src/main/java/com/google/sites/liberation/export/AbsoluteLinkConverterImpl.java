@@ -20,50 +20,76 @@ import static com.google.sites.liberation.util.EntryUtils.getXhtmlContent;
 import static com.google.sites.liberation.util.EntryUtils.setContent;
 
 import com.google.gdata.data.sites.BaseContentEntry;
-import com.google.gdata.data.sites.BasePageEntry;
 
 import java.net.URL;
 
 /**
  * Converts the absolute links in a page's content to relative links.
  * 
+ * <p>The content is scanned once, and links quoted with either double or
+ * single quotes are rewritten as they are found.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class AbsoluteLinkConverterImpl implements AbsoluteLinkConverter {
 
+  private static final String HREF = "href=";
+  private static final String INDEX = "/index.html";
+  
   @Override
   public void convertLinks(BaseContentEntry<?> entry, EntryStore entryStore,
       URL siteUrl, boolean isRevision) {
-    convertLinks(entry, entryStore, siteUrl, isRevision, "href=\"", "\"");
-    convertLinks(entry, entryStore, siteUrl, isRevision, "href='", "'");
+    setContent(entry, 
+        getConvertedContent(entry, entryStore, siteUrl, isRevision));
   }
   
-  private void convertLinks(BaseContentEntry<?> entry, EntryStore entryStore, 
-      URL siteUrl, boolean isRevision, String prefix, String suffix) {
-    String content = getXhtmlContent(entry);
-    String url = siteUrl.toExternalForm();
-    String siteRoot = getSiteRoot(entry, entryStore);
+  @Override
+  public String getConvertedContent(BaseContentEntry<?> entry, 
+      EntryStore entryStore, URL siteUrl, boolean isRevision) {
+    String siteRoot = entryStore.getPagePaths().getPathToRoot(entry.getId());
     if (isRevision) {
       siteRoot += "../";
     }
-    int index = content.indexOf(prefix + url);
-    while (index != -1) {
-      int startIndex = index + prefix.length();
-      int endIndex = content.indexOf(suffix, startIndex + 1);
-      String beforeLink = content.substring(0, startIndex);
-      String link = content.substring(startIndex + url.length() + 1, endIndex);
-      String afterLink = content.substring(endIndex);
-      content = beforeLink + siteRoot + link + "/index.html" + afterLink;
-      index = content.indexOf(prefix + url);
-    }
-    setContent(entry, content);
+    return convertLinks(getXhtmlContent(entry), siteUrl.toExternalForm(), 
+        siteRoot);
   }
   
-  private String getSiteRoot(BaseContentEntry<?> entry, EntryStore entryStore) {
-    BasePageEntry<?> parent = entryStore.getParent(entry.getId());
-    if (parent == null) {
-      return "../";
+  /**
+   * Returns the given content with every quoted {@code href} beginning with 
+   * {@code url} replaced by a link to the corresponding page's index.html
+   * relative to {@code siteRoot}.
+   */
+  static String convertLinks(String content, String url, String siteRoot) {
+    StringBuilder builder = null;
+    int copied = 0;
+    int index = content.indexOf(HREF);
+    while (index != -1) {
+      int quoteIndex = index + HREF.length();
+      int next = index + 1;
+      if (quoteIndex < content.length()) {
+        char quote = content.charAt(quoteIndex);
+        if ((quote == '"' || quote == '\'') 
+            && content.startsWith(url, quoteIndex + 1)) {
+          int linkStart = quoteIndex + url.length() + 2;
+          int linkEnd = content.indexOf(quote, quoteIndex + 2);
+          if (linkEnd >= linkStart) {
+            if (builder == null) {
+              builder = new StringBuilder(content.length() + 64);
+            }
+            builder.append(content, copied, quoteIndex + 1)
+                .append(siteRoot)
+                .append(content, linkStart, linkEnd)
+                .append(INDEX);
+            copied = linkEnd;
+            next = linkEnd;
+          }
+        }
+      }
+      index = content.indexOf(HREF, next);
+    }
+    if (builder == null) {
+      return content;
     }
-    return getSiteRoot(parent, entryStore) + "../";
+    return builder.append(content, copied, content.length()).toString();
   }
 }
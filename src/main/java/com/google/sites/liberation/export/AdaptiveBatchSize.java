@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Chooses the number of entries to request per query of a feed. The size
+ * doubles after each request that succeeds within the target latency, and
+ * halves after each request that fails or is slower than the target, always
+ * staying between the given bounds.
+ *
+ * <p>Every request is logged along with its size and latency, so that the
+ * bounds and target can be tuned for a particular site. This class is
+ * thread safe.</p>
+ */
+final class AdaptiveBatchSize {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      AdaptiveBatchSize.class.getCanonicalName());
+
+  private final int minSize;
+  private final int maxSize;
+  private final long targetMillis;
+  private int size;
+  private int requests;
+  private int failures;
+  private long entries;
+  private long totalMillis;
+
+  /**
+   * Creates a new AdaptiveBatchSize starting at {@code initialSize} and
+   * adapting between {@code minSize} and {@code maxSize} to keep requests
+   * faster than {@code targetMillis}.
+   */
+  AdaptiveBatchSize(int initialSize, int minSize, int maxSize,
+      long targetMillis) {
+    checkArgument(minSize > 0, "minSize");
+    checkArgument(minSize <= initialSize && initialSize <= maxSize,
+        "initialSize");
+    checkArgument(targetMillis > 0, "targetMillis");
+    this.size = initialSize;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.targetMillis = targetMillis;
+  }
+
+  /**
+   * Returns an AdaptiveBatchSize which always requests {@code size} entries.
+   */
+  static AdaptiveBatchSize fixed(int size) {
+    return new AdaptiveBatchSize(size, size, size, Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the number of entries the next request should ask for.
+   */
+  synchronized int nextSize() {
+    return size;
+  }
+
+  /**
+   * Records a request for {@code requested} entries that returned
+   * {@code returned} entries after {@code elapsedMillis} milliseconds.
+   */
+  synchronized void recordSuccess(int requested, int returned,
+      long elapsedMillis) {
+    requests++;
+    entries += returned;
+    totalMillis += elapsedMillis;
+    if (elapsedMillis > targetMillis) {
+      size = Math.max(minSize, size / 2);
+    } else if (returned >= requested) {
+      size = Math.min(maxSize, size * 2);
+    }
+    LOGGER.debug("Requested " + requested + " entries, received " + returned
+        + " in " + elapsedMillis + " ms; next request size " + size + ".");
+  }
+
+  /**
+   * Records a request for {@code requested} entries that failed after
+   * {@code elapsedMillis} milliseconds.
+   */
+  synchronized void recordFailure(int requested, long elapsedMillis) {
+    requests++;
+    failures++;
+    totalMillis += elapsedMillis;
+    size = Math.max(minSize, size / 2);
+    LOGGER.debug("Request for " + requested + " entries failed after "
+        + elapsedMillis + " ms; next request size " + size + ".");
+  }
+
+  /**
+   * Returns a summary of the requests recorded so far.
+   */
+  @Override
+  public synchronized String toString() {
+    long average = (requests == 0) ? 0 : totalMillis / requests;
+    return requests + " requests (" + failures + " failed) returned "
+        + entries + " entries, averaging " + average
+        + " ms; current request size " + size + ".";
+  }
+}
@@ -23,7 +23,8 @@ import com.google.inject.ImplementedBy;
 import java.io.File;
 
 /**
- * Downloads attachments to a file.
+ * Downloads attachments to a file. Implementations must allow several 
+ * attachments to be downloaded at once from different threads.
  * 
  * @author bsimon@google.com (Benjamin Simon)
  */
@@ -32,7 +33,9 @@ interface AttachmentDownloader {
   
   /**
    * Downloads the given attachment to the given file name, using the given
-   * SitesService.
+   * SitesService, and returns whether the whole attachment was downloaded.
+   * If it was not, no file is left behind.
    */
-  void download(AttachmentEntry attachment, File file, SitesService sitesService);
+  boolean download(AttachmentEntry attachment, File file, 
+      SitesService sitesService);
 }
@@ -24,12 +24,17 @@ import com.google.gdata.data.OutOfLineContent;
 import com.google.gdata.data.media.MediaSource;
 import com.google.gdata.data.sites.AttachmentEntry;
 import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
+import com.google.sites.liberation.util.RequestScheduler;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +42,10 @@ import java.util.logging.Logger;
  * Implements {@link AttachmentDownloader} to download an attachment
  * to a specified file.
  * 
+ * <p>The media stream is copied straight into a {@code FileChannel} through
+ * a direct buffer which is reused by every download on the same thread, so 
+ * this class can safely be used by several download threads at once.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class AttachmentDownloaderImpl implements AttachmentDownloader {
@@ -44,33 +53,86 @@ final class AttachmentDownloaderImpl implements AttachmentDownloader {
   private static final Logger LOGGER = Logger.getLogger(
       AttachmentDownloaderImpl.class.getCanonicalName());
   
+  private static final int BUFFER_SIZE = 64 * 1024;
+  
+  private static final ThreadLocal<ByteBuffer> buffers = 
+      new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+          return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+      };
+  
+  private final RequestScheduler requestScheduler;
+  
+  /**
+   * Creates a new AttachmentDownloaderImpl which makes its downloads through
+   * the given scheduler.
+   */
+  @Inject
+  AttachmentDownloaderImpl(RequestScheduler requestScheduler) {
+    this.requestScheduler = checkNotNull(requestScheduler);
+  }
+  
   /**
-   * Downloads the given attachment to the given file name.
+   * Downloads the given attachment to the given file name, deleting the
+   * file if the download fails part way through.
    */
   @Override
-  public void download(AttachmentEntry attachment, File file, 
-      SitesService sitesService) {
+  public boolean download(AttachmentEntry attachment, final File file, 
+      final SitesService sitesService) {
     checkNotNull(attachment);
     checkNotNull(file);
-    MediaContent mediaContent = new MediaContent();
+    final MediaContent mediaContent = new MediaContent();
     mediaContent.setUri(((OutOfLineContent) attachment.getContent()).getUri());
+    boolean downloaded = false;
     try {
-      MediaSource mediaSource = sitesService.getMedia(mediaContent);
-      InputStream inStream = mediaSource.getInputStream();
-      OutputStream outStream = new FileOutputStream(file);
-      byte[] buf = new byte[4*1024];
-      int bytesRead;
-      while((bytesRead = inStream.read(buf)) != -1) {
-        outStream.write(buf, 0, bytesRead);
-      }
-      inStream.close();
-      outStream.close();
+      requestScheduler.execute(new RequestScheduler.Request<Void>() {
+        @Override
+        public Void execute() throws IOException, ServiceException {
+          MediaSource mediaSource = sitesService.getMedia(mediaContent);
+          InputStream inStream = mediaSource.getInputStream();
+          try {
+            FileOutputStream outStream = new FileOutputStream(file);
+            try {
+              transfer(Channels.newChannel(inStream), outStream.getChannel());
+            } finally {
+              outStream.close();
+            }
+          } finally {
+            inStream.close();
+          }
+          return null;
+        }
+      });
+      downloaded = true;
     } catch (IOException e) {
       LOGGER.log(Level.WARNING, "Error downloading attachment: " 
           + attachment.getTitle().getPlainText(), e);
     } catch (ServiceException e) {
       LOGGER.log(Level.WARNING, "Error downloading attachment: " 
           + attachment.getTitle().getPlainText(), e);
+    } finally {
+      if (!downloaded && file.exists() && !file.delete()) {
+        LOGGER.warning("Unable to delete partial download: " + file);
+      }
+    }
+    return downloaded;
+  }
+  
+  /**
+   * Copies everything from the given channel into the given file channel.
+   */
+  private void transfer(ReadableByteChannel in, FileChannel out) 
+      throws IOException {
+    ByteBuffer buffer = buffers.get();
+    buffer.clear();
+    while (in.read(buffer) != -1) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      buffer.clear();
     }
   }
 }
@@ -18,13 +18,16 @@ package com.google.sites.liberation.export;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.gdata.client.Query;
 import com.google.gdata.client.sites.ContentQuery;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.util.ParseException;
 import com.google.gdata.util.ServiceException;
-import com.google.gdata.util.common.base.Pair;
+import com.google.gdata.util.common.base.Nullable;
 import com.google.sites.liberation.util.EntryProvider;
+import com.google.sites.liberation.util.ServiceErrors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -32,6 +35,11 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.gdata.util.common.base.Preconditions.checkArgument;
 import static com.google.gdata.util.common.base.Preconditions.checkNotNull;
@@ -45,17 +53,40 @@ import static com.google.gdata.util.common.base.Preconditions.checkNotNull;
  * <p>This class can produce unexpected results if used on a feed other than the
  * content feed for a Google Site.</p>
  * 
+ * <p>If an executor and more than one prefetched request are specified, each
+ * iterator keeps that many queries in flight on the executor ahead of its
+ * consumer, so that entries can be processed while later results are still
+ * being retrieved. The executor belongs to the caller, who shuts it down once
+ * the feed is no longer read, whether or not its iterators reached the end.
+ * </p>
+ * 
+ * <p>Whether any entry has been skipped, or the rest of the feed abandoned
+ * after a failure of the connection or the server, is recorded, so that a
+ * caller which needs every entry can tell from {@link #isComplete} whether
+ * it has them.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
-final class ContinuousContentFeed implements Iterable<BaseContentEntry<?>> {
+public final class ContinuousContentFeed implements Iterable<BaseContentEntry<?>> {
 
   private static final Logger LOGGER = LogManager.getLogger(
       ContinuousContentFeed.class.getCanonicalName());
   
+  /** 
+   * The number of failed queries after which the rest of the feed is given
+   * up, however far apart the entries which cannot be retrieved are.
+   */
+  private static final int MAX_FAILED_REQUESTS = 100;
+  
   private final EntryProvider entryProvider;
   private final URL feedUrl;
   private final SitesService sitesService;
-  private final int resultsPerRequest;
+  private final AdaptiveBatchSize batchSize;
+  private final ExecutorService executor;
+  private final int prefetchedRequests;
+  private final int startIndex;
+  private final AtomicInteger failedRequests = new AtomicInteger();
+  private volatile boolean incomplete;
   
   /**
    * Creates a new instance of {@code ContinuousContentFeed} for the given
@@ -64,13 +95,47 @@ final class ContinuousContentFeed implements Iterable<BaseContentEntry<?>> {
    * <p>This {@code ContinuousContentFeed} will contain all of the valid entries
    * in the feed at {@code feedUrl}.</p>
    */
-  ContinuousContentFeed(URL feedUrl, EntryProvider entryProvider,
+  public ContinuousContentFeed(URL feedUrl, EntryProvider entryProvider,
       SitesService sitesService, int resultsPerRequest) {
+    this(feedUrl, entryProvider, sitesService, 
+        AdaptiveBatchSize.fixed(resultsPerRequest), null, 1, 1);
+  }
+  
+  /**
+   * Creates a new instance of {@code ContinuousContentFeed} for the given
+   * entry provider, feed URL, and number of entries to request per query,
+   * whose iterators keep up to {@code prefetchedRequests} queries in flight
+   * on the given executor.
+   */
+  ContinuousContentFeed(URL feedUrl, EntryProvider entryProvider,
+      SitesService sitesService, int resultsPerRequest, 
+      ExecutorService executor, int prefetchedRequests) {
+    this(feedUrl, entryProvider, sitesService, 
+        AdaptiveBatchSize.fixed(resultsPerRequest), 
+        checkNotNull(executor), prefetchedRequests, 1);
+  }
+  
+  /**
+   * Creates a new instance of {@code ContinuousContentFeed} for the given
+   * entry provider and feed URL, which asks the given {@code batchSize} how
+   * many entries to request per query, and whose iterators start at the given
+   * one-based index of the feed. If {@code executor} is not {@code null}, 
+   * the iterators keep up to {@code prefetchedRequests} queries in flight on
+   * it.
+   */
+  ContinuousContentFeed(URL feedUrl, EntryProvider entryProvider,
+      SitesService sitesService, AdaptiveBatchSize batchSize, 
+      @Nullable ExecutorService executor, int prefetchedRequests, 
+      int startIndex) {
     this.entryProvider = checkNotNull(entryProvider);
     this.feedUrl = checkNotNull(feedUrl);
     this.sitesService = checkNotNull(sitesService);
-    checkArgument(resultsPerRequest > 0);
-    this.resultsPerRequest = resultsPerRequest;
+    this.batchSize = checkNotNull(batchSize);
+    this.executor = executor;
+    checkArgument(prefetchedRequests > 0);
+    this.prefetchedRequests = prefetchedRequests;
+    checkArgument(startIndex > 0);
+    this.startIndex = startIndex;
   }
   
   /**
@@ -79,15 +144,28 @@ final class ContinuousContentFeed implements Iterable<BaseContentEntry<?>> {
    * The iterator returned will iterate through all of the entries corresponding 
    * to this {@code ContinuousContentFeed} even if the results are spread over 
    * multiple feeds. Subsequent calls to this method will return independent 
-   * iterators, each starting at the beginning of the feed. However, each 
+   * iterators, each starting at the start index of the feed. However, each 
    * iterator instance will make its own RPC's, and so the use of multiple 
    * iterators should be avoided.
    * </p>
    */
   public AbstractIterator<BaseContentEntry<?>> iterator() {
+    if (executor != null && prefetchedRequests > 1) {
+      return new PrefetchingFeedIterator();
+    }
     return new FeedIterator();
   }
 
+  /**
+   * Returns whether or not every entry read from this feed so far could be
+   * retrieved. This is {@code false} once an entry has been skipped because
+   * it failed to be retrieved, or an iterator gave up on the rest of the
+   * feed, which may include failures past the end of the feed.
+   */
+  public boolean isComplete() {
+    return !incomplete;
+  }
+
   /**
    * This class defines the iterator returned by a 
    * {@code ContinuousContentFeed} iterable.
@@ -96,79 +174,274 @@ final class ContinuousContentFeed implements Iterable<BaseContentEntry<?>> {
 
     Iterator<BaseContentEntry<?>> currentItr;
     int index;
+    boolean endOfFeed;
+    boolean abandoned;
 
     /**
      * Constructs a new iterator for this {@code ContinuousContentFeed}.
      */
     FeedIterator() {
       currentItr = Iterators.emptyIterator();
-      index = 1;
+      index = startIndex;
+      endOfFeed = false;
+      abandoned = false;
     }
 
     /**
      * Returns the next element if it exists, otherwise calls endOfData() and
-     * returns null.
+     * returns null. A range holding no entries only because all of its 
+     * entries failed to be retrieved does not end the feed.
      */
     @Override
     public BaseContentEntry<?> computeNext() {
-      if (!currentItr.hasNext()) {
-        Pair<Iterator<BaseContentEntry<?>>, Integer> pair = 
-            getEntries(index, resultsPerRequest);
-        currentItr = pair.getFirst();
-        index += pair.getSecond();
-        if (!currentItr.hasNext()) {
+      while (!currentItr.hasNext()) {
+        if (endOfFeed || abandoned) {
+          logEnd(abandoned);
           return endOfData();
         }
+        FeedRange range = getEntries(index, batchSize.nextSize());
+        currentItr = range.entries;
+        index += range.size;
+        endOfFeed = range.endOfFeed;
+        abandoned = range.abandoned;
+      }
+      return currentItr.next();
+    }
+  }
+  
+  /**
+   * This class defines the iterator returned by a {@code ContinuousContentFeed}
+   * iterable when requests are prefetched. Each query covers a fixed range of
+   * indices, so queries for later ranges can be issued before the consumer 
+   * reaches them. Abandoning the iterator before its end leaves at most
+   * {@code prefetchedRequests} queries to complete on the shared executor.
+   */
+  private class PrefetchingFeedIterator 
+      extends AbstractIterator<BaseContentEntry<?>> {
+    
+    final List<Future<FeedRange>> pending;
+    Iterator<BaseContentEntry<?>> currentItr;
+    int nextIndex;
+    boolean endOfFeed;
+    boolean abandoned;
+    
+    /**
+     * Constructs a new prefetching iterator for this 
+     * {@code ContinuousContentFeed}.
+     */
+    PrefetchingFeedIterator() {
+      pending = Lists.newLinkedList();
+      currentItr = Iterators.emptyIterator();
+      nextIndex = startIndex;
+      endOfFeed = false;
+      abandoned = false;
+    }
+    
+    /**
+     * Returns the next element if it exists, otherwise calls endOfData() and
+     * returns null. A range holding no entries only because all of its 
+     * entries failed to be retrieved does not end the feed.
+     */
+    @Override
+    public BaseContentEntry<?> computeNext() {
+      while (!currentItr.hasNext()) {
+        if (endOfFeed || abandoned) {
+          return finish();
+        }
+        fillPending();
+        FeedRange range = await(pending.remove(0));
+        currentItr = range.entries;
+        endOfFeed = range.endOfFeed;
+        abandoned = range.abandoned;
       }
       return currentItr.next();
     }
     
     /**
-     * Returns an iterator containing the valid entries with indices between
-     * {@code start} and {@code start}+{@code num}-1 and the number of entries
-     * the iterator contains. 
+     * Issues queries for the following ranges until 
+     * {@code prefetchedRequests} queries are in flight.
      */
-    private Pair<Iterator<BaseContentEntry<?>>, Integer>
-        getEntries(int start, int num) {
-      Query query = new ContentQuery(feedUrl);
+    private void fillPending() {
+      while (pending.size() < prefetchedRequests) {
+        final int start = nextIndex;
+        final int size = batchSize.nextSize();
+        nextIndex += size;
+        pending.add(executor.submit(new Callable<FeedRange>() {
+          @Override
+          public FeedRange call() {
+            return getEntries(start, size);
+          }
+        }));
+      }
+    }
+    
+    private FeedRange await(Future<FeedRange> future) {
       try {
-        int numReturned = 0;
-        Iterator<BaseContentEntry<?>> itr = Iterators.emptyIterator();
-        List<BaseContentEntry<?>> entries;
-        do {
-          query.setStartIndex(start + numReturned);
-          query.setMaxResults(num - numReturned);
-          entries = entryProvider.getEntries(query, sitesService);
-          numReturned += entries.size();
-          itr = Iterators.concat(itr, entries.iterator());
-        } while (numReturned < num && entries.size() > 0);
-        return Pair.of(itr, numReturned);
-      } catch (IOException e) {
-        return catchException(e, start, num);
-      } catch (ServiceException e) {
-        return catchException(e, start, num);
+        return future.get();
+      } catch (ExecutionException e) {
+        finish();
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e) {
+        finish();
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
       }
     }
     
-    private Pair<Iterator<BaseContentEntry<?>>, Integer> 
-        catchException(Exception e, int start, int num) {
-      String message = "Error retrieving response from query.";
-      LOGGER.warn(message, e);
-      if (num == 1) {
-        Iterator<BaseContentEntry<?>> itr = Iterators.emptyIterator();
-        return Pair.of(itr, 1);
-      } else {
-        int num1 = num/2;
-        int num2 = num - num1;
-        Pair<Iterator<BaseContentEntry<?>>, Integer> pair1 = 
-            getEntries(start, num1);
-        Pair<Iterator<BaseContentEntry<?>>, Integer> pair2 = 
-            getEntries(start + num1, num2);
-        Iterator<BaseContentEntry<?>> itr = Iterators.concat(pair1.getFirst(),
-            pair2.getFirst());
-        int numReturned = pair1.getSecond() + pair2.getSecond();
-        return Pair.of(itr, numReturned);
+    /**
+     * Cancels any queries past the end of the feed and signals the end of 
+     * the data.
+     */
+    private BaseContentEntry<?> finish() {
+      for (Future<FeedRange> future : pending) {
+        future.cancel(true);
       }
+      pending.clear();
+      logEnd(abandoned);
+      return endOfData();
+    }
+  }
+  
+  /**
+   * Logs the end of the feed, and whether it was reached or reading it was
+   * abandoned after a failure.
+   */
+  private void logEnd(boolean abandoned) {
+    if (abandoned) {
+      LOGGER.error("Stopped reading " + feedUrl + " before its end.");
+    } else {
+      LOGGER.info("Finished reading " + feedUrl + ": " + batchSize);
+    }
+  }
+  
+  /**
+   * The result of querying a range of indices: the valid entries in it, the 
+   * number of indices it covers, whether a query returned no entries, which
+   * marks the end of the feed, and whether the rest of the feed is to be 
+   * given up after it.
+   */
+  private static class FeedRange {
+    
+    final Iterator<BaseContentEntry<?>> entries;
+    final int size;
+    final boolean endOfFeed;
+    final boolean abandoned;
+    
+    FeedRange(Iterator<BaseContentEntry<?>> entries, int size, 
+        boolean endOfFeed, boolean abandoned) {
+      this.entries = entries;
+      this.size = size;
+      this.endOfFeed = endOfFeed;
+      this.abandoned = abandoned;
+    }
+  }
+  
+  /**
+   * Returns the valid entries with indices between {@code start} and
+   * {@code start}+{@code num}-1, with the number of indices they cover.
+   */
+  private FeedRange getEntries(int start, int num) {
+    Query query = new ContentQuery(feedUrl);
+    try {
+      int numReturned = 0;
+      Iterator<BaseContentEntry<?>> itr = Iterators.emptyIterator();
+      List<BaseContentEntry<?>> entries;
+      do {
+        query.setStartIndex(start + numReturned);
+        query.setMaxResults(num - numReturned);
+        entries = getTimedEntries(query, num - numReturned);
+        numReturned += entries.size();
+        itr = Iterators.concat(itr, entries.iterator());
+      } while (numReturned < num && entries.size() > 0);
+      return new FeedRange(itr, numReturned, entries.isEmpty(), false);
+    } catch (IOException e) {
+      return catchException(e, start, num);
+    } catch (ServiceException e) {
+      return catchException(e, start, num);
+    }
+  }
+  
+  /**
+   * Returns the entries for the given query, recording the latency and 
+   * outcome of the request with the batch size controller.
+   */
+  private List<BaseContentEntry<?>> getTimedEntries(Query query, 
+      int requested) throws IOException, ServiceException {
+    long startTime = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      List<BaseContentEntry<?>> entries = 
+          entryProvider.getEntries(query, sitesService);
+      succeeded = true;
+      batchSize.recordSuccess(requested, entries.size(), 
+          (System.nanoTime() - startTime) / 1000000);
+      return entries;
+    } finally {
+      if (!succeeded) {
+        batchSize.recordFailure(requested, 
+            (System.nanoTime() - startTime) / 1000000);
+      }
+    }
+  }
+  
+  /**
+   * Handles the failure of the query for a range. If the failure may be 
+   * caused by particular entries, the two halves of the range are retrieved 
+   * instead, skipping the single entries which cannot be retrieved. 
+   * Otherwise any other query would fail alike, after the request scheduler
+   * has already retried it, so the rest of the feed is given up, as it is 
+   * once too many queries have failed.
+   */
+  private FeedRange catchException(Exception e, int start, int num) {
+    Iterator<BaseContentEntry<?>> none = Iterators.emptyIterator();
+    String range = "entries " + start + " to " + (start + num - 1) + " of " 
+        + feedUrl;
+    if (failedRequests.incrementAndGet() >= MAX_FAILED_REQUESTS) {
+      incomplete = true;
+      LOGGER.error("Unable to retrieve " + range + " after " 
+          + MAX_FAILED_REQUESTS + " failed requests.", e);
+      return new FeedRange(none, num, false, true);
+    }
+    if (!isEntryError(e)) {
+      incomplete = true;
+      LOGGER.error("Unable to retrieve " + range + ".", e);
+      return new FeedRange(none, num, false, true);
+    }
+    if (num == 1) {
+      incomplete = true;
+      LOGGER.warn("Skipping " + range + ": " + e.getMessage());
+      return new FeedRange(none, 1, false, false);
+    }
+    LOGGER.info("Retrieving " + range + " in halves: " + e.getMessage());
+    int num1 = num/2;
+    int num2 = num - num1;
+    FeedRange range1 = getEntries(start, num1);
+    if (range1.endOfFeed || range1.abandoned) {
+      return range1;
+    }
+    FeedRange range2 = getEntries(start + num1, num2);
+    return new FeedRange(Iterators.concat(range1.entries, range2.entries), 
+        range1.size + range2.size, range2.endOfFeed, range2.abandoned);
+  }
+  
+  /**
+   * Returns whether the given failure of a query may be caused by particular 
+   * entries in its range, such as one which cannot be parsed, rather than by
+   * the connection or the server. Failures with an exception of their own,
+   * such as a forbidden request, concern the request as a whole.
+   */
+  private static boolean isEntryError(Exception e) {
+    if (e instanceof ParseException || e.getCause() instanceof ParseException) {
+      return true;
+    }
+    if (e.getClass() != ServiceException.class) {
+      return false;
     }
+    ServiceException serviceException = (ServiceException) e;
+    return !ServiceErrors.isRejected(serviceException) 
+        && !ServiceErrors.isServerError(serviceException);
   }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.sites.liberation.util.EntryType.isPage;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.gdata.data.ExtensionProfile;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.common.xml.XmlWriter;
+import com.google.sites.liberation.util.EntryUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An implementation of {@link EntryStore} which only keeps the id, parent and
+ * class of each entry in memory, using an {@link EntryIndex}. Entries
+ * themselves are serialized as Atom to an append-only file, and parsed again
+ * whenever they are retrieved.
+ *
+ * <p>A bounded number of recently retrieved entries are cached, so that
+ * pages near the top of the site, which are retrieved for every page
+ * beneath them, are not parsed over and over. The backing file is deleted
+ * when this store is closed.</p>
+ */
+final class DiskEntryStore implements EntryStore, Closeable {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      DiskEntryStore.class.getCanonicalName());
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int CACHE_SIZE = 1000;
+
+  private final ExtensionProfile extensionProfile;
+  private final File file;
+  private final FileChannel channel;
+  private final EntryIndex index;
+  private final List<String> topLevelIds;
+  private final LoadingCache<String, BaseContentEntry<?>> cache;
+  private long[] offsets;
+  private Class<?>[] types;
+  private long length;
+  private PagePaths pagePaths;
+
+  /**
+   * Creates a new DiskEntryStore backed by a new temporary file in the given
+   * directory, which serializes entries using the given extension profile.
+   */
+  DiskEntryStore(File directory, ExtensionProfile extensionProfile)
+      throws IOException {
+    this.extensionProfile = checkNotNull(extensionProfile);
+    directory.mkdirs();
+    file = File.createTempFile("entries", ".log", directory);
+    file.deleteOnExit();
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    index = new EntryIndex();
+    topLevelIds = Lists.newArrayList();
+    offsets = new long[0];
+    types = new Class<?>[0];
+    cache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build(
+        new CacheLoader<String, BaseContentEntry<?>>() {
+          @Override
+          public BaseContentEntry<?> load(String id) throws Exception {
+            return read(id);
+          }
+        });
+    length = 0;
+  }
+
+  @Override
+  public synchronized void addEntry(BaseContentEntry<?> entry) {
+    checkNotNull(entry);
+    pagePaths = null;
+    String id = entry.getId();
+    String parentId = EntryUtils.getParentId(entry);
+    int i = (id == null) ? EntryIndex.NONE : index.add(id, parentId, 
+        isPage(entry));
+    if (i != EntryIndex.NONE) {
+      if (index.size() > offsets.length) {
+        int capacity = Math.max(index.size(), offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, capacity);
+        types = Arrays.copyOf(types, capacity);
+      }
+      try {
+        offsets[i] = write(entry);
+      } catch (IOException e) {
+        LOGGER.error("Unable to store entry: " + id, e);
+        offsets[i] = -1;
+        return;
+      }
+      types[i] = entry.getClass();
+      if (parentId == null) {
+        if (isPage(entry)) {
+          topLevelIds.add(id);
+        } else {
+          LOGGER.warn("All non-page entries must have a parent!");
+        }
+      }
+    } else {
+      LOGGER.warn("All entries should have a unique non-null id!");
+    }
+  }
+
+  @Override
+  public Collection<BaseContentEntry<?>> getChildren(String id) {
+    checkNotNull(id);
+    List<String> childIds = Lists.newArrayList();
+    for (int child = index.getFirstChild(id); child != EntryIndex.NONE;
+        child = index.getNextSibling(child)) {
+      childIds.add(index.getId(child));
+    }
+    return getEntries(childIds);
+  }
+
+  @Override
+  public List<String> getChildPageIds(String id) {
+    return index.getChildPageIds(checkNotNull(id));
+  }
+
+  @Override
+  public BaseContentEntry<?> getEntry(String id) {
+    checkNotNull(id);
+    int i = index.indexOf(id);
+    if (i == EntryIndex.NONE || offsets[i] < 0) {
+      return null;
+    }
+    try {
+      return cache.get(id);
+    } catch (ExecutionException e) {
+      LOGGER.error("Unable to read entry: " + id, e.getCause());
+      return null;
+    }
+  }
+
+  @Override
+  public BasePageEntry<?> getParent(String id) {
+    checkNotNull(id);
+    int i = index.indexOf(id);
+    if (i == EntryIndex.NONE) {
+      return null;
+    }
+    int parent = index.getParent(i);
+    if (parent == EntryIndex.NONE) {
+      return null;
+    }
+    return (BasePageEntry<?>) getEntry(index.getId(parent));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Collection<BasePageEntry<?>> getTopLevelEntries() {
+    return (Collection<BasePageEntry<?>>) (Collection<?>)
+        getEntries(topLevelIds);
+  }
+
+  @Override
+  public synchronized PagePaths getPagePaths() {
+    if (pagePaths == null) {
+      pagePaths = new PagePaths(this);
+    }
+    return pagePaths;
+  }
+
+  /**
+   * Closes and deletes the backing file.
+   */
+  @Override
+  public void close() throws IOException {
+    cache.invalidateAll();
+    channel.close();
+    if (!file.delete()) {
+      LOGGER.warn("Unable to delete entry store: " + file);
+    }
+  }
+
+  private List<BaseContentEntry<?>> getEntries(Collection<String> ids) {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    for (String id : ids) {
+      BaseContentEntry<?> entry = getEntry(id);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Appends the given entry to the end of the file, and returns the offset
+   * at which it was written.
+   */
+  private long write(BaseContentEntry<?> entry) throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    XmlWriter xmlWriter = new XmlWriter(stringWriter);
+    entry.generateAtom(xmlWriter, extensionProfile);
+    xmlWriter.flush();
+    byte[] bytes = stringWriter.toString().getBytes(UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+    buffer.putInt(bytes.length).put(bytes).flip();
+    long offset = length;
+    while (buffer.hasRemaining()) {
+      length += channel.write(buffer, length);
+    }
+    return offset;
+  }
+
+  /**
+   * Reads and parses the entry with the given id from the file.
+   */
+  private BaseContentEntry<?> read(String id) throws IOException,
+      ServiceException, InstantiationException, IllegalAccessException, 
+      InvocationTargetException, NoSuchMethodException {
+    int i = index.indexOf(id);
+    long offset = offsets[i];
+    ByteBuffer header = ByteBuffer.allocate(4);
+    readFully(header, offset);
+    ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+    readFully(body, offset + 4);
+    String xml = new String(body.array(), UTF_8);
+    BaseContentEntry<?> entry = 
+        (BaseContentEntry<?>) types[i].getDeclaredConstructor().newInstance();
+    entry.parseAtom(extensionProfile, new StringReader(xml));
+    return entry;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read == -1) {
+        throw new IOException("Unexpected end of entry store: " + file);
+      }
+    }
+  }
+}
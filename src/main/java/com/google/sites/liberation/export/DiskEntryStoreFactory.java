@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.gdata.data.ExtensionProfile;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Provides new DiskEntryStore's, backed by files in a given directory.
+ */
+final class DiskEntryStoreFactory implements EntryStoreFactory {
+
+  private final File directory;
+
+  /**
+   * Creates a new DiskEntryStoreFactory which creates its files in the given
+   * directory.
+   */
+  @Inject
+  DiskEntryStoreFactory(
+      @Named(SiteExporterModule.ENTRY_STORE_DIRECTORY) File directory) {
+    this.directory = checkNotNull(directory);
+  }
+
+  /**
+   * Returns a new DiskEntryStore, which serializes entries using the given
+   * extension profile.
+   */
+  @Override
+  public EntryStore newEntryStore(ExtensionProfile extensionProfile) {
+    try {
+      return new DiskEntryStore(directory, extensionProfile);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create entry store in: " 
+          + directory, e);
+    }
+  }
+}
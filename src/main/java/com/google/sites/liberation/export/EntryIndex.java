@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gdata.util.common.base.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact index of the hierarchy of the entries in an {@link EntryStore}.
+ *
+ * <p>Each entry id is interned to a small integer the first time it is seen,
+ * either as the id of an added entry or as the parent of one. Parents are
+ * then held in an {@code int} array, and the children of each entry form a
+ * linked list through arrays of first child, last child and next sibling, so
+ * walking up or down the hierarchy only reads arrays. Whether each entry is
+ * a page is held as well, so that the pages beneath an entry can be found
+ * without retrieving any entry.</p>
+ */
+final class EntryIndex {
+
+  /** Returned in place of an index when there is no such entry. */
+  static final int NONE = -1;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Map<String, Integer> indices;
+  private String[] ids;
+  private boolean[] added;
+  private boolean[] pages;
+  private int[] parents;
+  private int[] firstChildren;
+  private int[] lastChildren;
+  private int[] nextSiblings;
+  private int size;
+
+  /**
+   * Creates a new empty EntryIndex.
+   */
+  EntryIndex() {
+    indices = Maps.newHashMap();
+    ids = new String[INITIAL_CAPACITY];
+    added = new boolean[INITIAL_CAPACITY];
+    pages = new boolean[INITIAL_CAPACITY];
+    parents = new int[INITIAL_CAPACITY];
+    firstChildren = new int[INITIAL_CAPACITY];
+    lastChildren = new int[INITIAL_CAPACITY];
+    nextSiblings = new int[INITIAL_CAPACITY];
+    size = 0;
+  }
+
+  /**
+   * Adds the entry with the given id and parent id, which is a page if 
+   * {@code page} is set, to this index, and returns its index, or returns 
+   * {@link #NONE} if an entry with the given id has already been added.
+   */
+  int add(String id, @Nullable String parentId, boolean page) {
+    int index = intern(checkNotNull(id));
+    if (added[index]) {
+      return NONE;
+    }
+    added[index] = true;
+    pages[index] = page;
+    if (parentId != null) {
+      int parent = intern(parentId);
+      parents[index] = parent;
+      if (firstChildren[parent] == NONE) {
+        firstChildren[parent] = index;
+      } else {
+        nextSiblings[lastChildren[parent]] = index;
+      }
+      lastChildren[parent] = index;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the added entry with the given id, or {@link #NONE}
+   * if there is no such entry.
+   */
+  int indexOf(String id) {
+    Integer index = indices.get(id);
+    if (index == null || !added[index]) {
+      return NONE;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the given entry's parent if it has been added,
+   * otherwise {@link #NONE}.
+   */
+  int getParent(int index) {
+    int parent = parents[index];
+    if (parent == NONE || !added[parent]) {
+      return NONE;
+    }
+    return parent;
+  }
+
+  /**
+   * Returns the index of the first child of the entry with the given id, or
+   * {@link #NONE} if it has no children.
+   */
+  int getFirstChild(String id) {
+    Integer index = indices.get(id);
+    return (index == null) ? NONE : firstChildren[index];
+  }
+
+  /**
+   * Returns the index of the next child of the same parent as the given
+   * entry, or {@link #NONE} if it is the last.
+   */
+  int getNextSibling(int index) {
+    return nextSiblings[index];
+  }
+
+  /**
+   * Returns the ids of the added pages whose parent is the entry with the
+   * given id.
+   */
+  List<String> getChildPageIds(String id) {
+    List<String> childIds = Lists.newArrayList();
+    for (int child = getFirstChild(id); child != NONE; 
+        child = nextSiblings[child]) {
+      if (pages[child]) {
+        childIds.add(ids[child]);
+      }
+    }
+    return childIds;
+  }
+
+  /**
+   * Returns the id of the entry at the given index.
+   */
+  String getId(int index) {
+    return ids[index];
+  }
+
+  /**
+   * Returns one more than the largest index in use.
+   */
+  int size() {
+    return size;
+  }
+
+  private int intern(String id) {
+    Integer index = indices.get(id);
+    if (index != null) {
+      return index;
+    }
+    if (size == ids.length) {
+      grow();
+    }
+    ids[size] = id;
+    parents[size] = NONE;
+    firstChildren[size] = NONE;
+    lastChildren[size] = NONE;
+    nextSiblings[size] = NONE;
+    indices.put(id, size);
+    return size++;
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    added = Arrays.copyOf(added, capacity);
+    pages = Arrays.copyOf(pages, capacity);
+    parents = Arrays.copyOf(parents, capacity);
+    firstChildren = Arrays.copyOf(firstChildren, capacity);
+    lastChildren = Arrays.copyOf(lastChildren, capacity);
+    nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+  }
+}
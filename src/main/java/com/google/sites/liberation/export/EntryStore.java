@@ -20,6 +20,7 @@ import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Defines a data structure that can be used to store the
@@ -53,9 +54,22 @@ interface EntryStore {
    */
   Collection<BaseContentEntry<?>> getChildren(String id);
   
+  /**
+   * Returns the ids of the pages with parent specified by the given 
+   * {@code id}, without retrieving any entry.
+   */
+  List<String> getChildPageIds(String id);
+  
   /**
    * Returns a collection containing all of the top level entries in this
    * store.
    */
   Collection<BasePageEntry<?>> getTopLevelEntries();
+  
+  /**
+   * Returns the paths of the pages in this store. The paths are computed the
+   * first time this method is called after an entry is added, so it should
+   * only be called once all of the entries have been added.
+   */
+  PagePaths getPagePaths();
 }
@@ -16,6 +16,8 @@
 
 package com.google.sites.liberation.export;
 
+import com.google.gdata.data.ExtensionProfile;
+
 /**
  * Provides new EntryStore's.
  * 
@@ -24,7 +26,8 @@ package com.google.sites.liberation.export;
 public interface EntryStoreFactory {
 
   /**
-   * Returns a new EntryStore.
+   * Returns a new EntryStore, which serializes entries, if it needs to, 
+   * using the given extension profile.
    */
-  EntryStore newEntryStore();
+  EntryStore newEntryStore(ExtensionProfile extensionProfile);
 }
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gdata.data.ExtensionProfile;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.util.common.xml.XmlWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A journal of the progress of an export, kept in the root folder of the
+ * export while it runs, so that an export which dies part way through can
+ * be resumed without fetching or writing again what it had finished.
+ *
+ * <p>The journal records each entry fetched from the content feed, the
+ * start index from which the feed should be read again, and each page,
+ * set of revisions and attachment written. Records are appended to a text
+ * file and flushed at each checkpoint, so that everything up to the last
+ * checkpoint survives the process dying. The journal is deleted once the
+ * export completes. Records may be added from several threads at once; a
+ * failure to write one is logged and does not stop the export.</p>
+ *
+ * <p>An export which is not to be resumed uses a disabled checkpoint, which
+ * records nothing and so costs no disk I/O.</p>
+ */
+public final class ExportCheckpoint implements Closeable {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      ExportCheckpoint.class.getCanonicalName());
+
+  /** The name of the journal file in the root folder of an export. */
+  static final String FILE_NAME = ".export-checkpoint";
+
+  private static final String HEADER = "sites-liberation-checkpoint 1";
+  private static final String ENCODING = "UTF-8";
+  private static final String ENTRY = "E";
+  private static final String FEED_INDEX = "F";
+  private static final String FEED_COMPLETE = "C";
+  private static final String PAGE = "P";
+  private static final String REVISIONS = "R";
+  private static final String ATTACHMENT = "A";
+
+  private final File file;
+  private final ExtensionProfile extensionProfile;
+  private final List<BaseContentEntry<?>> entries;
+  private final Set<String> entryIds;
+  private final Set<String> pages;
+  private final Set<String> revisions;
+  private final Map<String, Long> attachments;
+  private int startIndex;
+  private boolean feedComplete;
+  private Writer out;
+
+  private ExportCheckpoint(File file, ExtensionProfile extensionProfile) {
+    this.file = file;
+    this.extensionProfile = extensionProfile;
+    this.entries = Lists.newArrayList();
+    this.entryIds = Sets.newHashSet();
+    this.pages = Collections.newSetFromMap(
+        Maps.<String, Boolean>newConcurrentMap());
+    this.revisions = Collections.newSetFromMap(
+        Maps.<String, Boolean>newConcurrentMap());
+    this.attachments = Maps.newConcurrentMap();
+    this.startIndex = 1;
+    this.feedComplete = false;
+  }
+
+  /**
+   * Returns whether or not there is a journal in the given root folder, left
+   * by an export to it which has not completed.
+   */
+  public static boolean exists(File rootDirectory) {
+    return new File(rootDirectory, FILE_NAME).isFile();
+  }
+
+  /**
+   * Starts the journal of an export to the given root folder. If
+   * {@code resume} is set, the progress recorded by an earlier journal of an
+   * export with the same settings is read first and carried over; otherwise
+   * any earlier journal is discarded.
+   *
+   * @throws IOException if the journal cannot be written
+   */
+  static ExportCheckpoint open(File rootDirectory, boolean exportRevisions,
+      boolean resume, ExtensionProfile extensionProfile) throws IOException {
+    checkNotNull(extensionProfile);
+    rootDirectory.mkdirs();
+    File file = new File(rootDirectory, FILE_NAME);
+    ExportCheckpoint checkpoint = new ExportCheckpoint(file, extensionProfile);
+    String header = HEADER + '\t' + exportRevisions;
+    List<String> lines = Collections.emptyList();
+    if (resume && file.isFile()) {
+      lines = checkpoint.read(header);
+    }
+    // Rewrites the journal without any record cut short by the process
+    // dying, so that new records are not appended to it.
+    File temp = new File(rootDirectory, FILE_NAME + ".tmp");
+    Writer writer = newWriter(temp, false);
+    try {
+      writer.write(header + '\n');
+      for (String line : lines) {
+        writer.write(line + '\n');
+      }
+    } finally {
+      writer.close();
+    }
+    if (!temp.renameTo(file)) {
+      file.delete();
+      if (!temp.renameTo(file)) {
+        throw new IOException("Unable to replace checkpoint: " + file);
+      }
+    }
+    checkpoint.out = newWriter(file, true);
+    return checkpoint;
+  }
+
+  /**
+   * Returns a checkpoint which records nothing, for an export to the given 
+   * root folder which will not be resumed. Any journal left there by an
+   * earlier export is deleted, as this export makes its records stale.
+   */
+  static ExportCheckpoint disabled(File rootDirectory) {
+    File file = new File(rootDirectory, FILE_NAME);
+    if (file.isFile() && !file.delete()) {
+      LOGGER.warn("Unable to delete checkpoint: " + file);
+    }
+    return new ExportCheckpoint(file, null);
+  }
+
+  /**
+   * Reads the journal, returning the lines of every valid record, or none if
+   * it was written for an export with other settings.
+   */
+  private List<String> read(String header) throws IOException {
+    List<String> lines = Lists.newArrayList();
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), ENCODING));
+    try {
+      if (!header.equals(in.readLine())) {
+        LOGGER.warn("Checkpoint in: " + file + " is for other settings, "
+            + "starting over.");
+        return lines;
+      }
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (readRecord(line.split("\t", -1))) {
+          lines.add(line);
+        } else {
+          LOGGER.warn("Ignoring invalid checkpoint record: " + line);
+        }
+      }
+    } finally {
+      in.close();
+    }
+    LOGGER.info("Resuming from checkpoint with " + entries.size()
+        + " entries, " + pages.size() + " pages and " + attachments.size()
+        + " attachments done.");
+    return lines;
+  }
+
+  private boolean readRecord(String[] fields) {
+    try {
+      if (fields[0].equals(ENTRY) && fields.length == 3) {
+        BaseContentEntry<?> entry = (BaseContentEntry<?>)
+            Class.forName(fields[1]).getDeclaredConstructor().newInstance();
+        entry.parseAtom(extensionProfile,
+            new StringReader(URLDecoder.decode(fields[2], ENCODING)));
+        if (entryIds.add(entry.getId())) {
+          entries.add(entry);
+        }
+      } else if (fields[0].equals(FEED_INDEX) && fields.length == 2) {
+        startIndex = Integer.parseInt(fields[1]);
+      } else if (fields[0].equals(FEED_COMPLETE) && fields.length == 1) {
+        feedComplete = true;
+      } else if (fields[0].equals(PAGE) && fields.length == 2) {
+        pages.add(URLDecoder.decode(fields[1], ENCODING));
+      } else if (fields[0].equals(REVISIONS) && fields.length == 2) {
+        revisions.add(URLDecoder.decode(fields[1], ENCODING));
+      } else if (fields[0].equals(ATTACHMENT) && fields.length == 3) {
+        attachments.put(URLDecoder.decode(fields[1], ENCODING),
+            Long.parseLong(fields[2]));
+      } else {
+        return false;
+      }
+      return true;
+    } catch (Exception e) {
+      // A record cut short by the process dying fails to parse in any of
+      // several ways, all of which mean it is ignored.
+      return false;
+    }
+  }
+
+  /**
+   * Returns the entries fetched by the earlier export, in the order they
+   * were fetched.
+   */
+  List<BaseContentEntry<?>> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Returns whether or not the entry with the given id has been fetched.
+   */
+  synchronized boolean hasEntry(String id) {
+    return entryIds.contains(id);
+  }
+
+  /**
+   * Returns the index of the content feed from which to continue reading.
+   */
+  int getStartIndex() {
+    return startIndex;
+  }
+
+  /**
+   * Returns whether or not the whole content feed has been read.
+   */
+  boolean isFeedComplete() {
+    return feedComplete;
+  }
+
+  /**
+   * Returns whether or not the page with the given id has been written.
+   */
+  boolean isPageDone(String id) {
+    return pages.contains(id);
+  }
+
+  /**
+   * Returns whether or not the revisions of the page with the given id have
+   * been written.
+   */
+  boolean isRevisionsDone(String id) {
+    return revisions.contains(id);
+  }
+
+  /**
+   * Returns the checksum of the attachment with the given id if it has been
+   * downloaded, or {@link ExportManifest#NO_CHECKSUM} otherwise.
+   */
+  long getAttachmentChecksum(String id) {
+    Long checksum = attachments.get(id);
+    return (checksum == null) ? ExportManifest.NO_CHECKSUM : checksum;
+  }
+
+  /**
+   * Records an entry fetched from the content feed. It becomes durable at
+   * the next checkpoint.
+   */
+  synchronized void entryFetched(BaseContentEntry<?> entry) {
+    if (out == null || entry.getId() == null || !entryIds.add(entry.getId())) {
+      return;
+    }
+    try {
+      StringWriter stringWriter = new StringWriter();
+      XmlWriter xmlWriter = new XmlWriter(stringWriter);
+      entry.generateAtom(xmlWriter, extensionProfile);
+      xmlWriter.flush();
+      write(ENTRY + '\t' + entry.getClass().getName() + '\t'
+          + URLEncoder.encode(stringWriter.toString(), ENCODING), false);
+    } catch (IOException e) {
+      LOGGER.warn("Unable to record entry: " + entry.getId(), e);
+    }
+  }
+
+  /**
+   * Records that every entry before the given index of the content feed has
+   * been fetched, making them durable.
+   */
+  void feedRead(int nextIndex) {
+    write(FEED_INDEX + '\t' + nextIndex, true);
+  }
+
+  /**
+   * Records that the whole content feed has been read.
+   */
+  void feedComplete() {
+    write(FEED_COMPLETE, true);
+  }
+
+  /**
+   * Records that the page with the given id has been written.
+   */
+  void pageDone(String id) {
+    writeId(PAGE, id, "");
+  }
+
+  /**
+   * Records that the revisions of the page with the given id have been
+   * written.
+   */
+  void revisionsDone(String id) {
+    writeId(REVISIONS, id, "");
+  }
+
+  /**
+   * Records that the attachment with the given id has been downloaded, and
+   * the checksum of its contents.
+   */
+  void attachmentDone(String id, long checksum) {
+    writeId(ATTACHMENT, id, "\t" + checksum);
+  }
+
+  private void writeId(String type, String id, String suffix) {
+    try {
+      write(type + '\t' + URLEncoder.encode(id, ENCODING) + suffix, true);
+    } catch (IOException e) {
+      LOGGER.warn("Unable to record checkpoint for: " + id, e);
+    }
+  }
+
+  private synchronized void write(String record, boolean flush) {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.write(record + '\n');
+      if (flush) {
+        out.flush();
+      }
+    } catch (IOException e) {
+      LOGGER.error("Unable to write checkpoint: " + file
+          + ", no longer recording progress.", e);
+      closeQuietly();
+    }
+  }
+
+  /**
+   * Closes the journal, keeping it so that the export can be resumed.
+   */
+  @Override
+  public synchronized void close() {
+    closeQuietly();
+  }
+
+  /**
+   * Closes and deletes the journal, once the export has completed.
+   */
+  synchronized void delete() {
+    closeQuietly();
+    if (file.isFile() && !file.delete()) {
+      LOGGER.warn("Unable to delete checkpoint: " + file);
+    }
+  }
+
+  private void closeQuietly() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        LOGGER.warn("Failed closing checkpoint: " + file, e);
+      }
+      out = null;
+    }
+  }
+
+  private static Writer newWriter(File file, boolean append)
+      throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, append), ENCODING));
+  }
+}
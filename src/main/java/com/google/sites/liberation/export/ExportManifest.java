@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.util.common.base.Nullable;
+import com.google.sites.liberation.util.EntryUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Records the version of every entry written by an export, together with
+ * the site-relative path of each page and attachment and a checksum of each
+ * attachment, so that a later export can tell what has changed since.
+ *
+ * <p>A manifest is kept in a single text file in the root folder of the
+ * export. Records may be added from several threads at once.</p>
+ */
+final class ExportManifest {
+
+  /** The name of the manifest file in the root folder of an export. */
+  static final String FILE_NAME = ".export-manifest";
+
+  /** Stands in for a missing checksum. */
+  static final long NO_CHECKSUM = -1;
+
+  private static final String HEADER = "sites-liberation-export 1";
+  private static final String ENCODING = "UTF-8";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final boolean revisionsExported;
+  private final Map<String, Record> records;
+
+  /**
+   * Creates a new empty manifest for an export which did or did not include
+   * the revisions of each page.
+   */
+  ExportManifest(boolean revisionsExported) {
+    this.revisionsExported = revisionsExported;
+    this.records = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Returns whether or not the export included the revisions of each page.
+   */
+  boolean getRevisionsExported() {
+    return revisionsExported;
+  }
+
+  /**
+   * Records the version of the given entry, which has not been written yet.
+   */
+  void addEntry(BaseContentEntry<?> entry) {
+    records.put(entry.getId(), new Record(EntryUtils.getParentId(entry),
+        entry.getUpdated() == null ? 0 : entry.getUpdated().getValue(),
+        entry.getRevision() == null ? 0 : entry.getRevision().getValue(),
+        null, NO_CHECKSUM));
+  }
+
+  /**
+   * Records the site-relative path, and checksum if it is a file, that the
+   * entry with the given id was written to.
+   */
+  void setPath(String id, File path, long checksum) {
+    Record record = checkNotNull(records.get(id));
+    records.put(id, new Record(record.parentId, record.updated,
+        record.revision, path, checksum));
+  }
+
+  /**
+   * Returns the record of the entry with the given id, or {@code null} if
+   * there is none.
+   */
+  Record getRecord(String id) {
+    return records.get(id);
+  }
+
+  /**
+   * Returns the ids of every recorded entry.
+   */
+  Set<String> getIds() {
+    return records.keySet();
+  }
+
+  /**
+   * Writes this manifest to the given root folder, replacing any manifest
+   * already there only once it has been written completely.
+   */
+  void write(File directory) throws IOException {
+    directory.mkdirs();
+    File file = new File(directory, FILE_NAME);
+    File temp = new File(directory, FILE_NAME + ".tmp");
+    Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(temp), ENCODING));
+    try {
+      out.write(HEADER + '\t' + revisionsExported + '\n');
+      for (Map.Entry<String, Record> entry : records.entrySet()) {
+        Record record = entry.getValue();
+        out.write(encode(entry.getKey()) + '\t' + encode(record.parentId)
+            + '\t' + record.updated + '\t' + record.revision + '\t'
+            + encode(record.path == null ? null
+                : record.path.getPath().replace(File.separatorChar, '/'))
+            + '\t' + record.checksum + '\n');
+      }
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      file.delete();
+      if (!temp.renameTo(file)) {
+        throw new IOException("Unable to replace manifest: " + file);
+      }
+    }
+  }
+
+  /**
+   * Reads the manifest in the given root folder, or returns {@code null} if
+   * there is none.
+   *
+   * @throws IOException if the manifest cannot be read or is not valid
+   */
+  static ExportManifest read(File directory) throws IOException {
+    File file = new File(directory, FILE_NAME);
+    if (!file.isFile()) {
+      return null;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), ENCODING));
+    try {
+      String[] header = split(in.readLine(), 2, file);
+      if (!HEADER.equals(header[0])) {
+        throw new IOException("Unknown manifest format: " + file);
+      }
+      ExportManifest manifest =
+          new ExportManifest(Boolean.parseBoolean(header[1]));
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = split(line, 6, file);
+        String path = decode(fields[4]);
+        try {
+          manifest.records.put(decode(fields[0]), new Record(
+              decode(fields[1]), Long.parseLong(fields[2]),
+              Integer.parseInt(fields[3]),
+              (path == null) ? null : new File(path),
+              Long.parseLong(fields[5])));
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid manifest entry: " + line, e);
+        }
+      }
+      return manifest;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String[] split(@Nullable String line, int fields, File file)
+      throws IOException {
+    String[] values = (line == null) ? new String[0] : line.split("\t", -1);
+    if (values.length != fields) {
+      throw new IOException("Invalid manifest: " + file);
+    }
+    return values;
+  }
+
+  /**
+   * Returns the CRC-32 checksum of the contents of the given file.
+   */
+  static long checksum(File file) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    InputStream in = new FileInputStream(file);
+    try {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        crc.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return crc.getValue();
+  }
+
+  private static String encode(@Nullable String value)
+      throws UnsupportedEncodingException {
+    return (value == null) ? "" : URLEncoder.encode(value, ENCODING);
+  }
+
+  private static String decode(String value)
+      throws UnsupportedEncodingException {
+    return value.isEmpty() ? null : URLDecoder.decode(value, ENCODING);
+  }
+
+  /**
+   * The recorded version and location of a single entry.
+   */
+  static final class Record {
+
+    final String parentId;
+    final long updated;
+    final int revision;
+    final File path;
+    final long checksum;
+
+    Record(@Nullable String parentId, long updated, int revision,
+        @Nullable File path, long checksum) {
+      this.parentId = parentId;
+      this.updated = updated;
+      this.revision = revision;
+      this.path = path;
+      this.checksum = checksum;
+    }
+
+    /**
+     * Returns whether or not the given record is of the same version of the
+     * same entry, in the same place in the hierarchy.
+     */
+    boolean isSameVersion(Record other) {
+      return Objects.equal(parentId, other.parentId)
+          && updated == other.updated && revision == other.revision;
+    }
+  }
+}
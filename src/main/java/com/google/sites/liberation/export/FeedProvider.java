@@ -21,6 +21,7 @@ import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.inject.ImplementedBy;
 
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Provides an Iterable of BaseContentEntry's, for a given feed URL and 
@@ -33,8 +34,17 @@ public interface FeedProvider {
 
   /**
    * Returns an Iterable of the entries at the given feed URL, using the given
-   * SitesService.
+   * SitesService, whose iterators send one request at a time.
    */
   Iterable<BaseContentEntry<?>> getEntries(URL feedUrl, 
       SitesService sitesService);
+  
+  /**
+   * Returns an Iterable of the entries at the given feed URL from the given
+   * one-based index on, using the given SitesService, whose iterators may 
+   * send requests ahead of their consumer on the given executor. The caller
+   * shuts the executor down once it has finished reading the feed.
+   */
+  Iterable<BaseContentEntry<?>> getEntries(URL feedUrl, 
+      SitesService sitesService, int startIndex, ExecutorService executor);
 }
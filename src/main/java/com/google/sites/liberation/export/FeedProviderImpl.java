@@ -21,9 +21,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.sites.liberation.util.EntryProvider;
 
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Provides an Iterable of BaseContentEntry's, for a given feed URL and 
@@ -34,18 +36,48 @@ import java.net.URL;
 final class FeedProviderImpl implements FeedProvider {
 
   private static final int RESULTS_PER_REQUEST = 20;
+  private static final int MIN_RESULTS_PER_REQUEST = 5;
+  private static final int MAX_RESULTS_PER_REQUEST = 500;
+  private static final long TARGET_REQUEST_MILLIS = 3000;
   
   private final EntryProvider entryProvider;
+  private final int prefetchedRequests;
+  private final boolean adaptiveRequestSize;
   
+  /**
+   * Creates a new FeedProviderImpl whose feeds read on an executor keep the
+   * given number of requests in flight, and adapt the number of results per request to the
+   * server's latency if {@code adaptiveRequestSize} is set.
+   */
   @Inject
-  FeedProviderImpl(EntryProvider entryProvider) {
+  FeedProviderImpl(EntryProvider entryProvider, 
+      @Named(SiteExporterModule.PREFETCHED_REQUESTS) int prefetchedRequests,
+      @Named(SiteExporterModule.ADAPTIVE_REQUEST_SIZE) 
+          boolean adaptiveRequestSize) {
     this.entryProvider = checkNotNull(entryProvider);
+    this.prefetchedRequests = prefetchedRequests;
+    this.adaptiveRequestSize = adaptiveRequestSize;
   }
   
   @Override
   public Iterable<BaseContentEntry<?>> getEntries(URL feedUrl, 
       SitesService sitesService) {
     return new ContinuousContentFeed(feedUrl, entryProvider, sitesService,
-        RESULTS_PER_REQUEST);
+        newBatchSize(), null, 1, 1);
+  }
+  
+  @Override
+  public Iterable<BaseContentEntry<?>> getEntries(URL feedUrl, 
+      SitesService sitesService, int startIndex, ExecutorService executor) {
+    return new ContinuousContentFeed(feedUrl, entryProvider, sitesService,
+        newBatchSize(), checkNotNull(executor), prefetchedRequests, 
+        startIndex);
+  }
+  
+  private AdaptiveBatchSize newBatchSize() {
+    return adaptiveRequestSize
+        ? new AdaptiveBatchSize(RESULTS_PER_REQUEST, MIN_RESULTS_PER_REQUEST, 
+            MAX_RESULTS_PER_REQUEST, TARGET_REQUEST_MILLIS)
+        : AdaptiveBatchSize.fixed(RESULTS_PER_REQUEST);
   }
 }
@@ -22,13 +22,12 @@ import static com.google.sites.liberation.util.EntryType.isPage;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
 import com.google.sites.liberation.util.EntryUtils;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Maps;
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,6 +35,10 @@ import java.util.logging.Logger;
 /**
  * An in-memory implementation of {@link EntryStore}.
  * 
+ * <p>The hierarchy of the entries is kept in an {@link EntryIndex}, and the 
+ * entries themselves in an array with the same indices, so that looking up
+ * the parent or children of an entry only costs a single hash lookup.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class InMemoryEntryStore implements EntryStore {
@@ -43,35 +46,41 @@ final class InMemoryEntryStore implements EntryStore {
   private static final Logger LOGGER = Logger.getLogger(
       InMemoryEntryStore.class.getCanonicalName());
   
-  private final Map<String, BaseContentEntry<?>> entries;
+  private final EntryIndex index;
   private final Set<BasePageEntry<?>> topLevelEntries;
-  private final Multimap<String, BaseContentEntry<?>> children;
+  private BaseContentEntry<?>[] entries;
+  private volatile PagePaths pagePaths;
   
   /**
    * Creates a new InMemoryEntryStore which provides constant time storage 
    * and retrieval of entries by id or parent id.
    */
   InMemoryEntryStore() {
-    entries = Maps.newHashMap();
+    index = new EntryIndex();
     topLevelEntries = Sets.newHashSet();
-    children = HashMultimap.create();
+    entries = new BaseContentEntry<?>[0];
   }
 
   @Override
   public void addEntry(BaseContentEntry<?> entry) {
     checkNotNull(entry);
+    pagePaths = null;
     String id = entry.getId();
-    if (id != null && entries.get(id) == null) {
-      entries.put(id, entry);
-      String parentId = EntryUtils.getParentId(entry);
+    String parentId = EntryUtils.getParentId(entry);
+    int i = (id == null) ? EntryIndex.NONE : index.add(id, parentId, 
+        isPage(entry));
+    if (i != EntryIndex.NONE) {
+      if (index.size() > entries.length) {
+        entries = Arrays.copyOf(entries, 
+            Math.max(index.size(), entries.length * 2));
+      }
+      entries[i] = entry;
       if (parentId == null) {
         if (isPage(entry)) {
           topLevelEntries.add((BasePageEntry<?>) entry);
         } else {
           LOGGER.log(Level.WARNING, "All non-page entries must have a parent!");
         }
-      } else {
-        children.put(parentId, entry);
       }
     } else {
       LOGGER.log(Level.WARNING, "All entries should have a unique non-null id!");
@@ -81,28 +90,48 @@ final class InMemoryEntryStore implements EntryStore {
   @Override
   public Collection<BaseContentEntry<?>> getChildren(String id) {
     checkNotNull(id);
-    return children.get(id);
+    List<BaseContentEntry<?>> children = Lists.newArrayList();
+    for (int child = index.getFirstChild(id); child != EntryIndex.NONE; 
+        child = index.getNextSibling(child)) {
+      children.add(entries[child]);
+    }
+    return children;
+  }
+
+  @Override
+  public List<String> getChildPageIds(String id) {
+    return index.getChildPageIds(checkNotNull(id));
   }
 
   @Override
   public BaseContentEntry<?> getEntry(String id) {
     checkNotNull(id);
-    return entries.get(id);
+    int i = index.indexOf(id);
+    return (i == EntryIndex.NONE) ? null : entries[i];
   }
   
   @Override
   public BasePageEntry<?> getParent(String id) {
     checkNotNull(id);
-    BaseContentEntry<?> child = getEntry(id);
-    String parentId = EntryUtils.getParentId(child);
-    if (parentId == null) {
+    int i = index.indexOf(id);
+    if (i == EntryIndex.NONE) {
       return null;
     }
-    return (BasePageEntry<?>) getEntry(parentId);
+    int parent = index.getParent(i);
+    return (parent == EntryIndex.NONE) ? null 
+        : (BasePageEntry<?>) entries[parent];
   }
   
   @Override
   public Collection<BasePageEntry<?>> getTopLevelEntries() {
     return topLevelEntries;
   }
+  
+  @Override
+  public synchronized PagePaths getPagePaths() {
+    if (pagePaths == null) {
+      pagePaths = new PagePaths(this);
+    }
+    return pagePaths;
+  }
 }
@@ -16,6 +16,8 @@
 
 package com.google.sites.liberation.export;
 
+import com.google.gdata.data.ExtensionProfile;
+
 /**
  * Provides new InMemoryEntryStore's.
  * 
@@ -26,7 +28,7 @@ final class InMemoryEntryStoreFactory implements EntryStoreFactory {
   /**
    * Returns a new InMemoryEntryStore.
    */
-  public EntryStore newEntryStore() {
+  public EntryStore newEntryStore(ExtensionProfile extensionProfile) {
     return new InMemoryEntryStore();
   }
 }
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.util.common.base.Nullable;
+import com.google.sites.liberation.export.ExportManifest.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tracks an export made on top of a previous export of the same site, so
+ * that only the pages affected by changes since then are rendered again and
+ * only changed attachments are downloaded again. Everything else is carried
+ * forward from the previous export, as a hard link where possible.
+ *
+ * <p>A page is rendered again if it has changed, if any of its ancestors
+ * has changed, since its folder and the links to them would have, or if any
+ * of its children has been added, changed or removed, since they are listed
+ * on it. Every page is rendered again if a top level page has changed, as
+ * they all appear in the navigation side bar. Without a previous export,
+ * every page is rendered. Once the export has completed, its manifest is
+ * written with {@link #finish()}.</p>
+ */
+final class IncrementalExport {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      IncrementalExport.class.getCanonicalName());
+
+  private final File previousDirectory;
+  private final ExportManifest previous;
+  private final File rootDirectory;
+  private final ExportManifest manifest;
+  private Set<String> stalePages;
+
+  private IncrementalExport(@Nullable File previousDirectory,
+      @Nullable ExportManifest previous, File rootDirectory,
+      boolean exportRevisions) {
+    this.previousDirectory = previousDirectory;
+    this.previous = previous;
+    this.rootDirectory = rootDirectory;
+    this.manifest = new ExportManifest(exportRevisions);
+  }
+
+  /**
+   * Starts an export to the given root folder, on top of the export in the
+   * given previous folder if there is a usable one.
+   */
+  static IncrementalExport start(@Nullable File previousDirectory,
+      File rootDirectory, boolean exportRevisions) {
+    checkNotNull(rootDirectory);
+    ExportManifest previous = null;
+    if (previousDirectory != null) {
+      try {
+        previous = ExportManifest.read(previousDirectory);
+        if (previous == null) {
+          LOGGER.warn("No previous export in: " + previousDirectory
+              + ", exporting everything.");
+        } else if (previous.getRevisionsExported() != exportRevisions) {
+          LOGGER.warn("Previous export in: " + previousDirectory
+              + " differs in revisions, exporting everything.");
+          previous = null;
+        }
+      } catch (IOException e) {
+        LOGGER.error("Unable to read previous export in: "
+            + previousDirectory + ", exporting everything.", e);
+      }
+    }
+    return new IncrementalExport(previousDirectory, previous, rootDirectory,
+        exportRevisions);
+  }
+
+  /**
+   * Records the version of an entry retrieved for this export.
+   */
+  void addEntry(BaseContentEntry<?> entry) {
+    manifest.addEntry(entry);
+  }
+
+  /**
+   * Works out which of the given pages need to be rendered again, once
+   * every entry in the given store has been added.
+   */
+  void findStalePages(EntryStore entryStore, Set<String> pageIds) {
+    stalePages = Collections.unmodifiableSet(
+        getStalePages(entryStore, pageIds));
+    if (previous != null) {
+      LOGGER.info((pageIds.size() - stalePages.size()) + " of "
+          + pageIds.size() + " pages unchanged since the previous export.");
+    }
+  }
+
+  private Set<String> getStalePages(EntryStore entryStore,
+      Set<String> pageIds) {
+    if (previous == null) {
+      return pageIds;
+    }
+    Set<String> stale = Sets.newHashSet();
+    Set<String> subtrees = Sets.newHashSet();
+    for (String id : manifest.getIds()) {
+      Record record = manifest.getRecord(id);
+      Record old = previous.getRecord(id);
+      if (old != null && old.isSameVersion(record)) {
+        continue;
+      }
+      if (record.parentId == null || (old != null && old.parentId == null)) {
+        return pageIds;
+      }
+      stale.add(record.parentId);
+      if (old != null) {
+        stale.add(old.parentId);
+      }
+      if (pageIds.contains(id)) {
+        addSubtree(id, entryStore, stale, subtrees);
+      }
+    }
+    for (String id : previous.getIds()) {
+      if (manifest.getRecord(id) == null) {
+        String parentId = previous.getRecord(id).parentId;
+        if (parentId == null) {
+          return pageIds;
+        }
+        stale.add(parentId);
+      }
+    }
+    stale.retainAll(pageIds);
+    return stale;
+  }
+
+  /**
+   * Adds the page with the given id and every page beneath it to the given
+   * set of stale pages, unless it has been added already.
+   */
+  private void addSubtree(String id, EntryStore entryStore, Set<String> stale,
+      Set<String> subtrees) {
+    LinkedList<String> queue = Lists.newLinkedList();
+    queue.add(id);
+    while (!queue.isEmpty()) {
+      String pageId = queue.removeFirst();
+      if (subtrees.add(pageId)) {
+        stale.add(pageId);
+        queue.addAll(entryStore.getChildPageIds(pageId));
+      }
+    }
+  }
+
+  /**
+   * Returns whether or not the page with the given id needs to be rendered.
+   */
+  boolean isStale(String pageId) {
+    return stalePages == null || stalePages.contains(pageId);
+  }
+
+  /**
+   * Carries the given page forward to the given site-relative folder if it
+   * has not been affected by any changes, and returns whether it was.
+   */
+  boolean carryPage(BaseContentEntry<?> page, File relativePath) {
+    String id = page.getId();
+    manifest.setPath(id, relativePath, ExportManifest.NO_CHECKSUM);
+    File file = new File(relativePath, "index.html");
+    if (!isStale(id) && isSamePlace(id, relativePath) && carry(file)) {
+      return true;
+    }
+    detach(file);
+    return false;
+  }
+
+  /**
+   * Records that the given page was already written to the given
+   * site-relative folder by an earlier run of this export.
+   */
+  void pageResumed(BaseContentEntry<?> page, File relativePath) {
+    manifest.setPath(page.getId(), relativePath, ExportManifest.NO_CHECKSUM);
+  }
+
+  /**
+   * Carries the history and revisions of the given page forward to the
+   * given site-relative folder if the page has not changed, and returns
+   * whether they were.
+   */
+  boolean carryRevisions(BaseContentEntry<?> page, File relativePath) {
+    String id = page.getId();
+    File history = new File(relativePath, "history.html");
+    File revisions = new File(relativePath, "_revisions");
+    if (isUnchanged(id) && isSamePlace(id, relativePath)) {
+      String[] names =
+          new File(previousDirectory, revisions.getPath()).list();
+      boolean carried = (names != null);
+      for (int i = 0; carried && i < names.length; i++) {
+        carried = carry(new File(revisions, names[i]));
+      }
+      if (carried && carry(history)) {
+        return true;
+      }
+    }
+    detach(history);
+    String[] names = new File(rootDirectory, revisions.getPath()).list();
+    if (names != null) {
+      for (String name : names) {
+        detach(new File(revisions, name));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Carries the given attachment forward to the given site-relative file if
+   * it has not changed and the previous copy is intact, and returns whether
+   * it was.
+   */
+  boolean carryAttachment(BaseContentEntry<?> attachment, File relativePath) {
+    String id = attachment.getId();
+    if (isUnchanged(id)) {
+      Record old = previous.getRecord(id);
+      File file = new File(previousDirectory, old.path.getPath());
+      if (isIntact(file, old.checksum)
+          && link(file, new File(rootDirectory, relativePath.getPath()))) {
+        manifest.setPath(id, relativePath, old.checksum);
+        return true;
+      }
+    }
+    detach(relativePath);
+    return false;
+  }
+
+  /**
+   * Keeps the given attachment as downloaded to the given site-relative file
+   * by an earlier run of this export, if it is still there with the given
+   * checksum, and returns whether it was.
+   */
+  boolean resumeAttachment(BaseContentEntry<?> attachment, File relativePath,
+      long checksum) {
+    if (isIntact(new File(rootDirectory, relativePath.getPath()), checksum)) {
+      manifest.setPath(attachment.getId(), relativePath, checksum);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether or not the given file exists with the given checksum.
+   */
+  private static boolean isIntact(File file, long checksum) {
+    try {
+      return checksum != ExportManifest.NO_CHECKSUM && file.isFile()
+          && ExportManifest.checksum(file) == checksum;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read previous attachment: " + file, e);
+      return false;
+    }
+  }
+
+  /**
+   * Records that the whole of the given attachment has been downloaded to the
+   * given site-relative file, and returns its checksum, or
+   * {@link ExportManifest#NO_CHECKSUM} if it could not be read.
+   */
+  long attachmentDownloaded(BaseContentEntry<?> attachment,
+      File relativePath) {
+    File file = new File(rootDirectory, relativePath.getPath());
+    long checksum = ExportManifest.NO_CHECKSUM;
+    try {
+      if (file.isFile()) {
+        checksum = ExportManifest.checksum(file);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read attachment: " + file, e);
+    }
+    manifest.setPath(attachment.getId(), relativePath, checksum);
+    return checksum;
+  }
+
+  /**
+   * Writes the manifest of this export to its root folder.
+   */
+  void finish() throws IOException {
+    manifest.write(rootDirectory);
+  }
+
+  private boolean isUnchanged(String id) {
+    if (previous == null) {
+      return false;
+    }
+    Record old = previous.getRecord(id);
+    return old != null && old.path != null
+        && old.isSameVersion(manifest.getRecord(id));
+  }
+
+  private boolean isSamePlace(String id, File relativePath) {
+    Record old = previous.getRecord(id);
+    return old != null && relativePath.equals(old.path);
+  }
+
+  /**
+   * Carries the file at the given site-relative path forward from the
+   * previous export.
+   */
+  private boolean carry(File relativePath) {
+    File source = new File(previousDirectory, relativePath.getPath());
+    return source.isFile()
+        && link(source, new File(rootDirectory, relativePath.getPath()));
+  }
+
+  /**
+   * Removes any file at the given site-relative path, which is about to be
+   * written again, so that writing it cannot change a file it was linked to
+   * by an earlier export.
+   */
+  private void detach(File relativePath) {
+    if (previousDirectory != null) {
+      File file = new File(rootDirectory, relativePath.getPath());
+      if (file.isFile() && !file.delete()) {
+        LOGGER.warn("Unable to remove: " + file);
+      }
+    }
+  }
+
+  /**
+   * Makes the given target a hard link to the given source, or a copy of it
+   * if they cannot be linked.
+   */
+  private static boolean link(File source, File target) {
+    try {
+      if (source.getCanonicalFile().equals(target.getCanonicalFile())) {
+        return true;
+      }
+      target.getParentFile().mkdirs();
+      Files.deleteIfExists(target.toPath());
+      try {
+        Files.createLink(target.toPath(), source.toPath());
+      } catch (IOException e) {
+        Files.copy(source.toPath(), target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (UnsupportedOperationException e) {
+        Files.copy(source.toPath(), target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to carry forward: " + source, e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.util.common.base.Nullable;
+import com.google.sites.liberation.util.EntryUtils;
+import com.google.sites.liberation.util.XmlWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The navigation table listing the top level pages of a site, which appears
+ * beside every exported page.
+ * 
+ * <p>The top level pages are sorted once, and the rows of the table are 
+ * rendered once for each distinct path back to the site root, so that the
+ * sidebar of a page is written by copying already rendered fragments. The
+ * complete table is cached for pages which are not themselves listed in it.
+ * This class is thread safe.</p>
+ */
+final class NavigationSideBar {
+
+  private static final String HEADER = 
+      "<table><tr><th align=\"left\">Navigation</th></tr>";
+  private static final String FOOTER = "</table>";
+  
+  private final PagePaths pagePaths;
+  private final Map<String, Integer> indices;
+  private final String[] titles;
+  private final String[] pageNames;
+  private final String[] titleRows;
+  private final ConcurrentMap<String, String[]> linkRows;
+  private final ConcurrentMap<String, String> tables;
+  
+  /**
+   * Creates a new sidebar listing the given top level pages, whose links are
+   * relative to the folders given by {@code pagePaths}.
+   */
+  NavigationSideBar(PagePaths pagePaths, 
+      Collection<BasePageEntry<?>> topLevelEntries) {
+    this.pagePaths = checkNotNull(pagePaths);
+    Set<BasePageEntry<?>> pages = 
+        Sets.newTreeSet(EntryUtils.getTitleComparator());
+    pages.addAll(topLevelEntries);
+    indices = Maps.newHashMap();
+    titles = new String[pages.size()];
+    pageNames = new String[pages.size()];
+    titleRows = new String[pages.size()];
+    int i = 0;
+    for (BasePageEntry<?> page : pages) {
+      indices.put(page.getId(), i);
+      titles[i] = page.getTitle().getPlainText();
+      pageNames[i] = (page.getPageName() == null) 
+          ? null : page.getPageName().getValue();
+      titleRows[i] = renderRow(titles[i], null);
+      i++;
+    }
+    linkRows = Maps.newConcurrentMap();
+    tables = Maps.newConcurrentMap();
+  }
+  
+  /**
+   * Writes the sidebar for the entry with the given id, which links to every 
+   * top level page other than the entry itself.
+   */
+  void writeTo(XmlWriter writer, String entryId) throws IOException {
+    String pathToRoot = pagePaths.getPathToRoot(entryId);
+    String[] rows = getLinkRows(pathToRoot);
+    Integer highlighted = indices.get(entryId);
+    if (highlighted == null) {
+      String table = tables.get(pathToRoot);
+      if (table == null) {
+        StringBuilder builder = new StringBuilder(HEADER);
+        for (String row : rows) {
+          builder.append(row);
+        }
+        table = builder.append(FOOTER).toString();
+        tables.putIfAbsent(pathToRoot, table);
+      }
+      writer.xml(table);
+    } else {
+      writer.xml(HEADER);
+      for (int i = 0; i < rows.length; i++) {
+        writer.xml((i == highlighted) ? titleRows[i] : rows[i]);
+      }
+      writer.xml(FOOTER);
+    }
+  }
+  
+  private String[] getLinkRows(String pathToRoot) {
+    String[] rows = linkRows.get(pathToRoot);
+    if (rows == null) {
+      rows = new String[titles.length];
+      for (int i = 0; i < titles.length; i++) {
+        rows[i] = renderRow(titles[i], 
+            pathToRoot + pageNames[i] + "/index.html");
+      }
+      linkRows.putIfAbsent(pathToRoot, rows);
+    }
+    return rows;
+  }
+  
+  /**
+   * Renders a row of the table containing the given text, which links to
+   * {@code href} unless it is {@code null}.
+   */
+  private static String renderRow(String text, @Nullable String href) {
+    StringBuilder builder = new StringBuilder();
+    XmlWriter writer = new XmlWriter(builder);
+    try {
+      writer.start("tr").start("td").start("small");
+      if (href == null) {
+        writer.text(text);
+      } else {
+        writer.start("a").attr("href", href).text(text).end();
+      }
+      writer.endAll();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return builder.toString();
+  }
+}
@@ -33,11 +33,14 @@ interface PageExporter {
    * Exports the given page.
    * 
    * @param entry the entry for the page being exported
+   * @param content the xhtml content to export for the page, in place of the
+   *        entry's own (i.e. with its links converted)
    * @param entryStore the EntryStore containing this entry and its related entries
    * @param out Appendable to export to
    * @param revisionsExported whether or not revisions were exported 
    *        (i.e. whether or not to link to a the version history file) 
    */
-  void exportPage(BaseContentEntry<?> entry, EntryStore entryStore, Appendable out,
-      boolean revisionsExported) throws IOException;
+  void exportPage(BaseContentEntry<?> entry, String content, 
+      EntryStore entryStore, Appendable out, boolean revisionsExported) 
+      throws IOException;
 }
@@ -23,7 +23,7 @@ import static com.google.sites.liberation.util.EntryType.LIST_PAGE;
 import static com.google.sites.liberation.util.EntryType.getType;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.MapMaker;
 import com.google.gdata.data.sites.AnnouncementEntry;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
@@ -41,18 +41,23 @@ import com.google.sites.liberation.renderers.ListRenderer;
 import com.google.sites.liberation.renderers.SubpageLinksRenderer;
 import com.google.sites.liberation.renderers.TitleRenderer;
 import com.google.sites.liberation.util.EntryUtils;
-import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
 
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * Implements {@link PageExporter} to export a single page in a 
  * Site as to a given {@code Appendable}. 
  * 
+ * <p>The page is written to the {@code Appendable} as it is rendered. The
+ * content and the list of a list page are written straight to it, and only
+ * the element produced by one of the other renderers is held in memory at a
+ * time.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class PageExporterImpl implements PageExporter {
@@ -71,6 +76,10 @@ final class PageExporterImpl implements PageExporter {
   private ListRenderer listRenderer;
   private SubpageLinksRenderer subpageLinksRenderer;
   private TitleRenderer titleRenderer;
+  // Sidebars by the page paths they were built from, so that sites exported
+  // at once by the same exporter each keep their own.
+  private final Map<PagePaths, NavigationSideBar> sideBars =
+      new MapMaker().weakKeys().makeMap();
   
   @Inject
   PageExporterImpl(
@@ -95,32 +104,32 @@ final class PageExporterImpl implements PageExporter {
   }
   
   @Override
-  public void exportPage(BaseContentEntry<?> entry, EntryStore entryStore,
-      Appendable out, boolean revisionsExported) throws IOException {
+  public void exportPage(BaseContentEntry<?> entry, String content, 
+      EntryStore entryStore, Appendable out, boolean revisionsExported) 
+      throws IOException {
     checkNotNull(entry, "entry");
+    checkNotNull(content, "content");
     checkNotNull(entryStore, "entryStore");
     checkNotNull(out, "out");
-    XmlElement html = new XmlElement("html");
-    XmlElement head = new XmlElement("head");
-    XmlElement title = new XmlElement("title");
-    title.addText(entry.getTitle().getPlainText());
-    html.addElement(head.addElement(title));
-    XmlElement body = new XmlElement("body");
-    XmlElement table = new XmlElement("table").setAttribute("width", "100%");
-    XmlElement row = new XmlElement("tr").setAttribute("valign", "top");
-    XmlElement sideBar = getSideBar(entry, entryStore);
-    row.addElement(new XmlElement("td").addElement(sideBar).setAttribute(
-        "width", "150px"));
-    row.addElement(new XmlElement("td").addXml("&#160;"));
-    XmlElement mainDiv = new XmlElement("div");
-    mainDiv.setAttribute("class", "hentry " + getType(entry).toString());
-    mainDiv.setAttribute("id", entry.getId());
-    if (entryStore.getParent(entry.getId()) != null) {
-      List<BasePageEntry<?>> ancestors = getAncestors(entry, entryStore);
-      mainDiv.addElement(ancestorLinksRenderer.renderAncestorLinks(ancestors));      
+    XmlWriter writer = new XmlWriter(out);
+    writer.start("html").start("head").start("title")
+        .text(entry.getTitle().getPlainText()).end().end();
+    writer.start("body").start("table").attr("width", "100%");
+    writer.start("tr").attr("valign", "top");
+    writer.start("td").attr("width", "150px");
+    writeSideBar(entry, entryStore, writer);
+    writer.end();
+    writer.start("td").xml("&#160;").end();
+    writer.start("td").start("div");
+    writer.attr("class", "hentry " + getType(entry).toString());
+    writer.attr("id", entry.getId());
+    List<BasePageEntry<?>> ancestors = 
+        entryStore.getPagePaths().getAncestors(entry.getId());
+    if (!ancestors.isEmpty()) {
+      writer.element(ancestorLinksRenderer.renderAncestorLinks(ancestors));
     }
-    mainDiv.addElement(titleRenderer.renderTitle(entry));
-    mainDiv.addElement(contentRenderer.renderContent(entry, revisionsExported));
+    writer.element(titleRenderer.renderTitle(entry));
+    contentRenderer.writeContent(entry, content, revisionsExported, writer);
     List<AnnouncementEntry> announcements = Lists.newArrayList();
     List<BaseContentEntry<?>> attachments = Lists.newArrayList();
     List<CommentEntry> comments = Lists.newArrayList();
@@ -158,72 +167,43 @@ final class PageExporterImpl implements PageExporter {
     Collections.sort(listItems, updatedComparator);
     Collections.sort(subpages, titleComparator);
     if (getType(entry) == ANNOUNCEMENTS_PAGE) {
-      mainDiv.addElement(announcementsRenderer
+      writer.element(announcementsRenderer
           .renderAnnouncements(announcements));
     } else if (getType(entry) == FILE_CABINET_PAGE) {
-      mainDiv.addElement(fileCabinetRenderer.renderFileCabinet(attachments));
+      writer.element(fileCabinetRenderer.renderFileCabinet(attachments));
     } else if (getType(entry) == LIST_PAGE) {
       // TODO(gk5885): remove extra cast for
       // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
-      mainDiv.addElement(listRenderer.renderList(
-          (ListPageEntry) entry, listItems));
+      listRenderer.writeList((ListPageEntry) entry, listItems, writer);
     }
     if (!subpages.isEmpty()) {
-      mainDiv.addElement(new XmlElement("hr"));
-      mainDiv.addElement(subpageLinksRenderer.renderSubpageLinks(subpages));
+      writer.start("hr").end();
+      writer.element(subpageLinksRenderer.renderSubpageLinks(subpages));
     }
     if (!attachments.isEmpty() && getType(entry) != FILE_CABINET_PAGE) {
-      mainDiv.addElement(new XmlElement("hr"));
-      mainDiv.addElement(attachmentsRenderer.renderAttachments(attachments));
+      writer.start("hr").end();
+      writer.element(attachmentsRenderer.renderAttachments(attachments));
     }
     if (!comments.isEmpty()) {
-      mainDiv.addElement(new XmlElement("hr"));
-      mainDiv.addElement(commentsRenderer.renderComments(comments));
-    }
-    row.addElement(new XmlElement("td").addElement(mainDiv));
-    html.addElement(body.addElement(table.addElement(row)));
-    html.appendTo(out);
-  }
-  
-  private XmlElement getSideBar(BaseContentEntry<?> entry, EntryStore entryStore) {
-    XmlElement table = new XmlElement("table");
-    table.addElement(new XmlElement("tr").addElement(new XmlElement("th")
-        .addText("Navigation").setAttribute("align", "left")));
-    Set<BasePageEntry<?>> pages = Sets.newTreeSet(titleComparator);
-    pages.addAll(entryStore.getTopLevelEntries());
-    String pathToRoot = getPathToRoot(entry, entryStore);
-    for (BasePageEntry<?> page : pages) {
-      String text = page.getTitle().getPlainText();
-      if (page.equals(entry)) {
-        table.addElement(new XmlElement("tr").addElement(new XmlElement("td")
-            .addElement(new XmlElement("small").addText(text))));
-      } else {
-        String href = pathToRoot + page.getPageName().getValue() + "/index.html";
-        XmlElement link = new XmlElement("a").addText(text)
-            .setAttribute("href", href);
-        table.addElement(new XmlElement("tr").addElement(new XmlElement("td")
-            .addElement(new XmlElement("small").addElement(link))));
-      }
-    }
-    return table;
-  }
-  
-  private String getPathToRoot(BaseContentEntry<?> entry, EntryStore entryStore) {
-    BasePageEntry<?> parent = entryStore.getParent(entry.getId());
-    if (parent == null) {
-      return "../";
+      writer.start("hr").end();
+      writer.element(commentsRenderer.renderComments(comments));
     }
-    return getPathToRoot(parent, entryStore) + "../";
+    writer.endAll();
   }
   
-  private List<BasePageEntry<?>> getAncestors(BaseContentEntry<?> entry,
-      EntryStore entryStore) {
-    BasePageEntry<?> parent = entryStore.getParent(entry.getId());
-    if (parent == null) {
-      return Lists.newLinkedList();
+  /**
+   * Writes the navigation table listing the top level pages of the site,
+   * rebuilding it only if the entry store has changed since it was built.
+   */
+  private void writeSideBar(BaseContentEntry<?> entry, EntryStore entryStore,
+      XmlWriter writer) throws IOException {
+    PagePaths pagePaths = entryStore.getPagePaths();
+    NavigationSideBar current = sideBars.get(pagePaths);
+    if (current == null) {
+      current = new NavigationSideBar(pagePaths, 
+          entryStore.getTopLevelEntries());
+      sideBars.put(pagePaths, current);
     }
-    List<BasePageEntry<?>> ancestors = getAncestors(parent, entryStore);
-    ancestors.add(parent);
-    return ancestors;
+    current.writeTo(writer, entry.getId());
   }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.sites.liberation.util.EntryType.isPage;
+import static com.google.sites.liberation.util.EntryUtils.getParentId;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.util.common.base.Nullable;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the site-relative folder, the path back to the site root and the
+ * parent of each page in an {@link EntryStore}.
+ *
+ * <p>The paths of every page reachable from the top level entries are
+ * computed in a single pass down the hierarchy when this object is created,
+ * which only retrieves the pages themselves from the store, so that 
+ * exporting a page, its attachments and its revisions never walks up the
+ * hierarchy again. Any other entry is resolved through its parent the
+ * first time it is asked for and remembered from then on. Only ids and paths
+ * are held, never entries, so that a store which keeps its entries on disk
+ * need not keep them in memory as well; ancestors are looked up in the store
+ * by id when they are asked for. This class is thread safe.</p>
+ */
+final class PagePaths {
+
+  private static final String UP = "../";
+
+  private final EntryStore entryStore;
+  private final Map<String, PagePath> paths;
+
+  /**
+   * Creates a new PagePaths containing the paths of all of the pages
+   * currently reachable from the top level entries of the given store.
+   */
+  PagePaths(EntryStore entryStore) {
+    this.entryStore = checkNotNull(entryStore);
+    this.paths = Maps.newConcurrentMap();
+    LinkedList<String> queue = Lists.newLinkedList();
+    for (BasePageEntry<?> page : entryStore.getTopLevelEntries()) {
+      String pageName = getPageName(page);
+      paths.put(page.getId(), new PagePath(
+          (pageName == null) ? null : new File(pageName), UP, null));
+      queue.add(page.getId());
+    }
+    while (!queue.isEmpty()) {
+      String parentId = queue.removeFirst();
+      PagePath parentPath = paths.get(parentId);
+      for (String childId : entryStore.getChildPageIds(parentId)) {
+        BaseContentEntry<?> child = entryStore.getEntry(childId);
+        if (child != null && !paths.containsKey(childId)) {
+          paths.put(childId,
+              parentPath.getChildPath(parentId, getPageName(child)));
+          queue.add(childId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the site-relative folder of the page with the given id, or
+   * {@code null} if any of the page's ancestors are missing.
+   */
+  File getDirectory(String id) {
+    return getPath(id).directory;
+  }
+
+  /**
+   * Returns the relative path from the folder of the page with the given id
+   * to the root of the export, ending in "../".
+   */
+  String getPathToRoot(String id) {
+    return getPath(id).pathToRoot;
+  }
+
+  /**
+   * Returns the ancestors of the entry with the given id, starting at the
+   * top level and ending with its parent.
+   */
+  List<BasePageEntry<?>> getAncestors(String id) {
+    LinkedList<BasePageEntry<?>> ancestors = Lists.newLinkedList();
+    for (String parentId = getPath(id).parentId; parentId != null;
+        parentId = getPath(parentId).parentId) {
+      BaseContentEntry<?> parent = entryStore.getEntry(parentId);
+      if (parent != null) {
+        ancestors.addFirst((BasePageEntry<?>) parent);
+      }
+    }
+    return ancestors;
+  }
+
+  private PagePath getPath(String id) {
+    checkNotNull(id);
+    PagePath path = paths.get(id);
+    if (path == null) {
+      path = resolve(id);
+      paths.put(id, path);
+    }
+    return path;
+  }
+
+  /**
+   * Computes the path of an entry which was not reached from the top level,
+   * in the same way as walking up through its parents would.
+   */
+  private PagePath resolve(String id) {
+    BaseContentEntry<?> entry = entryStore.getEntry(id);
+    String pageName = (entry == null) ? null : getPageName(entry);
+    BasePageEntry<?> parent = entryStore.getParent(id);
+    if (parent == null) {
+      File directory = (pageName != null && getParentId(entry) == null)
+          ? new File(pageName) : null;
+      return new PagePath(directory, UP, null);
+    }
+    return getPath(parent.getId()).getChildPath(parent.getId(), pageName);
+  }
+
+  /**
+   * Returns the page name of the given entry, or {@code null} if it is not a
+   * page or has no page name.
+   */
+  private static String getPageName(BaseContentEntry<?> entry) {
+    if (!isPage(entry) || ((BasePageEntry<?>) entry).getPageName() == null) {
+      return null;
+    }
+    return ((BasePageEntry<?>) entry).getPageName().getValue();
+  }
+
+  /**
+   * The cached paths of a single entry.
+   */
+  private static class PagePath {
+
+    final File directory;
+    final String pathToRoot;
+    final String parentId;
+
+    PagePath(@Nullable File directory, String pathToRoot,
+        @Nullable String parentId) {
+      this.directory = directory;
+      this.pathToRoot = pathToRoot;
+      this.parentId = parentId;
+    }
+
+    /**
+     * Returns the path of a child of the page with the given id, whose path
+     * this is.
+     */
+    PagePath getChildPath(String parentId, @Nullable String pageName) {
+      File childDirectory = (directory == null || pageName == null)
+          ? null : new File(directory, pageName);
+      return new PagePath(childDirectory, pathToRoot + UP, parentId);
+    }
+  }
+}
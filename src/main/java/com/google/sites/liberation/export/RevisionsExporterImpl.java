@@ -16,6 +16,7 @@
 
 package com.google.sites.liberation.export;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.sites.liberation.util.EntryType.isPage;
 
@@ -24,6 +25,7 @@ import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import java.io.Closeable;
 import java.io.File;
@@ -31,12 +33,16 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 /**
  * Exports the history and all of the revisions of a page. 
  * 
+ * <p>This class may be used from several threads at once, but no more than
+ * the configured number of revision feeds are read at the same time.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class RevisionsExporterImpl implements RevisionsExporter {
@@ -49,18 +55,22 @@ final class RevisionsExporterImpl implements RevisionsExporter {
   private final FeedProvider feedProvider;
   private final HistoryExporter historyExporter;
   private final RevisionExporter revisionExporter;
+  private final Semaphore requests;
   
   @Inject
   RevisionsExporterImpl(AbsoluteLinkConverter linkConverter,
       AppendableFactory appendableFactory,
       FeedProvider feedProvider,
       HistoryExporter historyExporter,
-      RevisionExporter revisionExporter) {
+      RevisionExporter revisionExporter,
+      @Named(SiteExporterModule.REVISION_REQUESTS) int maxRequests) {
     this.linkConverter = checkNotNull(linkConverter);
     this.appendableFactory = checkNotNull(appendableFactory);
     this.feedProvider = checkNotNull(feedProvider);
     this.historyExporter = checkNotNull(historyExporter);
     this.revisionExporter = checkNotNull(revisionExporter);
+    checkArgument(maxRequests > 0, "maxRequests");
+    this.requests = new Semaphore(maxRequests, true);
   }
   
   @Override
@@ -78,11 +88,13 @@ final class RevisionsExporterImpl implements RevisionsExporter {
       LOGGER.error("Invalid revisions URL!", e);
       return;
     }
-    List<BaseContentEntry<?>> revisions = Lists.newLinkedList();
-    for (BaseContentEntry<?> entry : 
-        feedProvider.getEntries(feedUrl, sitesService)) {
-      entry.setId(page.getId());
-      revisions.add(entry);
+    List<BaseContentEntry<?>> revisions;
+    try {
+      revisions = getRevisions(page, feedUrl, sitesService);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.error("Interrupted while waiting to read revisions!", e);
+      return;
     }
     for (BaseContentEntry<?> revision : revisions) {
       if (revision.getRevision().getValue() != page.getRevision().getValue()) {
@@ -111,6 +123,26 @@ final class RevisionsExporterImpl implements RevisionsExporter {
     }
   }
   
+  /**
+   * Reads all of the revisions in the given feed, waiting until fewer than
+   * the maximum number of revision feeds are being read.
+   */
+  private List<BaseContentEntry<?>> getRevisions(BaseContentEntry<?> page, 
+      URL feedUrl, SitesService sitesService) throws InterruptedException {
+    List<BaseContentEntry<?>> revisions = Lists.newArrayList();
+    requests.acquire();
+    try {
+      for (BaseContentEntry<?> entry : 
+          feedProvider.getEntries(feedUrl, sitesService)) {
+        entry.setId(page.getId());
+        revisions.add(entry);
+      }
+    } finally {
+      requests.release();
+    }
+    return revisions;
+  }
+  
   private void exportRevision(BasePageEntry<?> revision, 
       File revisionsDirectory) {
     int number = revision.getRevision().getValue();
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+/**
+ * What a {@link SiteExporter} knows about how the export of a site went once
+ * it ends: how many pages and attachments it found, and how many of them it
+ * could not export.
+ */
+public final class SiteExportResult {
+
+  private final int entries;
+  private final int failedPages;
+  private final int failedAttachments;
+
+  public SiteExportResult(int entries, int failedPages, 
+      int failedAttachments) {
+    this.entries = entries;
+    this.failedPages = failedPages;
+    this.failedAttachments = failedAttachments;
+  }
+
+  /**
+   * Returns the number of pages and attachments of the site.
+   */
+  public int getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns the number of pages which could not be written, or whose place
+   * in the site could not be found.
+   */
+  public int getFailedPages() {
+    return failedPages;
+  }
+
+  /**
+   * Returns the number of attachments which could not be downloaded, or 
+   * whose page could not be found.
+   */
+  public int getFailedAttachments() {
+    return failedAttachments;
+  }
+}
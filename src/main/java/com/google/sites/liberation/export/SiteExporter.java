@@ -41,8 +41,31 @@ public interface SiteExporter {
    * @param sitesService SitesService with which to access the site
    * @param rootDirectory directory in which to export
    * @param progressListener ProgressListener to monitor progress on the export
+   * @return how many pages and attachments were found and failed to export
    */
-  void exportSite(String host, @Nullable String domain, String webspace, 
-      boolean exportRevisions, SitesService sitesService, File rootDirectory, 
+  SiteExportResult exportSite(String host, @Nullable String domain, 
+      String webspace, boolean exportRevisions, SitesService sitesService, 
+      File rootDirectory, ProgressListener progressListener);
+  
+  /**
+   * Exports a Site on top of a previous export of it, only rendering the 
+   * pages affected by changes since then and only downloading changed 
+   * attachments. Everything else is carried forward from the previous 
+   * export. If {@code previousDirectory} is {@code null}, or does not hold a
+   * complete export, the whole site is exported.
+   * 
+   * @param host host serving the site
+   * @param domain the domain of the site, if not the default
+   * @param webspace the webspace (name) of the site
+   * @param exportRevisions whether or not to export page's revisions
+   * @param sitesService SitesService with which to access the site
+   * @param rootDirectory directory in which to export
+   * @param previousDirectory directory of a previous export of the site
+   * @param progressListener ProgressListener to monitor progress on the export
+   * @return how many pages and attachments were found and failed to export
+   */
+  SiteExportResult exportSite(String host, @Nullable String domain, 
+      String webspace, boolean exportRevisions, SitesService sitesService, 
+      File rootDirectory, @Nullable File previousDirectory, 
       ProgressListener progressListener);
 }
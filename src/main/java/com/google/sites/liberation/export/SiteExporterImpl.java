@@ -16,29 +16,39 @@
 
 package com.google.sites.liberation.export;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.sites.liberation.util.EntryType.ATTACHMENT;
 import static com.google.sites.liberation.util.EntryType.getType;
 import static com.google.sites.liberation.util.EntryType.isPage;
-import static com.google.sites.liberation.util.EntryUtils.getParentId;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.AttachmentEntry;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
 import com.google.gdata.util.common.base.Nullable;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.sites.liberation.util.ProgressListener;
+import com.google.sites.liberation.util.SynchronizedProgressListener;
 import com.google.sites.liberation.util.UrlUtils;
 
 /**
@@ -52,6 +62,9 @@ final class SiteExporterImpl implements SiteExporter {
   private static final Logger LOGGER = LogManager.getLogger(
       SiteExporterImpl.class.getCanonicalName());
   
+  /** The number of entries read from the feed between checkpoints. */
+  private static final int CHECKPOINT_ENTRIES = 20;
+  
   private final AbsoluteLinkConverter linkConverter;
   private final AppendableFactory appendableFactory;
   private final AttachmentDownloader attachmentDownloader;
@@ -59,9 +72,19 @@ final class SiteExporterImpl implements SiteExporter {
   private final FeedProvider feedProvider;
   private final PageExporter pageExporter;
   private final RevisionsExporter revisionsExporter;
+  private final int numThreads;
+  private final int downloadThreads;
+  private final int revisionThreads;
+  private final boolean resume;
   
   /**
-   * Creates a new SiteExporter with the given dependencies.
+   * Creates a new SiteExporter with the given dependencies, which exports
+   * pages using {@code numThreads} threads while downloading attachments 
+   * on {@code downloadThreads} other threads, and exporting revisions, if 
+   * requested, on {@code revisionThreads} more. If {@code resume} is set, 
+   * the export keeps a checkpoint of its progress, and an export interrupted
+   * part way through continues from its checkpoint; otherwise no checkpoint
+   * is written.
    */
   @Inject
   SiteExporterImpl(AbsoluteLinkConverter linkConverter,
@@ -70,97 +93,376 @@ final class SiteExporterImpl implements SiteExporter {
       EntryStoreFactory entryStoreFactory,
       FeedProvider feedProvider,
       PageExporter pageExporter,
-      RevisionsExporter revisionsExporter) {
+      RevisionsExporter revisionsExporter,
+      @Named(SiteExporterModule.EXPORT_THREADS) int numThreads,
+      @Named(SiteExporterModule.DOWNLOAD_THREADS) int downloadThreads,
+      @Named(SiteExporterModule.REVISION_THREADS) int revisionThreads,
+      @Named(SiteExporterModule.RESUME) boolean resume) {
     this.linkConverter = checkNotNull(linkConverter);
     this.appendableFactory = checkNotNull(appendableFactory);
     this.attachmentDownloader = checkNotNull(attachmentDownloader);
     this.entryStoreFactory = checkNotNull(entryStoreFactory);
     this.feedProvider = checkNotNull(feedProvider);
     this.pageExporter = checkNotNull(pageExporter);
-    this.revisionsExporter = checkNotNull(revisionsExporter);   
+    this.revisionsExporter = checkNotNull(revisionsExporter);
+    checkArgument(numThreads > 0, "numThreads");
+    this.numThreads = numThreads;
+    checkArgument(downloadThreads > 0, "downloadThreads");
+    this.downloadThreads = downloadThreads;
+    checkArgument(revisionThreads > 0, "revisionThreads");
+    this.revisionThreads = revisionThreads;
+    this.resume = resume;
+  }
+  
+  @Override
+  public SiteExportResult exportSite(String host, @Nullable String domain, 
+      String webspace, boolean exportRevisions, SitesService sitesService, 
+      File rootDirectory, ProgressListener progressListener) {
+    return exportSite(host, domain, webspace, exportRevisions, sitesService, 
+        rootDirectory, null, progressListener);
   }
   
   @Override
-  public void exportSite(String host, @Nullable String domain, String webspace, 
-      boolean exportRevisions, SitesService sitesService, File rootDirectory, 
+  public SiteExportResult exportSite(String host, @Nullable String domain, 
+      String webspace, boolean exportRevisions, SitesService sitesService, 
+      File rootDirectory, @Nullable File previousDirectory, 
       ProgressListener progressListener) {
     checkNotNull(host, "host");
     checkNotNull(webspace, "webspace");
     checkNotNull(sitesService, "sitesService");
     checkNotNull(rootDirectory, "rootDirectory");
     checkNotNull(progressListener, "progressListener");
-    Set<BaseContentEntry<?>> pages = Sets.newHashSet();
-    Set<AttachmentEntry> attachments = Sets.newHashSet();
-    EntryStore entryStore = entryStoreFactory.newEntryStore();
+    Set<String> pageIds = Sets.newLinkedHashSet();
+    Set<String> attachmentIds = Sets.newLinkedHashSet();
     URL feedUrl = UrlUtils.getFeedUrl(host, domain, webspace);
     URL siteUrl = UrlUtils.getSiteUrl(host, domain, webspace);
+    ExportCheckpoint checkpoint;
+    try {
+      checkpoint = resume 
+          ? ExportCheckpoint.open(rootDirectory, exportRevisions, true, 
+              sitesService.getExtensionProfile())
+          : ExportCheckpoint.disabled(rootDirectory);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write checkpoint in: " 
+          + rootDirectory, e);
+    }
+    EntryStore entryStore = entryStoreFactory.newEntryStore(
+        sitesService.getExtensionProfile());
+    IncrementalExport export = IncrementalExport.start(previousDirectory, 
+        rootDirectory, exportRevisions);
+    AtomicInteger failedPages = new AtomicInteger();
+    AtomicInteger failedAttachments = new AtomicInteger();
+    boolean completed = false;
     
-    progressListener.setStatus("Retrieving site data (this may take a few minutes).");
-    Iterable<BaseContentEntry<?>> entries = 
-        feedProvider.getEntries(feedUrl, sitesService);
-    int num = 1;
-    for (BaseContentEntry<?> entry : entries) {
-      if (entry != null) {
-        if (num % 20 == 0) {
-          progressListener.setStatus("Retrieved " + num + " entries.");
+    try {
+      for (BaseContentEntry<?> entry : checkpoint.getEntries()) {
+        addEntry(entry, entryStore, export, pageIds, attachmentIds, 
+            progressListener);
+      }
+      if (!checkpoint.isFeedComplete()) {
+        progressListener.setStatus("Retrieving site data (this may take a few minutes).");
+        int startIndex = checkpoint.getStartIndex();
+        // Owns the threads on which the feed is read ahead, so that they end
+        // with the export even if the feed is not read to its end.
+        ExecutorService feedExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("feed-prefetch-%d").build());
+        try {
+          int num = 1;
+          for (BaseContentEntry<?> entry : feedProvider.getEntries(feedUrl, 
+              sitesService, startIndex, feedExecutor)) {
+            if (entry != null) {
+              if (num % 20 == 0) {
+                progressListener.setStatus("Retrieved " + num + " entries.");
+              }
+              if (entry.getId() == null 
+                  || !checkpoint.hasEntry(entry.getId())) {
+                checkpoint.entryFetched(entry);
+                addEntry(entry, entryStore, export, pageIds, attachmentIds, 
+                    progressListener);
+              }
+            } else {
+              LOGGER.warn("Error parsing entries!");
+            }
+            if (num % CHECKPOINT_ENTRIES == 0) {
+              checkpoint.feedRead(startIndex + num);
+            }
+            num++;
+          }
+        } finally {
+          feedExecutor.shutdownNow();
         }
-        entryStore.addEntry(entry);
-        if (isPage(entry)) {
-          pages.add((BasePageEntry<?>) entry);
-        } else if (getType(entry) == ATTACHMENT) {
-          // TODO(gk5885): remove extra cast for
-          // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
-          attachments.add((AttachmentEntry) entry);
+        checkpoint.feedComplete();
+      }
+      
+      int totalEntries = pageIds.size() + attachmentIds.size();
+      if (totalEntries > 0) {
+        // Computes the path of every page once, before any are exported.
+        entryStore.getPagePaths();
+        export.findStalePages(entryStore, pageIds);
+        SynchronizedProgressListener listener = 
+            new SynchronizedProgressListener(progressListener);
+        ExecutorService downloadExecutor = 
+            Executors.newFixedThreadPool(downloadThreads);
+        ExecutorService revisionExecutor = 
+            Executors.newFixedThreadPool(revisionThreads);
+        try {
+          List<Future<?>> downloads = downloadAttachments(attachmentIds, 
+              rootDirectory, entryStore, sitesService, export, checkpoint, 
+              listener, totalEntries, failedAttachments, downloadExecutor);
+          List<Future<?>> revisions = Lists.newArrayList();
+          if (exportRevisions) {
+            revisions = exportRevisions(pageIds, rootDirectory, entryStore, 
+                sitesService, siteUrl, export, checkpoint, listener, 
+                revisionExecutor);
+          }
+          exportPages(pageIds, entryStore, rootDirectory, exportRevisions, 
+              siteUrl, export, checkpoint, listener, totalEntries, 
+              failedPages);
+          awaitAll(downloads);
+          if (exportRevisions) {
+            listener.setStatus("Waiting for revisions to be exported.");
+          }
+          awaitAll(revisions);
+        } finally {
+          downloadExecutor.shutdownNow();
+          revisionExecutor.shutdownNow();
         }
-        else
-        {
-            progressListener.setStatus("The class of page is not supported!"
-                  + "The class of page:" + entry.getClass());
+        try {
+          export.finish();
+        } catch (IOException e) {
+          LOGGER.error("Failed writing export manifest.", e);
         }
-        num++;
+        listener.setStatus("Export complete.");
+      } else {
+        progressListener.setStatus("No data returned. "
+            + "Can you get anything from " + feedUrl.toString()+".");
+      }
+      completed = true;
+      return new SiteExportResult(totalEntries, failedPages.get(), 
+          failedAttachments.get());
+    } finally {
+      if (completed) {
+        checkpoint.delete();
       } else {
-        LOGGER.warn("Error parsing entries!");
+        checkpoint.close();
+      }
+      if (entryStore instanceof Closeable) {
+        try {
+          ((Closeable) entryStore).close();
+        } catch (IOException e) {
+          LOGGER.error("Failed closing entry store.", e);
+        }
       }
     }
-    
-    int totalEntries = pages.size() + attachments.size();
-    if (totalEntries > 0) {  
-      int currentEntries = 0;
-      for (BaseContentEntry<?> page : pages) {
-        progressListener.setStatus("Exporting page: " 
-            + page.getTitle().getPlainText() + '.');
-        linkConverter.convertLinks(page, entryStore, siteUrl, false);
-        File relativePath = getPath(page, entryStore);
-        if (relativePath != null) {
-          File directory = new File(rootDirectory, relativePath.getPath());
-          directory.mkdirs();
-          exportPage(page, directory, entryStore, exportRevisions);
-          if (exportRevisions) {
+  }
+  
+  /**
+   * Adds an entry retrieved for this export to the entry store, and the id
+   * of each page and attachment to the given sets.
+   */
+  private void addEntry(BaseContentEntry<?> entry, EntryStore entryStore, 
+      IncrementalExport export, Set<String> pageIds, 
+      Set<String> attachmentIds, ProgressListener progressListener) {
+    entryStore.addEntry(entry);
+    if (entry.getId() != null) {
+      export.addEntry(entry);
+    }
+    if (entry.getId() == null) {
+      LOGGER.warn("Skipping entry without an id!");
+    } else if (isPage(entry)) {
+      pageIds.add(entry.getId());
+    } else if (getType(entry) == ATTACHMENT) {
+      attachmentIds.add(entry.getId());
+    }
+    else
+    {
+        progressListener.setStatus("The class of page is not supported!"
+              + "The class of page:" + entry.getClass());
+    }
+  }
+  
+  /**
+   * Schedules the download of each of the given attachments on the given 
+   * executor, so that they can proceed while pages are being exported, and
+   * returns the pending downloads. Each attachment which is not downloaded
+   * is counted in {@code failedAttachments}.
+   */
+  private List<Future<?>> downloadAttachments(Set<String> attachmentIds,
+      final File rootDirectory, final EntryStore entryStore, 
+      final SitesService sitesService, final IncrementalExport export,
+      final ExportCheckpoint checkpoint, 
+      final SynchronizedProgressListener listener, final int totalEntries,
+      final AtomicInteger failedAttachments, ExecutorService executor) {
+    List<Future<?>> downloads = Lists.newArrayList();
+    for (final String attachmentId : attachmentIds) {
+      downloads.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          // TODO(gk5885): remove extra cast for
+          // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
+          AttachmentEntry attachment = 
+              (AttachmentEntry) entryStore.getEntry(attachmentId);
+          if (!downloadAttachment(attachment, rootDirectory, entryStore, 
+              sitesService, export, checkpoint, listener)) {
+            failedAttachments.incrementAndGet();
+          }
+          listener.completeStep(totalEntries);
+        }
+      }));
+    }
+    return downloads;
+  }
+  
+  /**
+   * Schedules the export of the revisions of each of the given pages on the
+   * given executor, so that revision feeds are read and rendered while pages
+   * are being exported, and returns the pending exports.
+   */
+  private List<Future<?>> exportRevisions(Set<String> pageIds, 
+      final File rootDirectory, final EntryStore entryStore, 
+      final SitesService sitesService, final URL siteUrl, 
+      final IncrementalExport export, final ExportCheckpoint checkpoint,
+      final SynchronizedProgressListener listener, ExecutorService executor) {
+    List<Future<?>> revisions = Lists.newArrayList();
+    for (final String pageId : pageIds) {
+      revisions.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          BaseContentEntry<?> page = entryStore.getEntry(pageId);
+          File relativePath = getPath(page, entryStore);
+          if (relativePath != null && !checkpoint.isRevisionsDone(pageId)
+              && !export.carryRevisions(page, relativePath)) {
+            listener.setStatus("Exporting revisions of page: " 
+                + page.getTitle().getPlainText() + '.');
+            File directory = new File(rootDirectory, relativePath.getPath());
+            directory.mkdirs();
             revisionsExporter.exportRevisions(page, entryStore, directory, 
                 sitesService, siteUrl);
+            checkpoint.revisionsDone(pageId);
           }
         }
-        progressListener.setProgress(((double) ++currentEntries) / totalEntries);
+      }));
+    }
+    return revisions;
+  }
+  
+  /**
+   * Exports the given pages, using a pool of {@code numThreads} threads if 
+   * more than one thread has been configured. The entry store must already 
+   * contain every entry of the site, since it is only read from here on.
+   * Each page which is not exported is counted in {@code failedPages}.
+   */
+  private void exportPages(Set<String> pageIds, 
+      final EntryStore entryStore, final File rootDirectory, 
+      final boolean exportRevisions, final URL siteUrl, 
+      final IncrementalExport export, final ExportCheckpoint checkpoint,
+      final SynchronizedProgressListener listener, final int totalEntries,
+      final AtomicInteger failedPages) {
+    if (numThreads == 1) {
+      for (String pageId : pageIds) {
+        if (!exportPage(entryStore.getEntry(pageId), entryStore, 
+            rootDirectory, exportRevisions, siteUrl, export, checkpoint, 
+            listener)) {
+          failedPages.incrementAndGet();
+        }
+        listener.completeStep(totalEntries);
       }
-      for (AttachmentEntry attachment : attachments) {
-        progressListener.setStatus("Downloading attachment: " 
-            + attachment.getTitle().getPlainText() + '.');
-        downloadAttachment(attachment, rootDirectory, entryStore, sitesService);
-        progressListener.setProgress(((double) ++currentEntries) / totalEntries);
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (final String pageId : pageIds) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            if (!exportPage(entryStore.getEntry(pageId), entryStore, 
+                rootDirectory, exportRevisions, siteUrl, export, checkpoint, 
+                listener)) {
+              failedPages.incrementAndGet();
+            }
+            listener.completeStep(totalEntries);
+          }
+        }));
       }
-      progressListener.setStatus("Export complete.");
-    } else {
-      progressListener.setStatus("No data returned. "
-          + "Can you get anything from " + feedUrl.toString()+".");
+      awaitAll(futures);
+    } finally {
+      executor.shutdownNow();
     }
   }
   
-  private void exportPage(BaseContentEntry<?> page, File directory, EntryStore entryStore, boolean revisionsExported) {
+  /**
+   * Waits for each of the given tasks to finish, rethrowing the first 
+   * exception thrown by any of them.
+   */
+  private static void awaitAll(List<Future<?>> futures) {
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+  }
+  
+  /**
+   * Exports a single page to its folder under the given root directory, 
+   * unless it can be carried forward from the previous export or was 
+   * written before the export was interrupted. Its revisions, if requested, 
+   * are exported separately. Returns whether the page is in the export.
+   */
+  private boolean exportPage(BaseContentEntry<?> page, EntryStore entryStore, 
+      File rootDirectory, boolean exportRevisions, URL siteUrl, 
+      IncrementalExport export, ExportCheckpoint checkpoint, 
+      ProgressListener listener) {
+    File relativePath = getPath(page, entryStore);
+    if (relativePath != null && checkpoint.isPageDone(page.getId()) 
+        && new File(rootDirectory, new File(relativePath, "index.html")
+            .getPath()).isFile()) {
+      export.pageResumed(page, relativePath);
+      return true;
+    }
+    if (relativePath != null && export.carryPage(page, relativePath)) {
+      return true;
+    }
+    listener.setStatus("Exporting page: " 
+        + page.getTitle().getPlainText() + '.');
+    if (relativePath != null) {
+      // The links are converted into a separate string rather than the entry,
+      // since other pages being exported at the same time may render it.
+      String content = linkConverter.getConvertedContent(page, entryStore, 
+          siteUrl, false);
+      File directory = new File(rootDirectory, relativePath.getPath());
+      directory.mkdirs();
+      if (exportPage(page, content, directory, entryStore, exportRevisions)) {
+        checkpoint.pageDone(page.getId());
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Writes the given page, with the given content, to the index file in the
+   * given folder, and returns whether it was written completely.
+   */
+  private boolean exportPage(BaseContentEntry<?> page, String content, 
+      File directory, EntryStore entryStore, boolean revisionsExported) {
     File file = new File(directory, "index.html");
     Appendable out = null;
+    boolean written = false;
     try {
       out = appendableFactory.getAppendable(file);
-      pageExporter.exportPage(page, entryStore, out, revisionsExported);
+      pageExporter.exportPage(page, content, entryStore, out, 
+          revisionsExported);
+      written = true;
     } catch (IOException e) {
       LOGGER.error("Failed writing to file: " + file.getPath(), e);
     } finally {
@@ -169,23 +471,53 @@ final class SiteExporterImpl implements SiteExporter {
           ((Closeable) out).close();
         } catch (IOException e) {
           LOGGER.error("Failed closing file: " + file.getPath(), e);
+          written = false;
         }
       }
     }
+    return written;
   }
   
-  private void downloadAttachment(AttachmentEntry attachment, 
-      File rootDirectory, EntryStore entryStore, SitesService sitesService) {
+  /**
+   * Downloads a single attachment to its parent's folder, unless it can be
+   * carried forward from the previous export or was downloaded before the
+   * export was interrupted. Returns whether the attachment is in the export.
+   */
+  private boolean downloadAttachment(AttachmentEntry attachment, 
+      File rootDirectory, EntryStore entryStore, SitesService sitesService, 
+      IncrementalExport export, ExportCheckpoint checkpoint, 
+      ProgressListener listener) {
     BasePageEntry<?> parent = entryStore.getParent(attachment.getId());
     if (parent != null) {
       File relativePath = getPath(parent, entryStore);
       if (relativePath != null) {
+        File relativeFile = new File(relativePath, 
+            attachment.getTitle().getPlainText());
+        long checksum = checkpoint.getAttachmentChecksum(attachment.getId());
+        if (checksum != ExportManifest.NO_CHECKSUM 
+            && export.resumeAttachment(attachment, relativeFile, checksum)) {
+          return true;
+        }
+        if (export.carryAttachment(attachment, relativeFile)) {
+          return true;
+        }
+        listener.setStatus("Downloading attachment: " 
+            + attachment.getTitle().getPlainText() + '.');
         File folder = new File(rootDirectory, relativePath.getPath());
         folder.mkdirs();
         File file = new File(folder, attachment.getTitle().getPlainText());
-        attachmentDownloader.download(attachment, file, sitesService);
+        // A failed download is left out of the manifest, so that the next
+        // incremental export downloads it again rather than carrying it.
+        if (attachmentDownloader.download(attachment, file, sitesService)) {
+          checksum = export.attachmentDownloaded(attachment, relativeFile);
+          if (checksum != ExportManifest.NO_CHECKSUM) {
+            checkpoint.attachmentDone(attachment.getId(), checksum);
+          }
+          return true;
+        }
       }
     }
+    return false;
   }
   
   /**
@@ -193,14 +525,6 @@ final class SiteExporterImpl implements SiteExporter {
    * {@code null} if any of the page's ancestors are missing.
    */
   private File getPath(BaseContentEntry<?> entry, EntryStore entryStore) {
-    String parentId = getParentId(entry);
-    if (parentId == null) {
-      return new File(((BasePageEntry<?>) entry).getPageName().getValue());
-    }
-    BasePageEntry<?> parent = (BasePageEntry<?>) entryStore.getEntry(parentId);
-    if (parent == null) {
-      return null;
-    }
-    return new File(getPath(parent, entryStore), ((BasePageEntry<?>) entry).getPageName().getValue());
+    return entryStore.getPagePaths().getDirectory(entry.getId());
   }
-}
+}
\ No newline at end of file
@@ -16,16 +16,197 @@
 
 package com.google.sites.liberation.export;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.gdata.util.common.base.Nullable;
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+import com.google.sites.liberation.util.RequestSchedulerModule;
+
+import java.io.File;
 
 /**
  * GUICE module defining default bindings.
  */
 public class SiteExporterModule extends AbstractModule {
 
+  /** Name of the binding for the number of threads used to export pages. */
+  static final String EXPORT_THREADS = "exportThreads";
+  
+  /** Name of the binding for the number of concurrent attachment downloads. */
+  static final String DOWNLOAD_THREADS = "downloadThreads";
+
+  /** Name of the binding for the number of threads exporting revisions. */
+  static final String REVISION_THREADS = "revisionThreads";
+
+  /** Name of the binding for the number of revision feeds read at once. */
+  static final String REVISION_REQUESTS = "revisionRequests";
+
+  /** Name of the binding for the number of feed requests kept in flight. */
+  static final String PREFETCHED_REQUESTS = "prefetchedRequests";
+
+  /** Name of the binding for whether feed request sizes adapt to latency. */
+  static final String ADAPTIVE_REQUEST_SIZE = "adaptiveRequestSize";
+
+  /** Name of the binding for the directory of a disk-backed entry store. */
+  static final String ENTRY_STORE_DIRECTORY = "entryStoreDirectory";
+
+  /** Name of the binding for whether an interrupted export is resumed. */
+  static final String RESUME = "resume";
+
+  private int exportThreads = 1;
+  private int downloadThreads = 1;
+  private int revisionThreads = 1;
+  private int revisionRequests = 1;
+  private int prefetchedRequests = 1;
+  private boolean adaptiveRequestSize = false;
+  private File entryStoreDirectory = null;
+  private boolean resume = false;
+  private double requestsPerSecond = 0;
+  private int concurrentRequests = 0;
+  private int maxRetries = 3;
+
+  /**
+   * Sets the number of threads used to export pages, and returns this module.
+   */
+  public SiteExporterModule setExportThreads(int exportThreads) {
+    checkArgument(exportThreads > 0, "exportThreads must be positive");
+    this.exportThreads = exportThreads;
+    return this;
+  }
+  
+  /**
+   * Sets the maximum number of attachments downloaded at once, and returns
+   * this module. Attachments are always downloaded alongside page export.
+   */
+  public SiteExporterModule setDownloadThreads(int downloadThreads) {
+    checkArgument(downloadThreads > 0, "downloadThreads must be positive");
+    this.downloadThreads = downloadThreads;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads on which the revisions of pages are fetched
+   * and rendered, alongside page export, and returns this module.
+   */
+  public SiteExporterModule setRevisionThreads(int revisionThreads) {
+    checkArgument(revisionThreads > 0, "revisionThreads must be positive");
+    this.revisionThreads = revisionThreads;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of revision feeds being read at once, whatever
+   * the number of revision threads, and returns this module. This protects
+   * the API quota when many revision threads are used.
+   */
+  public SiteExporterModule setRevisionRequests(int revisionRequests) {
+    checkArgument(revisionRequests > 0, "revisionRequests must be positive");
+    this.revisionRequests = revisionRequests;
+    return this;
+  }
+
+  /**
+   * Sets the number of content feed requests kept in flight ahead of the
+   * consumer of the feed, and returns this module.
+   */
+  public SiteExporterModule setPrefetchedRequests(int prefetchedRequests) {
+    checkArgument(prefetchedRequests > 0, 
+        "prefetchedRequests must be positive");
+    this.prefetchedRequests = prefetchedRequests;
+    return this;
+  }
+
+  /**
+   * Sets whether the number of entries requested per feed query grows and
+   * shrinks with the server's latency and errors, and returns this module.
+   */
+  public SiteExporterModule setAdaptiveRequestSize(
+      boolean adaptiveRequestSize) {
+    this.adaptiveRequestSize = adaptiveRequestSize;
+    return this;
+  }
+
+  /**
+   * Sets the directory in which entries are kept while a site is exported,
+   * and returns this module. If the directory is {@code null}, which is the 
+   * default, entries are kept in memory.
+   */
+  public SiteExporterModule setEntryStoreDirectory(
+      @Nullable File entryStoreDirectory) {
+    this.entryStoreDirectory = entryStoreDirectory;
+    return this;
+  }
+
+  /**
+   * Sets whether the export keeps a checkpoint of its progress in its folder,
+   * so that it can be resumed if it is interrupted, and returns this module.
+   * An export into a folder holding the checkpoint of an earlier, interrupted
+   * export then continues from where it stopped, instead of starting over.
+   * Without it, which is the default, no checkpoint is written.
+   */
+  public SiteExporterModule setResume(boolean resume) {
+    this.resume = resume;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of requests per second sent to the server, where
+   * zero, the default, means no limit, and returns this module.
+   */
+  public SiteExporterModule setRequestsPerSecond(double requestsPerSecond) {
+    checkArgument(requestsPerSecond >= 0, 
+        "requestsPerSecond must not be negative");
+    this.requestsPerSecond = requestsPerSecond;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of requests in flight at once, whatever the 
+   * number of threads, where zero, the default, means no limit, and returns 
+   * this module.
+   */
+  public SiteExporterModule setConcurrentRequests(int concurrentRequests) {
+    checkArgument(concurrentRequests >= 0, 
+        "concurrentRequests must not be negative");
+    this.concurrentRequests = concurrentRequests;
+    return this;
+  }
+
+  /**
+   * Sets the number of times a request rejected as over quota or while the
+   * server is unavailable is retried, and returns this module.
+   */
+  public SiteExporterModule setMaxRetries(int maxRetries) {
+    checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
   @Override
   protected void configure() {
-    bind(EntryStoreFactory.class).to(InMemoryEntryStoreFactory.class);
+    install(new RequestSchedulerModule(requestsPerSecond, concurrentRequests, 
+        maxRetries));
+    if (entryStoreDirectory == null) {
+      bind(EntryStoreFactory.class).to(InMemoryEntryStoreFactory.class);
+    } else {
+      bind(File.class).annotatedWith(Names.named(ENTRY_STORE_DIRECTORY))
+          .toInstance(entryStoreDirectory);
+      bind(EntryStoreFactory.class).to(DiskEntryStoreFactory.class);
+    }
     bind(AppendableFactory.class).to(BufferedWriterFactory.class);
+    bindConstant().annotatedWith(Names.named(EXPORT_THREADS))
+        .to(exportThreads);
+    bindConstant().annotatedWith(Names.named(DOWNLOAD_THREADS))
+        .to(downloadThreads);
+    bindConstant().annotatedWith(Names.named(REVISION_THREADS))
+        .to(revisionThreads);
+    bindConstant().annotatedWith(Names.named(REVISION_REQUESTS))
+        .to(revisionRequests);
+    bindConstant().annotatedWith(Names.named(PREFETCHED_REQUESTS))
+        .to(prefetchedRequests);
+    bindConstant().annotatedWith(Names.named(ADAPTIVE_REQUEST_SIZE))
+        .to(adaptiveRequestSize);
+    bindConstant().annotatedWith(Names.named(RESUME)).to(resume);
   }
-}
\ No newline at end of file
+}
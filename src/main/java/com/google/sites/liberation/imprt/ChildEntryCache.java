@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.sites.liberation.util.EntryType.COMMENT;
+import static com.google.sites.liberation.util.EntryType.LIST_ITEM;
+import static com.google.sites.liberation.util.EntryType.getType;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gdata.client.sites.ContentQuery;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.ListItemEntry;
+import com.google.gdata.data.spreadsheet.Field;
+import com.google.gdata.util.ServiceException;
+import com.google.sites.liberation.util.EntryProvider;
+import com.google.sites.liberation.util.EntryType;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Answers whether an identical comment or list item already exists beneath
+ * a parent in a feed.
+ *
+ * <p>The existing children of each kind are fetched once per parent and
+ * indexed by a hash of their content, for comments, or of their field
+ * values, for list items. Entries added to the cache count as existing from
+ * then on, so a child uploaded through it is not uploaded again.</p>
+ */
+final class ChildEntryCache {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      ChildEntryCache.class.getCanonicalName());
+
+  private final EntryProvider entryProvider;
+  private final URL feedUrl;
+  private final SitesService sitesService;
+  private final Map<String, Set<String>> children = Maps.newHashMap();
+
+  /**
+   * Creates a new ChildEntryCache for the given feed.
+   */
+  ChildEntryCache(EntryProvider entryProvider, URL feedUrl,
+      SitesService sitesService) {
+    this.entryProvider = checkNotNull(entryProvider);
+    this.feedUrl = checkNotNull(feedUrl);
+    this.sitesService = checkNotNull(sitesService);
+  }
+
+  /**
+   * Returns whether or not an identical comment or list item to the one
+   * given exists beneath its parent.
+   */
+  boolean contains(BaseContentEntry<?> entry) {
+    Set<String> keys = getChildren(entry);
+    return keys != null && keys.contains(getKey(entry));
+  }
+
+  /**
+   * Records the given comment or list item as existing beneath its parent.
+   */
+  void add(BaseContentEntry<?> entry) {
+    Set<String> keys = getChildren(entry);
+    if (keys != null) {
+      keys.add(getKey(entry));
+    }
+  }
+
+  /**
+   * Returns the keys of the existing children of the given entry's kind
+   * beneath its parent, fetching them if this is the first time they are
+   * needed, or {@code null} if they could not be fetched.
+   */
+  private Set<String> getChildren(BaseContentEntry<?> entry) {
+    EntryType type = getType(entry);
+    checkArgument(type == COMMENT || type == LIST_ITEM,
+        "Only comments and list items are cached.");
+    String parentId = EntryUtils.getParentId(entry);
+    parentId = parentId.substring(parentId.lastIndexOf('/') + 1);
+    String kind = (type == COMMENT) ? "comment" : "listitem";
+    String cacheKey = kind + '/' + parentId;
+    Set<String> keys = children.get(cacheKey);
+    if (keys == null) {
+      try {
+        ContentQuery query = new ContentQuery(feedUrl);
+        query.setParent(parentId);
+        query.setKind(kind);
+        keys = Sets.newHashSet();
+        for (BaseContentEntry<?> child :
+            entryProvider.getEntries(query, sitesService)) {
+          keys.add(type == COMMENT ? getServerCommentKey(child)
+              : getKey(child));
+        }
+        children.put(cacheKey, keys);
+      } catch (IOException e) {
+        LOGGER.error("Error communicating with the server.", e);
+        return null;
+      } catch (ServiceException e) {
+        LOGGER.error("Error communicating with the server.", e);
+        return null;
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the key of a comment or list item about to be uploaded.
+   */
+  private String getKey(BaseContentEntry<?> entry) {
+    if (getType(entry) == COMMENT) {
+      return hash(StringEscapeUtils.unescapeXml(
+          EntryUtils.getXhtmlContent(entry)));
+    }
+    // TODO(gk5885): remove extra cast for
+    // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
+    ListItemEntry listItem = (ListItemEntry) (BaseContentEntry) entry;
+    SortedMap<String, String> values = Maps.newTreeMap();
+    for (Field field : listItem.getFields()) {
+      values.put(field.getIndex(), field.getValue());
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Map.Entry<String, String> value : values.entrySet()) {
+      hasher.putString(value.getKey()).putByte((byte) 0);
+      if (value.getValue() == null) {
+        hasher.putByte((byte) 0);
+      } else {
+        hasher.putByte((byte) 1).putString(value.getValue())
+            .putByte((byte) 0);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the key of a comment fetched from the server.
+   */
+  private String getServerCommentKey(BaseContentEntry<?> comment) {
+    return hash(comment.getTextContent().getContent().getPlainText());
+  }
+
+  private String hash(String content) {
+    return Hashing.sha1().hashString(content, Charsets.UTF_8).toString();
+  }
+}
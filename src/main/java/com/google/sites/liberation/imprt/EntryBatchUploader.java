@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.inject.ImplementedBy;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Inserts and updates several entries of a feed together.
+ */
+@ImplementedBy(EntryBatchUploaderImpl.class)
+public interface EntryBatchUploader {
+
+  /**
+   * Uploads each of the given new entries to the given feed, as an update of
+   * the old entry at the same position if there is one, otherwise as an
+   * insert. Returns the entries returned from the server in the same order,
+   * with {@code null} in place of any entry which could not be uploaded.
+   * None of the entries may carry media.
+   */
+  List<BaseContentEntry<?>> uploadEntries(List<BaseContentEntry<?>> newEntries,
+      List<BaseContentEntry<?>> oldEntries, URL feedUrl,
+      SitesService sitesService);
+}
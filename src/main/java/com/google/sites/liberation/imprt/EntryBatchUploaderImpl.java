@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.client.batch.BatchInterruptedException;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.batch.BatchId;
+import com.google.gdata.data.batch.BatchOperation;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.ContentFeed;
+import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.sites.liberation.util.RequestScheduler;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Implements {@link EntryBatchUploader} using the GData batch protocol,
+ * sending up to the configured number of entries in each request to the
+ * feed's batch URL.
+ *
+ * <p>The result of each operation in a batch is matched back to its entry
+ * by batch id. Entries whose operation failed are logged and returned as
+ * {@code null}. If a batch request is interrupted, the server has skipped
+ * the entries without a result, so they are uploaded one at a time instead.
+ * If a batch request fails as a whole, some of its entries may still have
+ * been applied: updates, which carry the old entry's etag and so cannot be
+ * applied twice, are sent again one at a time, but inserts are returned as
+ * {@code null} rather than risk inserting them twice. With a batch size of
+ * one, every entry is uploaded on its own.</p>
+ */
+final class EntryBatchUploaderImpl implements EntryBatchUploader {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      EntryBatchUploaderImpl.class.getCanonicalName());
+
+  private final EntryInserter entryInserter;
+  private final EntryUpdater entryUpdater;
+  private final RequestScheduler requestScheduler;
+  private final int batchSize;
+
+  /**
+   * Creates a new EntryBatchUploaderImpl which sends up to
+   * {@code batchSize} entries per request.
+   */
+  @Inject
+  EntryBatchUploaderImpl(EntryInserter entryInserter,
+      EntryUpdater entryUpdater, RequestScheduler requestScheduler,
+      @Named(SiteImporterModule.BATCH_SIZE) int batchSize) {
+    this.entryInserter = checkNotNull(entryInserter);
+    this.entryUpdater = checkNotNull(entryUpdater);
+    this.requestScheduler = checkNotNull(requestScheduler);
+    checkArgument(batchSize > 0, "batchSize");
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public List<BaseContentEntry<?>> uploadEntries(
+      List<BaseContentEntry<?>> newEntries,
+      List<BaseContentEntry<?>> oldEntries, URL feedUrl,
+      SitesService sitesService) {
+    checkNotNull(newEntries, "newEntries");
+    checkNotNull(oldEntries, "oldEntries");
+    checkArgument(newEntries.size() == oldEntries.size(),
+        "newEntries and oldEntries must be the same size");
+    checkNotNull(feedUrl, "feedUrl");
+    checkNotNull(sitesService, "sitesService");
+    List<BaseContentEntry<?>> results = Lists.newArrayList(
+        Collections.<BaseContentEntry<?>>nCopies(newEntries.size(), null));
+    if (batchSize == 1) {
+      for (int i = 0; i < newEntries.size(); i++) {
+        results.set(i, uploadEntry(newEntries.get(i), oldEntries.get(i),
+            feedUrl, sitesService));
+      }
+      return results;
+    }
+    for (int start = 0; start < newEntries.size(); start += batchSize) {
+      int end = Math.min(start + batchSize, newEntries.size());
+      uploadBatch(newEntries, oldEntries, start, end, results, feedUrl,
+          sitesService);
+    }
+    return results;
+  }
+
+  /**
+   * Uploads the entries from {@code start} up to {@code end} in a single
+   * batch request, and stores their results at the same positions.
+   */
+  private void uploadBatch(List<BaseContentEntry<?>> newEntries,
+      List<BaseContentEntry<?>> oldEntries, int start, int end,
+      List<BaseContentEntry<?>> results, final URL feedUrl,
+      final SitesService sitesService) {
+    boolean[] answered = new boolean[end - start];
+    final ContentFeed request = new ContentFeed();
+    for (int i = start; i < end; i++) {
+      request.getEntries().add(getOperation(newEntries.get(i),
+          oldEntries.get(i), i));
+    }
+    ContentFeed response = null;
+    boolean interrupted = false;
+    try {
+      response = requestScheduler.executeNonIdempotent(
+          new RequestScheduler.Request<ContentFeed>() {
+            @Override
+            public ContentFeed execute() throws IOException, ServiceException {
+              return sitesService.batch(getBatchUrl(feedUrl), request);
+            }
+          });
+    } catch (BatchInterruptedException e) {
+      LOGGER.warn("Batch upload interrupted: "
+          + e.getIBatchInterrupted().getReason(), e);
+      response = (ContentFeed) e.getIFeed();
+      interrupted = true;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to upload batch.", e);
+    } catch (ServiceException e) {
+      LOGGER.warn("Unable to upload batch.", e);
+    }
+    if (response != null) {
+      for (BaseContentEntry<?> entry : response.getEntries()) {
+        int i = getIndex(entry, start, end);
+        if (i == -1) {
+          LOGGER.warn("Unexpected batch result: " + entry.getId());
+        } else {
+          answered[i - start] = true;
+          if (BatchUtils.isSuccess(entry)) {
+            results.set(i, entry);
+          } else {
+            BatchStatus status = BatchUtils.getBatchStatus(entry);
+            LOGGER.warn("Unable to upload entry: " + newEntries.get(i)
+                + (status == null ? "" : " (" + status.getCode() + " "
+                    + status.getReason() + ")"));
+          }
+        }
+      }
+    }
+    for (int i = start; i < end; i++) {
+      if (!answered[i - start]) {
+        BaseContentEntry<?> entry = newEntries.get(i);
+        if (!interrupted && oldEntries.get(i) == null) {
+          LOGGER.warn("Unable to tell whether entry was inserted: " + entry);
+          continue;
+        }
+        entry.removeExtension(BatchId.class);
+        entry.removeExtension(BatchOperation.class);
+        results.set(i, uploadEntry(entry, oldEntries.get(i), feedUrl,
+            sitesService));
+      }
+    }
+  }
+
+  /**
+   * Marks the given new entry as a batch operation inserting it, or updating
+   * the given old entry, with the given position as its batch id.
+   */
+  private BaseContentEntry<?> getOperation(BaseContentEntry<?> newEntry,
+      BaseContentEntry<?> oldEntry, int index) {
+    if (oldEntry == null) {
+      BatchUtils.setBatchOperationType(newEntry, BatchOperationType.INSERT);
+    } else {
+      newEntry.setId(oldEntry.getId());
+      newEntry.setEtag(oldEntry.getEtag());
+      BatchUtils.setBatchOperationType(newEntry, BatchOperationType.UPDATE);
+    }
+    BatchUtils.setBatchId(newEntry, Integer.toString(index));
+    return newEntry;
+  }
+
+  /**
+   * Returns the position of the entry a batch result is for, or -1 if it is
+   * not one of those from {@code start} up to {@code end}.
+   */
+  private int getIndex(BaseContentEntry<?> result, int start, int end) {
+    String batchId = BatchUtils.getBatchId(result);
+    if (batchId == null) {
+      return -1;
+    }
+    try {
+      int index = Integer.parseInt(batchId);
+      return (index >= start && index < end) ? index : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private BaseContentEntry<?> uploadEntry(BaseContentEntry<?> newEntry,
+      BaseContentEntry<?> oldEntry, URL feedUrl, SitesService sitesService) {
+    if (oldEntry == null) {
+      return entryInserter.insertEntry(newEntry, feedUrl, sitesService);
+    }
+    return entryUpdater.updateEntry(oldEntry, newEntry, sitesService);
+  }
+
+  private URL getBatchUrl(URL feedUrl) throws MalformedURLException {
+    return new URL(feedUrl.toExternalForm() + "/batch");
+  }
+}
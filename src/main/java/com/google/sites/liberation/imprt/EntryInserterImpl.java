@@ -1,8 +1,12 @@
 package com.google.sites.liberation.imprt;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
+import com.google.sites.liberation.util.RequestScheduler;
 
 import java.io.IOException;
 import java.net.URL;
@@ -19,11 +23,29 @@ final class EntryInserterImpl implements EntryInserter {
   private static final Logger LOGGER = LogManager.getLogger(
       EntryUpdaterImpl.class.getCanonicalName());
   
+  private final RequestScheduler requestScheduler;
+  
+  /**
+   * Creates a new EntryInserterImpl which sends its requests through the
+   * given scheduler.
+   */
+  @Inject
+  EntryInserterImpl(RequestScheduler requestScheduler) {
+    this.requestScheduler = checkNotNull(requestScheduler);
+  }
+  
   @Override
-  public BaseContentEntry<?> insertEntry(BaseContentEntry<?> entry, 
-      URL feedUrl, SitesService sitesService) {
+  public BaseContentEntry<?> insertEntry(final BaseContentEntry<?> entry, 
+      final URL feedUrl, final SitesService sitesService) {
     try {
-      return sitesService.insert(feedUrl, entry);
+      return requestScheduler.executeNonIdempotent(
+          new RequestScheduler.Request<BaseContentEntry<?>>() {
+            @Override
+            public BaseContentEntry<?> execute() 
+                throws IOException, ServiceException {
+              return sitesService.insert(feedUrl, entry);
+            }
+          });
     } catch (IOException e) {
       LOGGER.warn("Unable to insert entry: " + entry, e);
       return null;
@@ -21,6 +21,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
+import com.google.sites.liberation.util.RequestScheduler;
 
 import java.io.IOException;
 import java.net.URL;
@@ -37,15 +39,33 @@ final class EntryUpdaterImpl implements EntryUpdater {
   private static final Logger LOGGER = LogManager.getLogger(
       EntryUpdaterImpl.class.getCanonicalName());
   
+  private final RequestScheduler requestScheduler;
+  
+  /**
+   * Creates a new EntryUpdaterImpl which sends its requests through the
+   * given scheduler.
+   */
+  @Inject
+  EntryUpdaterImpl(RequestScheduler requestScheduler) {
+    this.requestScheduler = checkNotNull(requestScheduler);
+  }
+  
   @Override
-  public BaseContentEntry<?> updateEntry(BaseContentEntry<?> oldEntry,
-      BaseContentEntry<?> newEntry, SitesService sitesService) {
+  public BaseContentEntry<?> updateEntry(final BaseContentEntry<?> oldEntry,
+      final BaseContentEntry<?> newEntry, final SitesService sitesService) {
     try {
       checkNotNull(oldEntry, "oldEntry");
       checkNotNull(newEntry, "newEntry");
       checkNotNull(sitesService, "sitesService");
-      return sitesService.update(new URL(oldEntry.getId()), newEntry,
-          oldEntry.getEtag());
+      final URL url = new URL(oldEntry.getId());
+      return requestScheduler.execute(
+          new RequestScheduler.Request<BaseContentEntry<?>>() {
+            @Override
+            public BaseContentEntry<?> execute() 
+                throws IOException, ServiceException {
+              return sitesService.update(url, newEntry, oldEntry.getEtag());
+            }
+          });
     } catch (IOException e) {
       LOGGER.warn("Unable to update entry:" + oldEntry, e);
       return null;
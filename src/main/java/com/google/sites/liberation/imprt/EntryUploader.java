@@ -39,4 +39,13 @@ public interface EntryUploader {
    */
   BaseContentEntry<?> uploadEntry(BaseContentEntry<?> entry, 
       List<BasePageEntry<?>> ancestors, URL feedUrl, SitesService sitesService);
+  
+  /**
+   * Uploads each of the given entries, which all have the given ancestors,
+   * in the same way as {@link #uploadEntry}, and returns the entries returned
+   * from the server in the same order. Entries other than pages and entries
+   * with media may be sent to the server together.
+   */
+  List<BaseContentEntry<?>> uploadEntries(List<BaseContentEntry<?>> entries,
+      List<BasePageEntry<?>> ancestors, URL feedUrl, SitesService sitesService);
 }
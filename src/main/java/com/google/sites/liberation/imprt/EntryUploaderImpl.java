@@ -24,27 +24,19 @@ import static com.google.sites.liberation.util.EntryType.getType;
 import static com.google.sites.liberation.util.EntryType.isPage;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.gdata.client.sites.ContentQuery;
 import com.google.gdata.client.sites.SitesService;
-import com.google.gdata.data.ILink;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
-import com.google.gdata.data.sites.CommentEntry;
-import com.google.gdata.data.sites.ListItemEntry;
-import com.google.gdata.data.sites.SitesLink;
-import com.google.gdata.data.spreadsheet.Field;
 import com.google.gdata.util.ServiceException;
 import com.google.inject.Inject;
 import com.google.sites.liberation.util.EntryProvider;
-import com.google.sites.liberation.util.EntryUtils;
-
-import org.apache.commons.lang.StringEscapeUtils;
+import com.google.sites.liberation.util.RequestScheduler;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.List;
-import java.util.Map;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -58,19 +50,27 @@ final class EntryUploaderImpl implements EntryUploader {
   private static final Logger LOGGER = LogManager.getLogger(
       EntryUploaderImpl.class.getCanonicalName());
   
+  private final EntryBatchUploader entryBatchUploader;
   private final EntryInserter entryInserter;
   private final EntryProvider entryProvider;
   private final EntryUpdater entryUpdater;
+  private final RemoteEntryIndex remoteEntryIndex;
+  private final RequestScheduler requestScheduler;
   
   /**
    * Creates a new EntryUploaderImpl with the given dependencies.
    */
   @Inject
-  EntryUploaderImpl(EntryInserter entryInserter, EntryProvider entryProvider, 
-      EntryUpdater entryUpdater) {
+  EntryUploaderImpl(EntryBatchUploader entryBatchUploader, 
+      EntryInserter entryInserter, EntryProvider entryProvider, 
+      EntryUpdater entryUpdater, RemoteEntryIndex remoteEntryIndex, 
+      RequestScheduler requestScheduler) {
+    this.entryBatchUploader = checkNotNull(entryBatchUploader);
     this.entryInserter = checkNotNull(entryInserter);
     this.entryProvider = checkNotNull(entryProvider);
     this.entryUpdater = checkNotNull(entryUpdater);
+    this.remoteEntryIndex = checkNotNull(remoteEntryIndex);
+    this.requestScheduler = checkNotNull(requestScheduler);
   }
   
   @Override
@@ -80,10 +80,71 @@ final class EntryUploaderImpl implements EntryUploader {
     checkNotNull(ancestors);
     checkNotNull(feedUrl);
     checkNotNull(sitesService);
+    BaseContentEntry<?> existingEntry = getExistingEntry(entry, ancestors, 
+        feedUrl, sitesService, newChildEntryCache(feedUrl, sitesService));
+    if (existingEntry == entry) {
+      return entry;
+    } else if (existingEntry == null) {
+      return entryInserter.insertEntry(entry, feedUrl, sitesService);
+    } else {
+      return entryUpdater.updateEntry(existingEntry, entry, sitesService);
+    }
+  }
+  
+  @Override
+  public List<BaseContentEntry<?>> uploadEntries(
+      List<BaseContentEntry<?>> entries, List<BasePageEntry<?>> ancestors, 
+      URL feedUrl, SitesService sitesService) {
+    checkNotNull(entries);
+    checkNotNull(ancestors);
+    checkNotNull(feedUrl);
+    checkNotNull(sitesService);
+    List<BaseContentEntry<?>> results = Lists.newArrayList();
+    List<Integer> batchIndices = Lists.newArrayList();
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList();
+    List<BaseContentEntry<?>> oldEntries = Lists.newArrayList();
+    ChildEntryCache childEntryCache = 
+        newChildEntryCache(feedUrl, sitesService);
+    for (BaseContentEntry<?> entry : entries) {
+      if (isPage(entry) || entry.getMediaSource() != null) {
+        results.add(uploadEntry(entry, ancestors, feedUrl, sitesService));
+        continue;
+      }
+      BaseContentEntry<?> existingEntry = getExistingEntry(entry, ancestors, 
+          feedUrl, sitesService, childEntryCache);
+      if (existingEntry == entry) {
+        results.add(entry);
+      } else {
+        batchIndices.add(results.size());
+        results.add(null);
+        newEntries.add(entry);
+        oldEntries.add(existingEntry);
+      }
+    }
+    if (!newEntries.isEmpty()) {
+      List<BaseContentEntry<?>> uploaded = entryBatchUploader.uploadEntries(
+          newEntries, oldEntries, feedUrl, sitesService);
+      for (int i = 0; i < batchIndices.size(); i++) {
+        results.set(batchIndices.get(i), uploaded.get(i));
+      }
+    }
+    return results;
+  }
+  
+  /**
+   * Returns the entry on the server which the given entry should update, 
+   * {@code null} if the given entry should be inserted, or the given entry 
+   * itself if an identical one already exists. Comments and list items to be
+   * inserted are added to the given cache, so that identical siblings which
+   * follow them are not inserted as well.
+   */
+  private BaseContentEntry<?> getExistingEntry(BaseContentEntry<?> entry, 
+      List<BasePageEntry<?>> ancestors, URL feedUrl, SitesService sitesService,
+      ChildEntryCache childEntryCache) {
     BaseContentEntry<?> returnedEntry = null;
     if (entry.getId() != null) {
       if (entry.getId().startsWith(feedUrl.toExternalForm() + "/")) {
-        returnedEntry = getEntryById(entry, sitesService);
+        returnedEntry = getEntryById(entry, feedUrl, sitesService);
       } else {
         entry.setId(null);
       }
@@ -93,111 +154,46 @@ final class EntryUploaderImpl implements EntryUploader {
           getType(entry) == ATTACHMENT || 
           getType(entry) == WEB_ATTACHMENT) {
         returnedEntry = getEntryByPath(entry, ancestors, feedUrl, sitesService);
-      } else if (getType(entry) == COMMENT) {
-        // TODO(gk5885): remove extra cast for
-        // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
-        if (commentExists((CommentEntry) (BaseContentEntry) entry, feedUrl, sitesService)) {
+      } else if (getType(entry) == COMMENT || getType(entry) == LIST_ITEM) {
+        if (childEntryCache.contains(entry)) {
           return entry;
         }
-      } else if (getType(entry) == LIST_ITEM) {
-        // TODO(gk5885): remove extra cast for
-        // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
-        if (listItemExists((ListItemEntry) (BaseContentEntry) entry, feedUrl, sitesService)) {
-          return entry;
-        }
-      }
-    }
-    if (returnedEntry == null) {
-      return entryInserter.insertEntry(entry, feedUrl, sitesService);
-    } else {
-      return entryUpdater.updateEntry(returnedEntry, entry, 
-          sitesService);
-    }
-  }
-
-  /**
-   * Returns whether or not an identical comment to the one given exists at the 
-   * given feed URL.
-   */
-  private boolean commentExists(CommentEntry comment, URL feedUrl, 
-      SitesService sitesService) {
-    try {
-      String content = StringEscapeUtils.unescapeXml(
-          EntryUtils.getXhtmlContent(comment));
-      ContentQuery query = new ContentQuery(feedUrl);
-      String parentId = comment.getLink(SitesLink.Rel.PARENT, ILink.Type.ATOM)
-          .getHref();
-      query.setParent(parentId.substring(parentId.lastIndexOf('/') + 1));
-      query.setKind("comment");
-      List<BaseContentEntry<?>> entries = entryProvider
-          .getEntries(query, sitesService);
-      for (BaseContentEntry<?> entry : entries) {
-        String otherContent = entry.getTextContent().getContent().getPlainText();
-        if (otherContent.equals(content)) {
-          return true;
-        }
+        childEntryCache.add(entry);
       }
-      return false;
-    } catch(IOException e) {
-      LOGGER.error("Error communicating with the server.", e);
-      return false;
-    } catch (ServiceException e) {
-      LOGGER.error("Error communicating with the server.", e);
-      return false;
     }
+    return returnedEntry;
   }
 
   /**
-   * Returns whether or not an identical list item to the one given exists at 
-   * the given feed URL.
+   * Returns a new cache of the existing comments and list items in the given
+   * feed, which only fetches the children of each parent once.
    */
-  private boolean listItemExists(ListItemEntry listItem, URL feedUrl, 
+  private ChildEntryCache newChildEntryCache(URL feedUrl, 
       SitesService sitesService) {
-    try {
-      Map<String, String> values = Maps.newHashMap();
-      for (Field field : listItem.getFields()) {
-        values.put(field.getIndex(), field.getValue());
-      }
-      ContentQuery query = new ContentQuery(feedUrl);
-      String parentId = listItem.getLink(SitesLink.Rel.PARENT, ILink.Type.ATOM)
-          .getHref();
-      query.setParent(parentId.substring(parentId.lastIndexOf('/') + 1));
-      query.setKind("listitem");
-      List<BaseContentEntry<?>> entries = entryProvider
-          .getEntries(query, sitesService);
-      for (BaseContentEntry<?> entry : entries) {
-        // TODO(gk5885): remove extra cast for
-        // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6302214
-        ListItemEntry item = (ListItemEntry) (BaseContentEntry) entry;
-        if (item.getFields().size() == listItem.getFields().size()) {
-          boolean equal = true;
-          for (Field field : item.getFields()) {
-            if (!values.get(field.getIndex()).equals(field.getValue())) {
-              equal = false;
-            }
-          }
-          if (equal) { 
-            return true;
-          }
-        }
-      }
-      return false;
-    } catch (IOException e) {
-      LOGGER.error("Error communicating with the server.", e);
-      return false;
-    } catch (ServiceException e) {
-      LOGGER.error("Error communicating with the server.", e);
-      return false;
-    }
+    return new ChildEntryCache(entryProvider, feedUrl, sitesService);
   }
   
   /**
    * Returns the given entry's with the given id or null if it doesn't exist.
+   * The remote entry index answers this if it holds the given feed.
    */
-  private BaseContentEntry<?> getEntryById(BaseContentEntry<?> entry, 
-      SitesService sitesService) {
+  private BaseContentEntry<?> getEntryById(final BaseContentEntry<?> entry, 
+      URL feedUrl, final SitesService sitesService) {
+    if (remoteEntryIndex.isLoaded(feedUrl)) {
+      BaseContentEntry<?> existingEntry = 
+          remoteEntryIndex.getEntryById(entry.getId());
+      return entry.getClass().isInstance(existingEntry) ? existingEntry : null;
+    }
     try {
-      return sitesService.getEntry(new URL(entry.getId()), entry.getClass());
+      final URL url = new URL(entry.getId());
+      return requestScheduler.execute(
+          new RequestScheduler.Request<BaseContentEntry<?>>() {
+            @Override
+            public BaseContentEntry<?> execute() 
+                throws IOException, ServiceException {
+              return sitesService.getEntry(url, entry.getClass());
+            }
+          });
     } catch (IOException e) {
       return null;
     } catch (ServiceException e) {
@@ -225,13 +221,20 @@ final class EntryUploaderImpl implements EntryUploader {
   
   /**
    * Returns the entry with the given entry's path, or null if it doesn't exist.
+   * The remote entry index answers this if it holds the given feed and knows
+   * the paths of all entries with the same name.
    */
   @SuppressWarnings("unchecked")
   private BaseContentEntry<?> getEntryByPath(BaseContentEntry<?> entry, 
       List<BasePageEntry<?>> ancestors, URL feedUrl, SitesService sitesService) {
+    String path = getPath(entry, ancestors);
+    if (remoteEntryIndex.isLoaded(feedUrl) 
+        && remoteEntryIndex.canResolvePath(path)) {
+      return remoteEntryIndex.getEntryByPath(path);
+    }
     try {
       ContentQuery query = new ContentQuery(feedUrl);
-      query.setPath(getPath(entry, ancestors));
+      query.setPath(path);
       List<BaseContentEntry<?>> entries = entryProvider
           .getEntries(query, sitesService);
       if (entries.size() == 0) {
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.gdata.util.common.base.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Records the content hash of every page imported from a directory,
+ * together with the id of the entry it was imported as and the id of that
+ * entry's parent, so that a later import of the same directory to the same
+ * site can skip the pages which have not changed since.
+ *
+ * <p>The hash of a page covers its index.html and every other file in its
+ * folder, which includes its attachments, and the files in its _revisions
+ * folder if revisions are imported. The manifest is kept in a single text
+ * file in the root folder of the import. Records may be added from several
+ * threads at once.</p>
+ *
+ * <p>While an import runs, each record is also appended to a journal as
+ * soon as its page has been imported. The journal is deleted once the
+ * import completes, so one left behind records the pages imported by an
+ * import which was interrupted, and can be read to resume it.</p>
+ */
+final class ImportManifest {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      ImportManifest.class.getCanonicalName());
+
+  /** The name of the manifest file in the root folder of an import. */
+  static final String FILE_NAME = ".import-manifest";
+
+  /** The name of the journal of an import in progress in its root folder. */
+  static final String JOURNAL_NAME = ".import-journal";
+
+  private static final String HEADER = "sites-liberation-import 1";
+  private static final String ENCODING = "UTF-8";
+
+  private final String feedUrl;
+  private final boolean revisionsImported;
+  private final Map<String, Record> records;
+  private File journalFile;
+  private Writer journal;
+
+  /**
+   * Creates a new empty manifest for an import to the given feed, which did
+   * or did not include revisions.
+   */
+  ImportManifest(String feedUrl, boolean revisionsImported) {
+    this.feedUrl = checkNotNull(feedUrl);
+    this.revisionsImported = revisionsImported;
+    this.records = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Returns whether or not the given manifest records an import to the same
+   * feed, with the same choice of revisions, as this one.
+   */
+  boolean isSameImport(ImportManifest other) {
+    return feedUrl.equals(other.feedUrl)
+        && revisionsImported == other.revisionsImported;
+  }
+
+  /**
+   * Records that the page with the given site-relative path was imported.
+   */
+  void put(String path, Record record) {
+    records.put(checkNotNull(path), checkNotNull(record));
+    appendToJournal(path, record);
+  }
+
+  /**
+   * Adds every record of the given manifest to this one, replacing any for
+   * the same path.
+   */
+  void putAll(ImportManifest other) {
+    records.putAll(other.records);
+  }
+
+  /**
+   * Returns the record of the page with the given site-relative path, or
+   * {@code null} if there is none.
+   */
+  Record getRecord(String path) {
+    return records.get(path);
+  }
+
+  /**
+   * Returns the number of recorded pages.
+   */
+  int size() {
+    return records.size();
+  }
+
+  /**
+   * Writes this manifest to the given root folder, replacing any manifest
+   * already there only once it has been written completely.
+   */
+  void write(File directory) throws IOException {
+    File file = new File(directory, FILE_NAME);
+    File temp = new File(directory, FILE_NAME + ".tmp");
+    writeFile(temp, records);
+    replace(temp, file);
+  }
+
+  /**
+   * Starts appending every record put into this manifest to a journal in
+   * the given root folder, after the records of the given manifest, which
+   * was read from the journal of an interrupted import.
+   */
+  synchronized void startJournal(File directory,
+      @Nullable ImportManifest interrupted) throws IOException {
+    File file = new File(directory, JOURNAL_NAME);
+    File temp = new File(directory, JOURNAL_NAME + ".tmp");
+    // Rewrites the journal without any record cut short by the process
+    // dying, so that new records are not appended to it.
+    writeFile(temp, (interrupted == null)
+        ? Maps.<String, Record>newHashMap() : interrupted.records);
+    replace(temp, file);
+    journalFile = file;
+    journal = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, true), ENCODING));
+  }
+
+  /**
+   * Stops appending records to the journal, and deletes it if the import
+   * has completed.
+   */
+  synchronized void finishJournal(boolean completed) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      LOGGER.warn("Failed closing import journal: " + journalFile, e);
+    }
+    journal = null;
+    if (completed && !journalFile.delete()) {
+      LOGGER.warn("Unable to delete import journal: " + journalFile);
+    }
+  }
+
+  private synchronized void appendToJournal(String path, Record record) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.write(formatRecord(path, record));
+      journal.flush();
+    } catch (IOException e) {
+      LOGGER.error("Unable to write import journal: " + journalFile
+          + ", no longer recording progress.", e);
+      try {
+        journal.close();
+      } catch (IOException closeException) {
+        // The journal is already unusable.
+      }
+      journal = null;
+    }
+  }
+
+  private void writeFile(File file, Map<String, Record> records)
+      throws IOException {
+    Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), ENCODING));
+    try {
+      out.write(HEADER + '\t' + encode(feedUrl) + '\t' + revisionsImported
+          + '\n');
+      for (Map.Entry<String, Record> entry : records.entrySet()) {
+        out.write(formatRecord(entry.getKey(), entry.getValue()));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static String formatRecord(String path, Record record)
+      throws UnsupportedEncodingException {
+    return encode(path) + '\t' + encode(record.entryId) + '\t'
+        + encode(record.parentId) + '\t' + record.hash + '\n';
+  }
+
+  private static void replace(File temp, File file) throws IOException {
+    if (!temp.renameTo(file)) {
+      file.delete();
+      if (!temp.renameTo(file)) {
+        throw new IOException("Unable to replace manifest: " + file);
+      }
+    }
+  }
+
+  /**
+   * Reads the manifest in the given root folder, or returns {@code null} if
+   * there is none.
+   *
+   * @throws IOException if the manifest cannot be read or is not valid
+   */
+  static ImportManifest read(File directory) throws IOException {
+    return read(new File(directory, FILE_NAME), false);
+  }
+
+  /**
+   * Reads the journal of an interrupted import in the given root folder, or
+   * returns {@code null} if there is none. Records which were cut short are
+   * left out.
+   *
+   * @throws IOException if the journal cannot be read
+   */
+  static ImportManifest readJournal(File directory) throws IOException {
+    return read(new File(directory, JOURNAL_NAME), true);
+  }
+
+  private static ImportManifest read(File file, boolean skipInvalidRecords)
+      throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), ENCODING));
+    try {
+      String[] header = split(in.readLine(), 3, file);
+      if (!HEADER.equals(header[0])) {
+        throw new IOException("Unknown manifest format: " + file);
+      }
+      ImportManifest manifest = new ImportManifest(decode(header[1]),
+          Boolean.parseBoolean(header[2]));
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        try {
+          if (fields.length != 4 || fields[1].isEmpty()
+              || fields[3].isEmpty()) {
+            throw new IllegalArgumentException(line);
+          }
+          manifest.records.put(decode(fields[0]), new Record(
+              decode(fields[1]), decode(fields[2]), fields[3]));
+        } catch (IllegalArgumentException e) {
+          if (!skipInvalidRecords) {
+            throw new IOException("Invalid manifest: " + file, e);
+          }
+        }
+      }
+      return manifest;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the content hash of the page in the given folder.
+   */
+  static String hashPage(File directory, boolean importRevisions)
+      throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hashFiles(directory, hasher);
+    if (importRevisions) {
+      hashFiles(new File(directory, "_revisions"), hasher);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Adds the name and contents of every file directly within the given
+   * folder, in order of name, to the given hasher.
+   */
+  private static void hashFiles(File directory, Hasher hasher)
+      throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.isFile()) {
+        HashCode hash = Files.hash(file, Hashing.sha1());
+        hasher.putString(file.getName()).putByte((byte) 0)
+            .putBytes(hash.asBytes());
+      }
+    }
+  }
+
+  private static String[] split(@Nullable String line, int fields, File file)
+      throws IOException {
+    String[] values = (line == null) ? new String[0] : line.split("\t", -1);
+    if (values.length != fields) {
+      throw new IOException("Invalid manifest: " + file);
+    }
+    return values;
+  }
+
+  private static String encode(@Nullable String value)
+      throws UnsupportedEncodingException {
+    return (value == null) ? "" : URLEncoder.encode(value, ENCODING);
+  }
+
+  private static String decode(String value)
+      throws UnsupportedEncodingException {
+    return value.isEmpty() ? null : URLDecoder.decode(value, ENCODING);
+  }
+
+  /**
+   * The recorded import of a single page.
+   */
+  static final class Record {
+
+    final String entryId;
+    final String parentId;
+    final String hash;
+
+    Record(String entryId, @Nullable String parentId, String hash) {
+      this.entryId = checkNotNull(entryId);
+      this.parentId = parentId;
+      this.hash = checkNotNull(hash);
+    }
+
+    /**
+     * Returns whether or not the page was imported with the given content,
+     * beneath the given parent.
+     */
+    boolean matches(String hash, @Nullable String parentId) {
+      return this.hash.equals(hash) && Objects.equal(this.parentId, parentId);
+    }
+  }
+}
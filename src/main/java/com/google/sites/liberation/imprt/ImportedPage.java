@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.gdata.data.sites.BasePageEntry;
+
+/**
+ * A page uploaded by a {@link PageImporter}, with whether all of its
+ * comments, attachments and list items were uploaded along with it.
+ */
+public final class ImportedPage {
+
+  private final BasePageEntry<?> entry;
+  private final boolean complete;
+
+  /**
+   * Creates a new ImportedPage for the given entry returned by the server,
+   * whose children were all uploaded if {@code complete} is set.
+   */
+  public ImportedPage(BasePageEntry<?> entry, boolean complete) {
+    this.entry = checkNotNull(entry);
+    this.complete = complete;
+  }
+
+  /**
+   * Returns the page entry returned by the server.
+   */
+  public BasePageEntry<?> getEntry() {
+    return entry;
+  }
+
+  /**
+   * Returns whether or not every child of the page was uploaded.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+}
@@ -42,9 +42,11 @@ public interface PageImporter {
    * @param feedUrl the feedUrl to upload the entries to
    * @param siteUrl the siteUrl the page will exist at
    * @param sitesService SitesService to use for uploading
-   * @return the BasePageEntry returned by the server
+   * @return the page returned by the server, with whether all of its 
+   *         children were uploaded, or {@code null} if the page itself 
+   *         could not be imported
    */
-  BasePageEntry<?> importPage(File directory, boolean importRevisions,
+  ImportedPage importPage(File directory, boolean importRevisions,
       List<BasePageEntry<?>> ancestors, URL feedUrl, URL siteUrl, 
       SitesService sitesService);
 }
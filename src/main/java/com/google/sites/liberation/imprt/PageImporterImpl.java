@@ -73,7 +73,7 @@ final class PageImporterImpl implements PageImporter {
   }
   
   @Override
-  public BasePageEntry<?> importPage(File directory, boolean importRevisions, 
+  public ImportedPage importPage(File directory, boolean importRevisions, 
       List<BasePageEntry<?>> ancestors, URL feedUrl, URL siteUrl, 
       SitesService sitesService) {
     checkNotNull(directory);
@@ -106,10 +106,15 @@ final class PageImporterImpl implements PageImporter {
       returnedEntry = (BasePageEntry<?>) entryUpdater.updateEntry(
           returnedEntry, page, sitesService);
     }
+    if (returnedEntry == null) {
+      LOGGER.warn("Unable to upload page: " + directory);
+      return null;
+    }
     
     List<BasePageEntry<?>> newAncestors = Lists.newLinkedList(ancestors);
     newAncestors.add(returnedEntry);
-    for (BaseContentEntry<?> child : getNonPageEntries(entries)) {
+    List<BaseContentEntry<?>> children = getNonPageEntries(entries);
+    for (BaseContentEntry<?> child : children) {
       if (getType(child) == ATTACHMENT) {
         if (child.getContent() != null) {
           String src = ((OutOfLineContent) child.getContent()).getUri();
@@ -123,9 +128,15 @@ final class PageImporterImpl implements PageImporter {
         }
       }
       EntryUtils.setParent(child, returnedEntry);
-      entryUploader.uploadEntry(child, newAncestors, feedUrl, sitesService);
     }
-    return returnedEntry;
+    List<BaseContentEntry<?>> uploaded = entryUploader.uploadEntries(
+        children, newAncestors, feedUrl, sitesService);
+    boolean complete = !uploaded.contains(null);
+    if (!complete) {
+      LOGGER.warn("Not every comment, attachment or list item of the page "
+          + "was uploaded: " + directory);
+    }
+    return new ImportedPage(returnedEntry, complete);
   }
   
   private BasePageEntry<?> getFirstPageEntry(List<BaseContentEntry<?>> entries) {
@@ -28,61 +28,105 @@ import java.util.List;
 /**
  * Converts relative links to absolute links.
  * 
+ * <p>The content is scanned once, and links quoted with either double or
+ * single quotes are resolved as they are found, using a table of the paths
+ * of the page's ancestors that is built the first time it is needed.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class RelativeLinkConverterImpl implements RelativeLinkConverter {
 
+  private static final String HREF = "href=";
+  private static final String UP = "../";
+  private static final String INDEX = "/index.html";
+  
   @Override
   public void convertLinks(BasePageEntry<?> entry, List<BasePageEntry<?>> ancestors, 
       URL siteUrl, boolean isRevision) {
-    convertLinks(entry, ancestors, siteUrl, isRevision, "href=\"", "\"");
-    convertLinks(entry, ancestors, siteUrl, isRevision, "href='", "'");
+    String content = convertLinks(EntryUtils.getXhtmlContent(entry), 
+        ancestors, siteUrl.toExternalForm(), isRevision);
+    XmlBlob blob = new XmlBlob();
+    blob.setBlob(content);
+    TextConstruct textConstruct = new XhtmlTextConstruct(blob);
+    entry.setContent(textConstruct);
   }
   
   /**
-   * Converts the relative links in the content of the given entry, where a 
-   * link is defined by the given prefix and suffix. 
+   * Returns the given content with every quoted {@code href} beginning with
+   * "../" replaced by an absolute link starting with {@code url}, resolved 
+   * against the given ancestors.
    */
-  private void convertLinks(BasePageEntry<?> entry, 
-      List<BasePageEntry<?>> ancestors, URL siteUrl, boolean isRevision,
-      String prefix, String suffix) {
-    String content = EntryUtils.getXhtmlContent(entry);
-    String url = siteUrl.toExternalForm();
-    int index = content.indexOf(prefix + "../");
+  static String convertLinks(String content, List<BasePageEntry<?>> ancestors,
+      String url, boolean isRevision) {
+    StringBuilder builder = null;
+    String[] paths = null;
+    int copied = 0;
+    int index = content.indexOf(HREF);
     while (index != -1) {
-      int startIndex = index + prefix.length();
-      int endIndex = content.indexOf(suffix, startIndex);
-      if (endIndex == -1) {
-        break;
-      }
-      String link = content.substring(startIndex, endIndex);
-      if (link.startsWith("../")) {
-        if (isRevision) {
-          link = link.substring(3);
+      int quoteIndex = index + HREF.length();
+      int next = index + 1;
+      if (quoteIndex < content.length()) {
+        char quote = content.charAt(quoteIndex);
+        int linkStart = quoteIndex + 1;
+        int linkEnd = content.indexOf(quote, linkStart);
+        if ((quote == '"' || quote == '\'') && linkEnd != -1
+            && content.startsWith(UP, linkStart)) {
+          if (builder == null) {
+            builder = new StringBuilder(content.length() + 256);
+            paths = getPaths(ancestors);
+          }
+          builder.append(content, copied, linkStart).append(url).append('/');
+          appendLink(builder, content, linkStart, linkEnd, paths, isRevision);
+          copied = linkEnd;
+          next = linkEnd;
         }
-        int ancestorIndex = ancestors.size();
-        while (link.startsWith("../") && ancestorIndex >= 0) {
-          link = link.substring(3);
-          ancestorIndex--;
-        }
-        String str = "";
-        while (ancestorIndex >= 0 && ancestorIndex < ancestors.size()) {
-          str = ancestors.get(ancestorIndex).getPageName().getValue() + "/" + str;
-          ancestorIndex--;
-        }
-        link = str + link;
       }
-      if (link.endsWith("/index.html")) {
-        link = link.substring(0, link.lastIndexOf("/index.html"));
-      }
-      String beforeLink = content.substring(0, startIndex);
-      String afterLink = content.substring(endIndex);
-      content = beforeLink + url + "/" + link + afterLink;
-      index = content.indexOf(prefix + "../");
+      index = content.indexOf(HREF, next);
     }
-    XmlBlob blob = new XmlBlob();
-    blob.setBlob(content);
-    TextConstruct textConstruct = new XhtmlTextConstruct(blob);
-    entry.setContent(textConstruct);
+    if (builder == null) {
+      return content;
+    }
+    return builder.append(content, copied, content.length()).toString();
+  }
+  
+  /**
+   * Appends the site-relative form of the link between {@code start} and 
+   * {@code end}, which begins with "../".
+   */
+  private static void appendLink(StringBuilder builder, String content, 
+      int start, int end, String[] paths, boolean isRevision) {
+    if (isRevision) {
+      start += UP.length();
+    }
+    int levels = 0;
+    while (levels < paths.length && start < end 
+        && content.startsWith(UP, start)) {
+      start += UP.length();
+      levels++;
+    }
+    if (levels > 0) {
+      builder.append(paths[paths.length - levels]);
+    }
+    if (end - start >= INDEX.length() 
+        && content.startsWith(INDEX, end - INDEX.length())) {
+      end -= INDEX.length();
+    }
+    builder.append(content, start, end);
+  }
+  
+  /**
+   * Returns a table whose k-th element is the path formed by the page names
+   * of the first k ancestors, each followed by a slash.
+   */
+  private static String[] getPaths(List<BasePageEntry<?>> ancestors) {
+    String[] paths = new String[ancestors.size() + 1];
+    StringBuilder path = new StringBuilder();
+    paths[0] = "";
+    int k = 1;
+    for (BasePageEntry<?> ancestor : ancestors) {
+      paths[k++] = path.append(ancestor.getPageName().getValue()).append('/')
+          .toString();
+    }
+    return paths;
   }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.sites.liberation.util.EntryType.ATTACHMENT;
+import static com.google.sites.liberation.util.EntryType.WEB_ATTACHMENT;
+import static com.google.sites.liberation.util.EntryType.getType;
+import static com.google.sites.liberation.util.EntryType.isPage;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.Content;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.inject.Inject;
+import com.google.sites.liberation.export.ContinuousContentFeed;
+import com.google.sites.liberation.util.EntryProvider;
+import com.google.sites.liberation.util.EntryUtils;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An in-memory index of the entries already in a site's content feed, by id
+ * and by site-relative path, so that an import can tell whether an entry
+ * exists without a query per entry.
+ *
+ * <p>The whole feed is read once by {@link #load}. If any of it cannot be
+ * read, the index is left empty, so that every lookup queries the server
+ * rather than taking a missing entry to be absent. Only what is needed to
+ * update an entry is kept: the content of each entry is dropped. An entry
+ * whose ancestors were missing from the feed has no known path, so a lookup
+ * for a path ending in its name reports that the index cannot answer, and
+ * the caller should query the server instead. Once loaded, this class is
+ * thread safe.</p>
+ */
+final class RemoteEntryIndex {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      RemoteEntryIndex.class.getCanonicalName());
+
+  private static final int RESULTS_PER_REQUEST = 20;
+
+  private final EntryProvider entryProvider;
+  private volatile URL feedUrl;
+  private volatile Map<String, BaseContentEntry<?>> entriesById;
+  private volatile Map<String, BaseContentEntry<?>> entriesByPath;
+  private volatile Set<String> unresolvedNames;
+
+  /**
+   * Creates a new empty RemoteEntryIndex.
+   */
+  @Inject
+  RemoteEntryIndex(EntryProvider entryProvider) {
+    this.entryProvider = checkNotNull(entryProvider);
+  }
+
+  /**
+   * Reads every entry in the given feed into this index, replacing anything
+   * it held before. If some entries could not be read, this index is left
+   * empty and does not hold the feed.
+   */
+  synchronized void load(URL feedUrl, SitesService sitesService) {
+    checkNotNull(feedUrl);
+    checkNotNull(sitesService);
+    clear();
+    Map<String, BaseContentEntry<?>> byId = Maps.newHashMap();
+    ContinuousContentFeed feed = new ContinuousContentFeed(feedUrl,
+        entryProvider, sitesService, RESULTS_PER_REQUEST);
+    for (BaseContentEntry<?> entry : feed) {
+      if (entry.getId() != null) {
+        entry.setContent((Content) null);
+        byId.put(entry.getId(), entry);
+      }
+    }
+    if (!feed.isComplete()) {
+      LOGGER.warn("Unable to read every entry in " + feedUrl
+          + ", looking up entries on the server instead.");
+      return;
+    }
+    Map<String, String> pagePaths = Maps.newHashMap();
+    Map<String, BaseContentEntry<?>> byPath = Maps.newHashMap();
+    Set<String> unresolved = Sets.newHashSet();
+    for (BaseContentEntry<?> entry : byId.values()) {
+      String name = getName(entry);
+      if (name != null) {
+        String parentPath = getParentPath(entry, byId, pagePaths);
+        if (parentPath == null) {
+          unresolved.add(name);
+        } else if (!byPath.containsKey(parentPath + name)) {
+          byPath.put(parentPath + name, entry);
+        }
+      }
+    }
+    if (!unresolved.isEmpty()) {
+      LOGGER.warn(unresolved.size() + " entries in " + feedUrl
+          + " have no known path.");
+    }
+    this.entriesById = byId;
+    this.entriesByPath = byPath;
+    this.unresolvedNames = unresolved;
+    this.feedUrl = feedUrl;
+    LOGGER.info("Indexed " + byId.size() + " entries in " + feedUrl);
+  }
+
+  /**
+   * Empties this index.
+   */
+  synchronized void clear() {
+    feedUrl = null;
+    entriesById = null;
+    entriesByPath = null;
+    unresolvedNames = null;
+  }
+
+  /**
+   * Returns whether or not this index holds the entries of the given feed.
+   */
+  boolean isLoaded(URL feedUrl) {
+    URL loadedUrl = this.feedUrl;
+    return loadedUrl != null
+        && loadedUrl.toExternalForm().equals(feedUrl.toExternalForm());
+  }
+
+  /**
+   * Returns whether or not this index can tell if an entry exists at the
+   * given site-relative path.
+   */
+  boolean canResolvePath(String path) {
+    return !unresolvedNames.contains(path.substring(path.lastIndexOf('/') + 1));
+  }
+
+  /**
+   * Returns the entry with the given id, or {@code null} if there is none.
+   */
+  BaseContentEntry<?> getEntryById(String id) {
+    return entriesById.get(id);
+  }
+
+  /**
+   * Returns the entry at the given site-relative path, or {@code null} if
+   * there is none.
+   */
+  BaseContentEntry<?> getEntryByPath(String path) {
+    return entriesByPath.get(path);
+  }
+
+  /**
+   * Returns the last segment of the site-relative path of the given entry,
+   * as {@link EntryUploaderImpl} builds it, or {@code null} if it is not an
+   * entry which is looked up by path.
+   */
+  private static String getName(BaseContentEntry<?> entry) {
+    if (isPage(entry)) {
+      BasePageEntry<?> page = (BasePageEntry<?>) entry;
+      return (page.getPageName() == null) ? null
+          : page.getPageName().getValue();
+    }
+    if ((getType(entry) == ATTACHMENT || getType(entry) == WEB_ATTACHMENT)
+        && entry.getTitle() != null) {
+      return entry.getTitle().getPlainText().replaceAll(" ", "%20");
+    }
+    return null;
+  }
+
+  /**
+   * Returns the path of the folder holding the given entry, ending in "/",
+   * or {@code null} if any of its ancestors are missing.
+   */
+  private String getParentPath(BaseContentEntry<?> entry,
+      Map<String, BaseContentEntry<?>> byId, Map<String, String> pagePaths) {
+    String parentId = EntryUtils.getParentId(entry);
+    if (parentId == null) {
+      return "/";
+    }
+    if (pagePaths.containsKey(parentId)) {
+      return pagePaths.get(parentId);
+    }
+    BaseContentEntry<?> parent = byId.get(parentId);
+    String path = null;
+    if (parent != null && isPage(parent) && getName(parent) != null) {
+      // Guards against a cycle while the parent's path is computed.
+      pagePaths.put(parentId, null);
+      String grandparentPath = getParentPath(parent, byId, pagePaths);
+      if (grandparentPath != null) {
+        path = grandparentPath + getName(parent) + "/";
+      }
+    }
+    pagePaths.put(parentId, path);
+    return path;
+  }
+}
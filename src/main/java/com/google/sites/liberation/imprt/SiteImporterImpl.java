@@ -1,88 +1,387 @@
 package com.google.sites.liberation.imprt;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
 import com.google.gdata.util.common.base.Nullable;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.sites.liberation.util.ProgressListener;
+import com.google.sites.liberation.util.SynchronizedProgressListener;
 import com.google.sites.liberation.util.UrlUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Implements {@link SiteImporter} to import an entire site.
- * 
+ *
+ * <p>Once a site has been imported, an {@link ImportManifest} is written to
+ * the root directory. When the same directory is imported to the same site
+ * again, pages whose files have not changed since are neither parsed nor
+ * uploaded, unless this has been turned off in {@link SiteImporterModule}.</p>
+ *
+ * <p>Each page is also recorded in the manifest's journal as soon as it has
+ * been imported. If an import is interrupted, the next import of the same
+ * directory to the same site skips the pages it had finished, without any
+ * request to the server, whether or not unchanged pages are skipped.</p>
+ *
+ * <p>If more than one thread has been configured, the pages are imported
+ * concurrently, each page as soon as its parent has been, since the entry
+ * of the parent is needed to upload the page.</p>
+ *
+ * <p>If configured to, the existing entries of the site are read into a
+ * {@link RemoteEntryIndex} before any page is imported, and it is emptied
+ * once the import is done.</p>
+ *
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class SiteImporterImpl implements SiteImporter {
 
+  private static final Logger LOGGER = LogManager.getLogger(
+      SiteImporterImpl.class.getCanonicalName());
+
   private final PageImporter pageImporter;
-  
+  private final RemoteEntryIndex remoteEntryIndex;
+  private final boolean skipUnchangedPages;
+  private final boolean indexRemoteEntries;
+  private final int numThreads;
+
   /**
-   * Creates a new SiteImporterImpl with the given dependencies.
+   * Creates a new SiteImporterImpl with the given dependencies, which imports
+   * pages using {@code numThreads} threads, after indexing the existing
+   * entries of the site if {@code indexRemoteEntries} is set.
    */
   @Inject
-  SiteImporterImpl(PageImporter pageImporter) {
+  SiteImporterImpl(PageImporter pageImporter,
+      RemoteEntryIndex remoteEntryIndex,
+      @Named(SiteImporterModule.SKIP_UNCHANGED_PAGES)
+      boolean skipUnchangedPages,
+      @Named(SiteImporterModule.INDEX_REMOTE_ENTRIES)
+      boolean indexRemoteEntries,
+      @Named(SiteImporterModule.IMPORT_THREADS) int numThreads) {
     this.pageImporter = checkNotNull(pageImporter);
+    this.remoteEntryIndex = checkNotNull(remoteEntryIndex);
+    this.skipUnchangedPages = skipUnchangedPages;
+    this.indexRemoteEntries = indexRemoteEntries;
+    checkArgument(numThreads > 0, "numThreads");
+    this.numThreads = numThreads;
   }
-  
+
   @Override
-  public void importSite(String host, @Nullable String domain, String webspace, 
-      boolean importRevisions, SitesService sitesService, File rootDirectory, 
+  public void importSite(String host, @Nullable String domain, String webspace,
+      boolean importRevisions, SitesService sitesService, File rootDirectory,
       ProgressListener progressListener) {
     URL feedUrl = UrlUtils.getFeedUrl(host, domain, webspace);
     URL siteUrl = UrlUtils.getSiteUrl(host, domain, webspace);
-    
+    ImportManifest manifest =
+        new ImportManifest(feedUrl.toExternalForm(), importRevisions);
+    ImportManifest previous =
+        skipUnchangedPages ? readManifest(rootDirectory, manifest) : null;
+    ImportManifest interrupted = readJournal(rootDirectory, manifest);
+    if (interrupted != null) {
+      LOGGER.info("Resuming interrupted import, " + interrupted.size()
+          + " pages already imported.");
+      if (previous == null) {
+        previous = interrupted;
+      } else {
+        previous.putAll(interrupted);
+      }
+    }
+    try {
+      manifest.startJournal(rootDirectory, interrupted);
+    } catch (IOException e) {
+      LOGGER.error("Unable to write import journal, an interrupted import "
+          + "will start over.", e);
+    }
+
     progressListener.setStatus("Scanning directory.");
     int numPages = getNumPages(rootDirectory);
-    List<BasePageEntry<?>> ancestors = Lists.newLinkedList();
-    for (File subDirectory : rootDirectory.listFiles()) {
-      if (subDirectory.isDirectory()
-          && !subDirectory.getName().startsWith("_")) {
-        importPage(subDirectory, importRevisions, ancestors, feedUrl, siteUrl, 
-            sitesService, progressListener, numPages);
+    SiteImport siteImport = new SiteImport(importRevisions, feedUrl, siteUrl,
+        sitesService, previous, manifest,
+        new SynchronizedProgressListener(progressListener), numPages);
+    if (indexRemoteEntries) {
+      progressListener.setStatus("Indexing existing entries.");
+      remoteEntryIndex.load(feedUrl, sitesService);
+    }
+    List<BasePageEntry<?>> ancestors = ImmutableList.of();
+    boolean completed = false;
+    try {
+      if (numThreads == 1) {
+        for (File subDirectory : getSubDirectories(rootDirectory)) {
+          siteImport.importTree(subDirectory, subDirectory.getName(),
+              ancestors);
+        }
+      } else {
+        siteImport.importTrees(rootDirectory, ancestors);
       }
+      completed = true;
+    } finally {
+      remoteEntryIndex.clear();
+      if (!completed) {
+        manifest.finishJournal(false);
+      }
+    }
+    try {
+      manifest.write(rootDirectory);
+      manifest.finishJournal(true);
+    } catch (IOException e) {
+      LOGGER.error("Failed writing import manifest.", e);
+      manifest.finishJournal(false);
     }
     progressListener.setProgress(1.0);
     progressListener.setStatus("Import complete.");
   }
-  
-  private void importPage(File pageDirectory, boolean importRevisions,
-      List<BasePageEntry<?>> ancestors, URL feedUrl, URL siteUrl, 
-      SitesService sitesService, ProgressListener progressListener, int numPages) {
-    File file = new File(pageDirectory, "index.html");
-    if (file.isFile()) {
-      progressListener.setStatus("Importing page: " + pageDirectory.getName());
-      BasePageEntry<?> page = pageImporter.importPage(pageDirectory, 
-          importRevisions, ancestors, feedUrl, siteUrl, sitesService);
-      progressListener.setProgress(progressListener.getProgress() + 1.0/numPages);
+
+  /**
+   * Returns the manifest of the last import of the given directory, if it
+   * was to the same site in the same way as the given manifest.
+   */
+  private ImportManifest readManifest(File rootDirectory,
+      ImportManifest manifest) {
+    try {
+      ImportManifest previous = ImportManifest.read(rootDirectory);
+      if (previous != null && previous.isSameImport(manifest)) {
+        return previous;
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read import manifest, importing everything.", e);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the journal of an interrupted import of the given directory, if
+   * it was to the same site in the same way as the given manifest.
+   */
+  private ImportManifest readJournal(File rootDirectory,
+      ImportManifest manifest) {
+    try {
+      ImportManifest interrupted = ImportManifest.readJournal(rootDirectory);
+      if (interrupted != null && interrupted.isSameImport(manifest)) {
+        return interrupted;
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read import journal, starting over.", e);
+    }
+    return null;
+  }
+
+  /**
+   * The state of a single import of a site, shared by every page imported.
+   */
+  private class SiteImport {
+
+    private final boolean importRevisions;
+    private final URL feedUrl;
+    private final URL siteUrl;
+    private final SitesService sitesService;
+    private final ImportManifest previous;
+    private final ImportManifest manifest;
+    private final SynchronizedProgressListener progressListener;
+    private final int numPages;
+
+    SiteImport(boolean importRevisions, URL feedUrl, URL siteUrl,
+        SitesService sitesService, @Nullable ImportManifest previous,
+        ImportManifest manifest,
+        SynchronizedProgressListener progressListener, int numPages) {
+      this.importRevisions = importRevisions;
+      this.feedUrl = feedUrl;
+      this.siteUrl = siteUrl;
+      this.sitesService = sitesService;
+      this.previous = previous;
+      this.manifest = manifest;
+      this.progressListener = progressListener;
+      this.numPages = numPages;
+    }
+
+    /**
+     * Imports the page in the given directory and then, depth first, every
+     * page beneath it.
+     */
+    void importTree(File pageDirectory, String path,
+        List<BasePageEntry<?>> ancestors) {
+      BasePageEntry<?> page = importPage(pageDirectory, path, ancestors);
       if (page != null) {
-        List<BasePageEntry<?>> newAncestors = Lists.newLinkedList(ancestors);
-        newAncestors.add(page);
-        for (File subDirectory : pageDirectory.listFiles()) {
-          if (subDirectory.isDirectory() 
-              && !subDirectory.getName().startsWith("_")) {
-            importPage(subDirectory, importRevisions, newAncestors, feedUrl, 
-                siteUrl, sitesService, progressListener, numPages);
+        List<BasePageEntry<?>> newAncestors = getAncestors(ancestors, page);
+        for (File subDirectory : getSubDirectories(pageDirectory)) {
+          importTree(subDirectory, path + '/' + subDirectory.getName(),
+              newAncestors);
+        }
+      }
+    }
+
+    /**
+     * Imports every page beneath the given root directory on a pool of
+     * {@code numThreads} threads. Each page is scheduled as soon as its
+     * parent has been imported, so independent subtrees proceed at once.
+     */
+    void importTrees(File rootDirectory, List<BasePageEntry<?>> ancestors) {
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      Queue<Future<?>> pending = new ConcurrentLinkedQueue<Future<?>>();
+      try {
+        for (File subDirectory : getSubDirectories(rootDirectory)) {
+          schedule(subDirectory, subDirectory.getName(), ancestors, executor,
+              pending);
+        }
+        // A page schedules its children before it completes, so once the
+        // queue is empty every page has been imported.
+        Future<?> future;
+        while ((future = pending.poll()) != null) {
+          await(future);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    private void schedule(final File pageDirectory, final String path,
+        final List<BasePageEntry<?>> ancestors,
+        final ExecutorService executor, final Queue<Future<?>> pending) {
+      pending.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          BasePageEntry<?> page = importPage(pageDirectory, path, ancestors);
+          if (page != null) {
+            List<BasePageEntry<?>> newAncestors =
+                getAncestors(ancestors, page);
+            for (File subDirectory : getSubDirectories(pageDirectory)) {
+              schedule(subDirectory, path + '/' + subDirectory.getName(),
+                  newAncestors, executor, pending);
+            }
           }
         }
+      }));
+    }
+
+    /**
+     * Imports the page in the given directory, unless it is unchanged since
+     * the last import, and returns the entry it was imported as, or
+     * {@code null} if it could not be imported.
+     */
+    private BasePageEntry<?> importPage(File pageDirectory, String path,
+        List<BasePageEntry<?>> ancestors) {
+      if (!new File(pageDirectory, "index.html").isFile()) {
+        return null;
+      }
+      String parentId = ancestors.isEmpty()
+          ? null : ancestors.get(ancestors.size() - 1).getId();
+      String hash = getHash(pageDirectory, importRevisions);
+      ImportManifest.Record record =
+          (previous == null) ? null : previous.getRecord(path);
+      BasePageEntry<?> page;
+      boolean complete;
+      if (hash != null && record != null && record.matches(hash, parentId)) {
+        progressListener.setStatus("Unchanged page: " + pageDirectory.getName());
+        page = getImportedPage(pageDirectory, record);
+        complete = true;
+      } else {
+        progressListener.setStatus("Importing page: " + pageDirectory.getName());
+        ImportedPage imported = pageImporter.importPage(pageDirectory, 
+            importRevisions, ancestors, feedUrl, siteUrl, sitesService);
+        page = (imported == null) ? null : imported.getEntry();
+        complete = (imported != null) && imported.isComplete();
+      }
+      progressListener.completeStep(numPages);
+      // A page whose children did not all upload is left out of the manifest,
+      // so that the next import uploads it again.
+      if (complete && page != null && hash != null && page.getId() != null) {
+        manifest.put(path,
+            new ImportManifest.Record(page.getId(), parentId, hash));
+      }
+      return page;
+    }
+  }
+
+  /**
+   * Returns the given ancestors followed by the given page.
+   */
+  private static List<BasePageEntry<?>> getAncestors(
+      List<BasePageEntry<?>> ancestors, BasePageEntry<?> page) {
+    return ImmutableList.<BasePageEntry<?>>builder().addAll(ancestors)
+        .add(page).build();
+  }
+
+  /**
+   * Returns the directories beneath the given one which may hold pages.
+   */
+  private static List<File> getSubDirectories(File directory) {
+    List<File> subDirectories = Lists.newArrayList();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory() && !file.getName().startsWith("_")) {
+          subDirectories.add(file);
+        }
       }
     }
+    return subDirectories;
   }
-  
+
+  /**
+   * Waits for the given task to finish, rethrowing any exception it threw.
+   */
+  private static void await(Future<?> future) {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the content hash of the page in the given directory, or
+   * {@code null} if it could not be read.
+   */
+  private String getHash(File pageDirectory, boolean importRevisions) {
+    try {
+      return ImportManifest.hashPage(pageDirectory, importRevisions);
+    } catch (IOException e) {
+      LOGGER.warn("Unable to hash page: " + pageDirectory, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns a page standing in for the entry the page in the given directory
+   * was imported as, which carries enough to be the parent and ancestor of
+   * the pages beneath it.
+   */
+  private BasePageEntry<?> getImportedPage(File pageDirectory,
+      ImportManifest.Record record) {
+    WebPageEntry page = new WebPageEntry();
+    page.setId(record.entryId);
+    page.setPageName(new PageName(pageDirectory.getName()));
+    return page;
+  }
+
   private int getNumPages(File directory) {
     int num = 0;
-    for (File subDirectory : directory.listFiles()) {
-      if (subDirectory.isDirectory() 
-          && !subDirectory.getName().startsWith("_")) {
-        if (new File(subDirectory, "index.html").isFile()) {
-          num += 1 + getNumPages(subDirectory);
-        }
+    for (File subDirectory : getSubDirectories(directory)) {
+      if (new File(subDirectory, "index.html").isFile()) {
+        num += 1 + getNumPages(subDirectory);
       }
     }
     return num;
@@ -16,15 +16,126 @@
 
 package com.google.sites.liberation.imprt;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.inject.AbstractModule;
+import com.google.inject.Scopes;
+import com.google.inject.name.Names;
+import com.google.sites.liberation.util.RequestSchedulerModule;
 
 /**
  * GUICE module defining default bindings.
  */
 public class SiteImporterModule extends AbstractModule {
 
+  /** Name of the binding for whether unchanged pages are skipped. */
+  static final String SKIP_UNCHANGED_PAGES = "skipUnchangedPages";
+
+  /** Name of the binding for the number of threads used to import pages. */
+  static final String IMPORT_THREADS = "importThreads";
+
+  /** Name of the binding for the number of entries uploaded per request. */
+  static final String BATCH_SIZE = "batchSize";
+
+  /** Name of the binding for whether the remote entries are indexed first. */
+  static final String INDEX_REMOTE_ENTRIES = "indexRemoteEntries";
+
+  private boolean skipUnchangedPages = false;
+  private int importThreads = 1;
+  private int batchSize = 1;
+  private boolean indexRemoteEntries = false;
+  private double requestsPerSecond = 0;
+  private int concurrentRequests = 0;
+  private int maxRetries = 3;
+
+  /**
+   * Sets whether pages whose files have not changed since they were last 
+   * imported to the same site are skipped, and returns this module. By 
+   * default every page is imported, as a skipped page is not checked against
+   * the site, whose copy may have been changed since.
+   */
+  public SiteImporterModule setSkipUnchangedPages(boolean skipUnchangedPages) {
+    this.skipUnchangedPages = skipUnchangedPages;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads used to import pages, and returns this module.
+   * Each page is still only imported once its parent has been.
+   */
+  public SiteImporterModule setImportThreads(int importThreads) {
+    checkArgument(importThreads > 0, "importThreads must be positive");
+    this.importThreads = importThreads;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of comments, list items and other entries 
+   * without media that are uploaded together in a single batch request, and
+   * returns this module. By default each entry is uploaded on its own.
+   */
+  public SiteImporterModule setBatchSize(int batchSize) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Sets whether the whole content feed of the site is read before importing,
+   * so that whether each page or attachment already exists is answered from
+   * memory instead of by a query per entry, and returns this module. This is
+   * off by default.
+   */
+  public SiteImporterModule setIndexRemoteEntries(boolean indexRemoteEntries) {
+    this.indexRemoteEntries = indexRemoteEntries;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of requests per second sent to the server, where
+   * zero, the default, means no limit, and returns this module.
+   */
+  public SiteImporterModule setRequestsPerSecond(double requestsPerSecond) {
+    checkArgument(requestsPerSecond >= 0, 
+        "requestsPerSecond must not be negative");
+    this.requestsPerSecond = requestsPerSecond;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of requests in flight at once, whatever the 
+   * number of threads, where zero, the default, means no limit, and returns 
+   * this module.
+   */
+  public SiteImporterModule setConcurrentRequests(int concurrentRequests) {
+    checkArgument(concurrentRequests >= 0, 
+        "concurrentRequests must not be negative");
+    this.concurrentRequests = concurrentRequests;
+    return this;
+  }
+
+  /**
+   * Sets the number of times a request rejected as over quota or while the
+   * server is unavailable is retried, and returns this module.
+   */
+  public SiteImporterModule setMaxRetries(int maxRetries) {
+    checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
   @Override
   protected void configure() {
-    //Currently nothing to configure.
+    install(new RequestSchedulerModule(requestsPerSecond, concurrentRequests, 
+        maxRetries));
+    bindConstant().annotatedWith(Names.named(SKIP_UNCHANGED_PAGES))
+        .to(skipUnchangedPages);
+    bindConstant().annotatedWith(Names.named(IMPORT_THREADS))
+        .to(importThreads);
+    bindConstant().annotatedWith(Names.named(BATCH_SIZE))
+        .to(batchSize);
+    bindConstant().annotatedWith(Names.named(INDEX_REMOTE_ENTRIES))
+        .to(indexRemoteEntries);
+    bind(RemoteEntryIndex.class).in(Scopes.SINGLETON);
   }
 }
\ No newline at end of file
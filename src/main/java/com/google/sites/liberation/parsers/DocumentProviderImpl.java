@@ -26,6 +26,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -34,26 +36,42 @@ import javax.xml.parsers.ParserConfigurationException;
 /**
  * Parses a file into an org.w3c.Document.
  * 
+ * <p>A {@code DocumentBuilder} cannot parse two documents at once, so each
+ * thread using this class is given its own.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class DocumentProviderImpl implements DocumentProvider {
 
-  private DocumentBuilder docBuilder;
+  private final ThreadLocal<DocumentBuilder> docBuilders;
   
   @Inject
   DocumentProviderImpl() {
+    final DocumentBuilderFactory factory = 
+        DocumentBuilderFactory.newInstance();
     try {
-      docBuilder = DocumentBuilderFactory.newInstance()
-          .newDocumentBuilder();
+      factory.newDocumentBuilder();
     } catch (ParserConfigurationException e) {
       throw new RuntimeException(e);
     }
+    docBuilders = new ThreadLocal<DocumentBuilder>() {
+      @Override
+      protected DocumentBuilder initialValue() {
+        try {
+          synchronized (factory) {
+            return factory.newDocumentBuilder();
+          }
+        } catch (ParserConfigurationException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
   }
   
   @Override
   public Document getDocument(File file) throws IOException {
     try {
-      return docBuilder.parse(file);
+      return docBuilders.get().parse(file);
     } catch (SAXException e) {
       return useJTidy(file);
     }
@@ -63,7 +81,21 @@ final class DocumentProviderImpl implements DocumentProvider {
     File xmlFile = new File(file.getParentFile(), "index.xml");
     Tidy tidy = new Tidy();
     tidy.setXHTML(true);
-    tidy.parse(new FileInputStream(file), new FileOutputStream(xmlFile));
+    // Without a doctype or named entities the output parses without the
+    // XHTML DTD, which would otherwise be fetched from the web every time.
+    tidy.setDocType("omit");
+    tidy.setNumEntities(true);
+    InputStream in = new FileInputStream(file);
+    try {
+      OutputStream out = new FileOutputStream(xmlFile);
+      try {
+        tidy.parse(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
     Document document = getDocument(xmlFile);
     xmlFile.deleteOnExit();
     return document;
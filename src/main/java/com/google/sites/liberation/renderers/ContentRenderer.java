@@ -19,7 +19,9 @@ package com.google.sites.liberation.renderers;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
 import com.google.inject.ImplementedBy;
-import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
+
+import java.io.IOException;
 
 /**
  * Renders a page's main content.
@@ -30,7 +32,9 @@ import com.google.sites.liberation.util.XmlElement;
 public interface ContentRenderer {
 
   /**
-   * Returns an XmlElement containing the given entry's xhtml content.
+   * Writes an element containing the given xhtml content of the given entry
+   * to the given writer, as a child of its current element.
    */
-  XmlElement renderContent(BaseContentEntry<?> entry, boolean revisionsExported);
+  void writeContent(BaseContentEntry<?> entry, String content, 
+      boolean revisionsExported, XmlWriter writer) throws IOException;
 }
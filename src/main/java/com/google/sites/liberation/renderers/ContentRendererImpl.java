@@ -18,7 +18,9 @@ package com.google.sites.liberation.renderers;
 
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
-import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
+
+import java.io.IOException;
 
 /**
  * Renders a page's main content.
@@ -28,29 +30,27 @@ import com.google.sites.liberation.util.XmlElement;
 final class ContentRendererImpl implements ContentRenderer {
 
   @Override
-  public XmlElement renderContent(BaseContentEntry<?> entry, 
-      boolean revisionsExported) {
-    XmlElement div = new XmlElement("div");
-    div.addElement(RendererUtils.getXhtmlContentElement(entry));
-    div.addElement(new XmlElement("br"));
-    XmlElement info = new XmlElement("small");
-    info.addText("Updated on ");
-    info.addElement(RendererUtils.getUpdatedElement(entry));
-    info.addText(" by ");
-    info.addElement(RendererUtils.getAuthorElement(entry));
+  public void writeContent(BaseContentEntry<?> entry, String content,
+      boolean revisionsExported, XmlWriter writer) throws IOException {
+    writer.start("div");
+    RendererUtils.writeXhtmlContent(content, writer);
+    writer.start("br").end();
+    writer.start("small").text("Updated on ");
+    RendererUtils.writeUpdated(entry, writer);
+    writer.text(" by ");
+    RendererUtils.writeAuthor(entry, writer);
     if (revisionsExported) {
-      info.addText(" (");
-      XmlElement historyLink = new XmlElement("a");
-      historyLink.addText("Version ").addElement(
-          RendererUtils.getRevisionElement(entry));
-      historyLink.setAttribute("href", "history.html");
-      info.addElement(historyLink).addText(")");
+      writer.text(" (");
+      writer.start("a").attr("href", "history.html").text("Version ");
+      RendererUtils.writeRevision(entry, writer);
+      writer.end().text(")");
     } else {
-      info.addText(" (Version ")
-          .addElement(RendererUtils.getRevisionElement(entry)).addText(")");
+      writer.text(" (Version ");
+      RendererUtils.writeRevision(entry, writer);
+      writer.text(")");
     }
-    div.addElement(info);
-    div.addElement(new XmlElement("br")).addElement(new XmlElement("br"));
-    return div;
+    writer.end();
+    writer.start("br").end().start("br").end();
+    writer.end();
   }
 }
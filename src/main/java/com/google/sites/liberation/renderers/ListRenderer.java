@@ -19,8 +19,9 @@ package com.google.sites.liberation.renderers;
 import com.google.gdata.data.sites.ListItemEntry;
 import com.google.gdata.data.sites.ListPageEntry;
 import com.google.inject.ImplementedBy;
-import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -32,8 +33,10 @@ import java.util.List;
 public interface ListRenderer {
 
   /**
-   * Returns an XmlElement containing the list given by the ListPageEntry,
-   * with the given list items.
+   * Writes an element containing the list given by the ListPageEntry, with
+   * the given list items, to the given writer, as a child of its current
+   * element.
    */
-  XmlElement renderList(ListPageEntry entry, List<ListItemEntry> listItems);
+  void writeList(ListPageEntry entry, List<ListItemEntry> listItems,
+      XmlWriter writer) throws IOException;
 }
@@ -21,46 +21,46 @@ import com.google.gdata.data.sites.ListPageEntry;
 import com.google.gdata.data.spreadsheet.Column;
 import com.google.gdata.data.spreadsheet.Field;
 import com.google.gdata.util.common.base.Nullable;
-import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
  * Renders the list in a list page.
  * 
+ * <p>Rows are written one at a time, so that a long list is never held in
+ * memory as a whole.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 final class ListRendererImpl implements ListRenderer {
   
   @Override
-  public XmlElement renderList(ListPageEntry entry, 
-      @Nullable List<ListItemEntry> listItems) {
-    XmlElement table = new XmlElement("table").setAttribute("border", "1");
-    XmlElement header = new XmlElement("tr").setAttribute("class", "gs:data");
+  public void writeList(ListPageEntry entry, 
+      @Nullable List<ListItemEntry> listItems, XmlWriter writer) 
+      throws IOException {
+    writer.start("table").attr("border", "1");
+    writer.start("tr").attr("class", "gs:data");
     for (Column col : entry.getData().getColumns()) {
-      XmlElement cell = new XmlElement("th");
-      cell.setAttribute("class", "gs:column");
-      cell.setAttribute("title", col.getIndex());
-      cell.addText(col.getName());
-      header.addElement(cell);
+      writer.start("th").attr("class", "gs:column")
+          .attr("title", col.getIndex()).text(col.getName()).end();
     }
-    XmlElement authorCell = new XmlElement("th");
-    header.addElement(authorCell.addText("Author"));
-    XmlElement updatedCell = new XmlElement("th");
-    header.addElement(updatedCell.addText("Updated"));
-    XmlElement revisionCell = new XmlElement("th");
-    header.addElement(revisionCell.addText("Version"));
-    table.addElement(header);
+    writer.start("th").text("Author").end();
+    writer.start("th").text("Updated").end();
+    writer.start("th").text("Version").end();
+    writer.end();
     if (listItems != null) {
       for (ListItemEntry item : listItems) {
-        table.addElement(getRow(item));
+        writeRow(item, writer);
       }
     }
-    return table;
+    writer.end();
   }
   
-  private XmlElement getRow(ListItemEntry item) {
-    XmlElement element = RendererUtils.getEntryElement(item, "tr");
+  private void writeRow(ListItemEntry item, XmlWriter writer) 
+      throws IOException {
+    RendererUtils.startEntryElement(item, "tr", writer);
     for (Field field : item.getFields()) {
       String val;
       if (field.getValue() == null || field.getValue().equals("")) {
@@ -70,21 +70,16 @@ final class ListRendererImpl implements ListRenderer {
       } else {
         val = field.getValue();
       }
-      XmlElement cell = new XmlElement("td");
-      cell.setAttribute("class", "gs:field");
-      cell.setAttribute("title", field.getIndex());
-      cell.addXml(val);
-      element.addElement(cell);
+      writer.start("td").attr("class", "gs:field")
+          .attr("title", field.getIndex()).xml(val).end();
     }
-    XmlElement authorCell = new XmlElement("td");
-    element.addElement(authorCell.addElement(
-        RendererUtils.getAuthorElement(item)));
-    XmlElement revisionCell = new XmlElement("td");
-    XmlElement updatedCell = new XmlElement("td");
-    element.addElement(updatedCell.addElement(
-        RendererUtils.getUpdatedElement(item)));
-    element.addElement(revisionCell.addElement(
-        RendererUtils.getRevisionElement(item)));
-    return element;
+    writer.start("td");
+    RendererUtils.writeAuthor(item, writer);
+    writer.end().start("td");
+    RendererUtils.writeUpdated(item, writer);
+    writer.end().start("td");
+    RendererUtils.writeRevision(item, writer);
+    writer.end();
+    writer.end();
   }
 }
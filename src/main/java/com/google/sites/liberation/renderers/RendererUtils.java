@@ -22,6 +22,7 @@ import com.google.gdata.data.TextConstruct;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.sites.liberation.util.EntryUtils;
 import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
@@ -29,10 +30,13 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
 
+import java.io.IOException;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.sites.liberation.util.EntryType.*;
 /**
- * Provides utility methods to construct various XmlElement's.
+ * Provides utility methods to construct various XmlElement's, and to write
+ * some of them straight to an {@code XmlWriter}.
  * 
  * @author bsimon@google.com (Benjamin Simon)
  */
@@ -59,26 +63,37 @@ final class RendererUtils {
     XmlElement vcard = new XmlElement("span");
     vcard.setAttribute("class", "vcard");
     Person author = entry.getAuthors().get(0);
-    String name = author.getName();
-    String email = author.getEmail();
-    if (name == null) {
-      name = "[no name found]";
-    }
-    if (email == null) {
-      email = "[no email found]";
-    }
-    if (name == null) {
-      XmlElement link = getHyperLink("mailto:" + email, email);
-      link.setAttribute("class", "email");
-      vcard.addElement(link);
-    } else {
-      XmlElement link = getHyperLink("mailto:" + email, name);
-      link.setAttribute("class", "fn");
-      vcard.addElement(link);
-    }
+    XmlElement link = getHyperLink("mailto:" + getEmail(author),
+        getName(author));
+    link.setAttribute("class", "fn");
+    vcard.addElement(link);
     return element.addElement(vcard);
   }
   
+  /**
+   * Writes a new hCard element for the given entry, the same as 
+   * {@link #getAuthorElement}, to the given writer.
+   */
+  static void writeAuthor(BaseContentEntry<?> entry, XmlWriter writer) 
+      throws IOException {
+    checkNotNull(entry);
+    Person author = entry.getAuthors().get(0);
+    writer.start("span").attr("class", "author");
+    writer.start("span").attr("class", "vcard");
+    writer.start("a").attr("class", "fn")
+        .attr("href", "mailto:" + getEmail(author)).text(getName(author));
+    writer.end().end().end();
+  }
+  
+  private static String getName(Person author) {
+    return (author.getName() == null) ? "[no name found]" : author.getName();
+  }
+  
+  private static String getEmail(Person author) {
+    return (author.getEmail() == null) 
+        ? "[no email found]" : author.getEmail();
+  }
+  
   /**
    * Creates a new hAtom "entry-content" div containing the given entry's
    * xhtml content.
@@ -96,6 +111,18 @@ final class RendererUtils {
     return element;
   }
   
+  /**
+   * Writes a new hAtom "entry-content" div containing the given xhtml 
+   * content, the same as {@link #getXhtmlContentElement} creates for a page, 
+   * to the given writer.
+   */
+  static void writeXhtmlContent(String xhtmlContent, XmlWriter writer) 
+      throws IOException {
+    checkNotNull(xhtmlContent);
+    writer.start("div").attr("class", "entry-content").xml(xhtmlContent)
+        .end();
+  }
+  
   /**
    * Creates a new hAtom "entry-content entry-title" anchor, containing the 
    * given entry's out of line content link in the href attribute, and title as
@@ -131,6 +158,19 @@ final class RendererUtils {
     element.setAttribute("class", "hentry " + getType(entry).toString());
     return element;
   }
+  
+  /**
+   * Starts a new hAtom "hentry" element of the given type for the given 
+   * entry, the same as {@link #getEntryElement}, leaving it open.
+   */
+  static void startEntryElement(BaseContentEntry<?> entry, String elementType,
+      XmlWriter writer) throws IOException {
+    checkNotNull(entry, "entry");
+    checkNotNull(elementType, "elementType");
+    writer.start(elementType);
+    writer.attr("class", "hentry " + getType(entry).toString());
+    writer.attr("id", entry.getId());
+  }
 
   /**
    * Creates a new HyperLink with the given href and display text.
@@ -151,13 +191,25 @@ final class RendererUtils {
     checkNotNull(entry);
     XmlElement element = new XmlElement("span");
     element.setAttribute("class", "sites:revision");
-    if (entry.getRevision() == null) {
-      element.addText("1");
-    } else {
-      element.addText(entry.getRevision().getValue().toString());
-    }
+    element.addText(getRevision(entry));
     return element;
   }
+  
+  /**
+   * Writes a new "sites:revision" for the given entry, the same as 
+   * {@link #getRevisionElement}, to the given writer.
+   */
+  static void writeRevision(BaseContentEntry<?> entry, XmlWriter writer) 
+      throws IOException {
+    checkNotNull(entry);
+    writer.start("span").attr("class", "sites:revision")
+        .text(getRevision(entry)).end();
+  }
+  
+  private static String getRevision(BaseContentEntry<?> entry) {
+    return (entry.getRevision() == null) 
+        ? "1" : entry.getRevision().getValue().toString();
+  }
 
   /**
    * Creates a new hAtom "entry-summary" element for the given entry.
@@ -199,9 +251,25 @@ final class RendererUtils {
     XmlElement element = new XmlElement("abbr");
     element.setAttribute("class", "updated");
     element.setAttribute("title", entry.getUpdated().toString());
+    element.addText(getUpdated(entry));
+    return element;
+  }
+  
+  /**
+   * Writes a new hAtom "updated" element for the given entry, the same as 
+   * {@link #getUpdatedElement}, to the given writer.
+   */
+  static void writeUpdated(BaseContentEntry<?> entry, XmlWriter writer) 
+      throws IOException {
+    checkNotNull(entry);
+    writer.start("abbr").attr("class", "updated")
+        .attr("title", entry.getUpdated().toString())
+        .text(getUpdated(entry)).end();
+  }
+  
+  private static String getUpdated(BaseContentEntry<?> entry) {
     DateTime jodaTime = new DateTime(entry.getUpdated().getValue(),
         DateTimeZone.UTC);
-    element.addText(jodaTime.toString(formatter));
-    return element;
+    return jodaTime.toString(formatter);
   }
 }
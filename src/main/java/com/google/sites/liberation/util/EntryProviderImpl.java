@@ -24,6 +24,7 @@ import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.ContentFeed;
 import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
 
 import java.io.IOException;
 import java.util.List;
@@ -36,14 +37,30 @@ import java.util.List;
  */
 public final class EntryProviderImpl implements EntryProvider {
   
+  private final RequestScheduler requestScheduler;
+  
+  /**
+   * Creates a new EntryProviderImpl which sends its queries through the
+   * given scheduler.
+   */
+  @Inject
+  public EntryProviderImpl(RequestScheduler requestScheduler) {
+    this.requestScheduler = checkNotNull(requestScheduler);
+  }
+  
   @SuppressWarnings("unchecked")
   @Override
-  public List<BaseContentEntry<?>> getEntries(Query query, 
-      SitesService sitesService) throws IOException, ServiceException {
+  public List<BaseContentEntry<?>> getEntries(final Query query, 
+      final SitesService sitesService) throws IOException, ServiceException {
     checkNotNull(query, "query");
     checkNotNull(sitesService, "sitesService");
-    List<BaseContentEntry> baseEntries = 
-        sitesService.getFeed(query, ContentFeed.class).getEntries();
+    List<BaseContentEntry> baseEntries = requestScheduler.execute(
+        new RequestScheduler.Request<ContentFeed>() {
+          @Override
+          public ContentFeed execute() throws IOException, ServiceException {
+            return sitesService.getFeed(query, ContentFeed.class);
+          }
+        }).getEntries();
     List<BaseContentEntry<?>> adaptedEntries = Lists.newLinkedList();
     for (BaseContentEntry entry : baseEntries) {
       BaseContentEntry<?> adaptedEntry = 
@@ -21,6 +21,7 @@ import com.google.gdata.data.sites.SiteFeed;
 import com.google.gdata.util.ServiceException;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.sites.liberation.export.ExportCheckpoint;
 import com.google.sites.liberation.export.SiteExporter;
 import com.google.sites.liberation.export.SiteExporterModule;
 import com.google.sites.liberation.imprt.SiteImporter;
@@ -31,6 +32,7 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -70,8 +72,58 @@ public class Main {
     @Option(name="-e", usage="Load Webspace list from external file")
     private String external = null;
 
+    @Option(name="-threads", usage="number of threads used to export or import pages (default 1)")
+    private int threads = 1;
+
+    @Option(name="-downloads", usage="number of attachments downloaded at once (default 1)")
+    private int downloads = 1;
+
+    @Option(name="-revisionThreads", usage="number of threads exporting revisions alongside pages (default 1)")
+    private int revisionThreads = 1;
+
+    @Option(name="-revisionRequests", usage="number of revision feeds read at once (default 1)")
+    private int revisionRequests = 1;
+
+    @Option(name="-prefetch", usage="number of feed requests kept in flight while exporting (default 1)")
+    private int prefetch = 1;
+
+    @Option(name="-adaptive", usage="adapt the number of entries per feed request to the server's latency")
+    private boolean adaptive = false;
+
+    @Option(name="-store", usage="directory in which to keep site data while exporting, instead of memory")
+    private String store = null;
+
+    @Option(name="-incremental", usage="directory of a previous export to update, carrying forward whatever has not changed")
+    private String incremental = null;
+
+    @Option(name="-batch", usage="number of comments and list items uploaded per request when importing (default 1)")
+    private int batch = 1;
+
+    @Option(name="-fullImport", usage="import every page, even those unchanged since the last import of the directory")
+    private boolean fullImport = false;
+
+    @Option(name="-indexRemote", usage="read all existing entries of the site once before importing, instead of looking each one up")
+    private boolean indexRemote = false;
+
+    @Option(name="-rate", usage="maximum number of requests per second sent to the server (default 0, no limit)")
+    private double rate = 0;
+
+    @Option(name="-requests", usage="maximum number of requests in flight at once (default 0, no limit)")
+    private int requests = 0;
+
+    @Option(name="-retries", usage="number of times a request rejected as over quota is retried (default 3)")
+    private int retries = 3;
+
+    @Option(name="-sites", usage="number of webspaces exported at once, sharing the request limits (default 1)")
+    private int sites = 1;
+
+    @Option(name="-resume", usage="keep a checkpoint so that an interrupted export can be resumed, and continue the latest interrupted export in the directory from where it stopped, skipping sites already exported")
+    private boolean resume = false;
+
     private String newlyCreatedPath = null;
 
+    private boolean resuming = false;
+
     private void doMain(String[] args) {
 
         if(Lock.notRunning("lock.lock")) {
@@ -96,6 +148,18 @@ public class Main {
                     throw new CmdLineException(parser, loggerError);
                 }
 
+                if(threads < 1 || downloads < 1 || prefetch < 1 || revisionThreads < 1 || revisionRequests < 1 || batch < 1 || sites < 1) {
+                    loggerError = "Number of threads, downloads, revision threads, revision requests, prefetched requests, batch size and sites must be at least 1!";
+                    LOGGER.error(loggerError);
+                    throw new CmdLineException(parser, loggerError);
+                }
+
+                if(rate < 0 || requests < 0 || retries < 0) {
+                    loggerError = "Request rate, number of requests and number of retries must not be negative!";
+                    LOGGER.error(loggerError);
+                    throw new CmdLineException(parser, loggerError);
+                }
+
                 if(path == null) {
                     loggerError = "Directory is not specified!";
                     LOGGER.error(loggerError);
@@ -103,12 +167,28 @@ public class Main {
                 } else {
                     DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd"); Date date = new Date();
                     newlyCreatedPath = dateFormat.format(date);
+                    if (resume) {
+                        String interrupted = findInterruptedExport(Paths.get(path).toFile());
+                        if (interrupted != null) {
+                            newlyCreatedPath = interrupted;
+                            resuming = true;
+                            LOGGER.info("Resuming export in: " + newlyCreatedPath);
+                        } else {
+                            LOGGER.info("No interrupted export to resume, starting a new export in: " + newlyCreatedPath);
+                        }
+                    }
                     path = path + System.getProperty("file.separator") + newlyCreatedPath + System.getProperty("file.separator");
                 }
 
                 LOGGER.info("Selected Mode: " + option.toUpperCase());
                 System.out.println("\nSelected Mode: " + option.toUpperCase());
 
+                if (System.getProperty("http.maxConnections") == null) {
+                    // Keeps enough idle connections to the server alive for every site exported at once to reuse them.
+                    System.setProperty("http.maxConnections",
+                            String.valueOf(Math.max(5, sites * (threads + downloads + revisionThreads))));
+                }
+
                 SitesService sitesService = new SitesService("sites-liberation-5");
                 sitesService.setOAuth2Credentials(auth.credential);
                 List<String> webspaceList = prepareWebspaceList(host, domain, webspace, sitesService, external);
@@ -119,17 +199,32 @@ public class Main {
                     System.exit(1);
                 }
 
-                for(String parseWebspace: webspaceList) {
-                    if (option.equals("export")) {
-                        Injector injector = Guice.createInjector(new SiteExporterModule());
-                        SiteExporter siteExporter = injector.getInstance(SiteExporter.class);
-                        siteExporter.exportSite(host, domain, parseWebspace, revisions, sitesService, Paths.get(path + parseWebspace).toFile(), new StdOutProgressListener());
-                    } else {
-                        Injector injector = Guice.createInjector(new SiteImporterModule());
-                        SiteImporter siteImporter = injector.getInstance(SiteImporter.class);
+                Injector injector;
+                if (option.equals("export")) {
+                    if (resuming) {
+                        webspaceList = withoutExportedSites(webspaceList, Paths.get(path).toFile());
+                    }
+                    injector = Guice.createInjector(new SiteExporterModule().setExportThreads(threads).setDownloadThreads(downloads)
+                            .setRevisionThreads(revisionThreads).setRevisionRequests(revisionRequests)
+                            .setPrefetchedRequests(prefetch).setAdaptiveRequestSize(adaptive)
+                            .setEntryStoreDirectory(store == null ? null : Paths.get(store).toFile()).setResume(resume)
+                            .setRequestsPerSecond(rate).setConcurrentRequests(requests).setMaxRetries(retries));
+                    MultiSiteExporter multiSiteExporter = new MultiSiteExporter(injector.getInstance(SiteExporter.class), sites);
+                    List<MultiSiteExporter.SiteSummary> summaries = multiSiteExporter.exportSites(host, domain, webspaceList, revisions,
+                            sitesService, Paths.get(path).toFile(), incremental == null ? null : Paths.get(incremental).toFile());
+                    printSummaries(summaries);
+                } else {
+                    injector = Guice.createInjector(new SiteImporterModule().setSkipUnchangedPages(!fullImport).setImportThreads(threads).setBatchSize(batch)
+                            .setIndexRemoteEntries(indexRemote)
+                            .setRequestsPerSecond(rate).setConcurrentRequests(requests).setMaxRetries(retries));
+                    SiteImporter siteImporter = injector.getInstance(SiteImporter.class);
+                    for(String parseWebspace: webspaceList) {
                         siteImporter.importSite(host, domain, parseWebspace, revisions, sitesService, Paths.get(path + parseWebspace).toFile(), new StdOutProgressListener());
                     }
                 }
+                RequestScheduler scheduler = injector.getInstance(RequestScheduler.class);
+                LOGGER.info(scheduler.getRequestCount() + " requests, " + scheduler.getThrottledCount()
+                        + " throttled, " + scheduler.getRetryCount() + " retried");
 
             } catch (CmdLineException e) {
                 parser.printUsage(System.err);
@@ -149,6 +244,78 @@ public class Main {
 
     }
 
+    /**
+     * Prints how the export of each site went, followed by the totals.
+     */
+    private void printSummaries(List<MultiSiteExporter.SiteSummary> summaries) {
+        long entries = 0;
+        long failedPages = 0;
+        long failedAttachments = 0;
+        int failures = 0;
+        System.out.println("\nSummary:");
+        for (MultiSiteExporter.SiteSummary summary : summaries) {
+            System.out.println("  " + summary);
+            LOGGER.info(summary);
+            entries += summary.getEntries();
+            failedPages += summary.getFailedPages();
+            failedAttachments += summary.getFailedAttachments();
+            if (summary.getFailure() != null) {
+                failures++;
+            }
+        }
+        String total = "Total: " + summaries.size() + " sites, " + entries + " entries, " + failedPages + " failed pages, "
+                + failedAttachments + " failed attachments, " + failures + " failed";
+        System.out.println(total);
+        LOGGER.info(total);
+    }
+
+    /**
+     * Returns the name of the most recent dated export directory in the given directory which holds the checkpoint of an
+     * interrupted site export, or null if there is none. Directories whose exports all finished are not resumed.
+     */
+    static String findInterruptedExport(File directory) {
+        String latest = null;
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.matches("\\d{4}-\\d{2}-\\d{2}") && (latest == null || name.compareTo(latest) > 0)
+                        && hasCheckpoint(new File(directory, name))) {
+                    latest = name;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static boolean hasCheckpoint(File exportDirectory) {
+        File[] siteDirectories = exportDirectory.listFiles();
+        if (siteDirectories != null) {
+            for (File siteDirectory : siteDirectories) {
+                if (ExportCheckpoint.exists(siteDirectory)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the given webspaces without those whose export into the given interrupted export directory finished,
+     * which are those with a folder but no checkpoint left in it.
+     */
+    static List<String> withoutExportedSites(List<String> webspaces, File exportDirectory) {
+        List<String> remaining = new ArrayList<String>();
+        for (String webspace : webspaces) {
+            File siteDirectory = new File(exportDirectory, webspace);
+            if (siteDirectory.isDirectory() && !ExportCheckpoint.exists(siteDirectory)) {
+                LOGGER.info("Skipping site already exported: " + webspace);
+            } else {
+                remaining.add(webspace);
+            }
+        }
+        return remaining;
+    }
+
     /**
      * Prepares webspace list to use when ALL from account are needed.
      */
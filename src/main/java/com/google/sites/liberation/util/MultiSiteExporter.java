@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.util.common.base.Nullable;
+import com.google.sites.liberation.export.SiteExportResult;
+import com.google.sites.liberation.export.SiteExporter;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Exports several sites at once with a single {@link SiteExporter}, so that
+ * they share its request scheduler and the service's connections, and
+ * reports how each export went.
+ *
+ * <p>At most the given number of sites are exported at any time. A site
+ * whose export fails does not stop the others; its failure is recorded in
+ * its summary instead.</p>
+ */
+public final class MultiSiteExporter {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      MultiSiteExporter.class.getCanonicalName());
+
+  private final SiteExporter siteExporter;
+  private final int concurrentSites;
+
+  /**
+   * Creates a new MultiSiteExporter exporting up to {@code concurrentSites}
+   * sites at once with the given exporter.
+   */
+  public MultiSiteExporter(SiteExporter siteExporter, int concurrentSites) {
+    checkArgument(concurrentSites > 0, "concurrentSites must be positive");
+    this.siteExporter = checkNotNull(siteExporter);
+    this.concurrentSites = concurrentSites;
+  }
+
+  /**
+   * Exports each of the given webspaces into the directory of the same name
+   * under {@code rootDirectory}, on top of the one under
+   * {@code previousRootDirectory} if it is given, and returns a summary of
+   * each export in the order of the webspaces.
+   */
+  public List<SiteSummary> exportSites(final String host,
+      @Nullable final String domain, List<String> webspaces,
+      final boolean exportRevisions, final SitesService sitesService,
+      final File rootDirectory, @Nullable final File previousRootDirectory) {
+    checkNotNull(host);
+    checkNotNull(sitesService);
+    checkNotNull(rootDirectory);
+    final boolean prefixOutput = concurrentSites > 1 && webspaces.size() > 1;
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(concurrentSites, webspaces.size())));
+    List<Future<SiteSummary>> futures = Lists.newArrayList();
+    try {
+      for (final String webspace : webspaces) {
+        futures.add(executor.submit(new Callable<SiteSummary>() {
+          @Override
+          public SiteSummary call() {
+            File directory = new File(rootDirectory, webspace);
+            File previousDirectory = (previousRootDirectory == null)
+                ? null : new File(previousRootDirectory, webspace);
+            ProgressListener progressListener = new StdOutProgressListener(
+                prefixOutput ? "[" + webspace + "] " : "");
+            long start = System.currentTimeMillis();
+            SiteExportResult result = null;
+            Exception failure = null;
+            try {
+              result = siteExporter.exportSite(host, domain, webspace,
+                  exportRevisions, sitesService, directory, previousDirectory,
+                  progressListener);
+            } catch (RuntimeException e) {
+              LOGGER.error("Export of " + webspace + " failed.", e);
+              failure = e;
+            }
+            return new SiteSummary(webspace,
+                System.currentTimeMillis() - start, result, failure);
+          }
+        }));
+      }
+      List<SiteSummary> summaries = Lists.newArrayList();
+      for (Future<SiteSummary> future : futures) {
+        summaries.add(getUninterruptibly(future));
+      }
+      return summaries;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static SiteSummary getUninterruptibly(Future<SiteSummary> future) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * How the export of a single site went: how long it took, how many pages
+   * and attachments the exporter found and failed to export, and why the
+   * export failed, if it did.
+   */
+  public static final class SiteSummary {
+
+    private final String webspace;
+    private final long durationMillis;
+    private final int entries;
+    private final int failedPages;
+    private final int failedAttachments;
+    private final Exception failure;
+
+    SiteSummary(String webspace, long durationMillis,
+        @Nullable SiteExportResult result, @Nullable Exception failure) {
+      this.webspace = checkNotNull(webspace);
+      this.durationMillis = durationMillis;
+      this.failure = failure;
+      if (result != null) {
+        this.entries = result.getEntries();
+        this.failedPages = result.getFailedPages();
+        this.failedAttachments = result.getFailedAttachments();
+      } else {
+        this.entries = 0;
+        this.failedPages = 0;
+        this.failedAttachments = 0;
+      }
+    }
+
+    public String getWebspace() {
+      return webspace;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    /**
+     * Returns the number of pages and attachments found in the site, or 0 if
+     * the export failed.
+     */
+    public int getEntries() {
+      return entries;
+    }
+
+    /**
+     * Returns the number of pages which could not be exported.
+     */
+    public int getFailedPages() {
+      return failedPages;
+    }
+
+    /**
+     * Returns the number of attachments which could not be downloaded.
+     */
+    public int getFailedAttachments() {
+      return failedAttachments;
+    }
+
+    /**
+     * Returns why the export failed, or {@code null} if it succeeded.
+     */
+    public Exception getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      return webspace + ": " + (durationMillis / 1000.0) + "s, " + entries
+          + " entries, " + failedPages + " failed pages, "
+          + failedAttachments + " failed attachments, "
+          + ((failure == null) ? "ok" : "FAILED (" + failure + ")");
+    }
+  }
+}
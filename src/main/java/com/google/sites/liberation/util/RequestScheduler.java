@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import com.google.gdata.util.ServiceException;
+import com.google.inject.ImplementedBy;
+
+import java.io.IOException;
+
+/**
+ * Paces the requests made to the server, so that they stay within the
+ * request quota, and retries those rejected because of it.
+ */
+@ImplementedBy(RequestSchedulerImpl.class)
+public interface RequestScheduler {
+
+  /**
+   * A single request to the server.
+   */
+  interface Request<T> {
+
+    /**
+     * Sends this request and returns its result.
+     */
+    T execute() throws IOException, ServiceException;
+  }
+
+  /**
+   * Sends the given request once it is allowed to, retrying it if the server
+   * rejects it as over quota or unavailable, or fails with a server error,
+   * and returns its result. The request must be safe to send more than once.
+   * The exception of the last attempt is thrown if every attempt fails.
+   */
+  <T> T execute(Request<T> request) throws IOException, ServiceException;
+
+  /**
+   * Sends the given request once it is allowed to, like
+   * {@link #execute(Request)}, but only retries it if the server rejected it
+   * before applying it, as over quota or unavailable. Used for requests, such
+   * as inserts, which must not be applied twice.
+   */
+  <T> T executeNonIdempotent(Request<T> request)
+      throws IOException, ServiceException;
+
+  /**
+   * Returns the number of requests executed, not counting retries.
+   */
+  long getRequestCount();
+
+  /**
+   * Returns the number of times a request had to wait to keep to the
+   * request rate.
+   */
+  long getThrottledCount();
+
+  /**
+   * Returns the number of times a request was retried.
+   */
+  long getRetryCount();
+}
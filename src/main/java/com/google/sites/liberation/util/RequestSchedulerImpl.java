@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Implements {@link RequestScheduler} with a token bucket, which lets
+ * through up to a second's worth of requests at once and then one request
+ * per token, and a cap on the number of requests in flight.
+ *
+ * <p>A request is retried when the server rejects it before applying it,
+ * answering 429 or 503, or 403 with a rate limit or quota error code, after
+ * waiting an exponentially growing and randomly jittered time. A request
+ * which is safe to repeat is also retried after a 500, 502 or 504, which may
+ * come after the request was applied. Any other failure is thrown at once,
+ * as a retry would fail the same way.</p>
+ */
+@Singleton
+public final class RequestSchedulerImpl implements RequestScheduler {
+
+  private static final Logger LOGGER = LogManager.getLogger(
+      RequestSchedulerImpl.class.getCanonicalName());
+
+  private static final long INITIAL_BACKOFF_MILLIS = 1000;
+  private static final long MAX_BACKOFF_MILLIS = 32000;
+
+  private final double requestsPerSecond;
+  private final double maxTokens;
+  private final Semaphore concurrentRequests;
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private final Random random;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong throttledCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Creates a new RequestSchedulerImpl allowing the given number of requests
+   * per second and in flight, where zero means no limit, and retrying each
+   * request up to {@code maxRetries} times.
+   */
+  @Inject
+  public RequestSchedulerImpl(
+      @Named(RequestSchedulerModule.REQUESTS_PER_SECOND)
+      double requestsPerSecond,
+      @Named(RequestSchedulerModule.CONCURRENT_REQUESTS)
+      int concurrentRequests,
+      @Named(RequestSchedulerModule.MAX_RETRIES) int maxRetries) {
+    this(requestsPerSecond, concurrentRequests, maxRetries,
+        INITIAL_BACKOFF_MILLIS, new Random());
+  }
+
+  RequestSchedulerImpl(double requestsPerSecond, int concurrentRequests,
+      int maxRetries, long initialBackoffMillis, Random random) {
+    checkArgument(requestsPerSecond >= 0, "requestsPerSecond");
+    checkArgument(concurrentRequests >= 0, "concurrentRequests");
+    checkArgument(maxRetries >= 0, "maxRetries");
+    this.requestsPerSecond = requestsPerSecond;
+    this.maxTokens = Math.max(1, requestsPerSecond);
+    this.concurrentRequests = (concurrentRequests == 0)
+        ? null : new Semaphore(concurrentRequests, true);
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.random = checkNotNull(random);
+    this.tokens = maxTokens;
+    this.lastRefill = System.nanoTime();
+  }
+
+  @Override
+  public <T> T execute(Request<T> request)
+      throws IOException, ServiceException {
+    return execute(request, true);
+  }
+
+  @Override
+  public <T> T executeNonIdempotent(Request<T> request)
+      throws IOException, ServiceException {
+    return execute(request, false);
+  }
+
+  private <T> T execute(Request<T> request, boolean idempotent)
+      throws IOException, ServiceException {
+    checkNotNull(request);
+    requestCount.incrementAndGet();
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return executeOnce(request);
+      } catch (ServiceException e) {
+        if (attempt >= maxRetries || !(ServiceErrors.isRejected(e)
+            || (idempotent && ServiceErrors.isServerError(e)))) {
+          throw e;
+        }
+        long backoff = getBackoffMillis(attempt);
+        LOGGER.warn("Request rejected (" + e.getMessage() + "), retrying in "
+            + backoff + "ms.");
+        retryCount.incrementAndGet();
+        sleep(backoff);
+      }
+    }
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public long getThrottledCount() {
+    return throttledCount.get();
+  }
+
+  @Override
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  /**
+   * Waits for a token and a free slot, then sends the given request.
+   */
+  private <T> T executeOnce(Request<T> request)
+      throws IOException, ServiceException {
+    long wait = reserveToken();
+    if (wait > 0) {
+      throttledCount.incrementAndGet();
+      sleep(wait);
+    }
+    if (concurrentRequests == null) {
+      return request.execute();
+    }
+    try {
+      concurrentRequests.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a request.");
+    }
+    try {
+      return request.execute();
+    } finally {
+      concurrentRequests.release();
+    }
+  }
+
+  /**
+   * Takes a token from the bucket and returns how many milliseconds to wait
+   * before it may be used. Tokens may be taken ahead of time, so that
+   * waiting requests are let through in order.
+   */
+  private synchronized long reserveToken() {
+    if (requestsPerSecond == 0) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    tokens = Math.min(maxTokens,
+        tokens + (now - lastRefill) * requestsPerSecond / 1e9);
+    lastRefill = now;
+    tokens -= 1;
+    if (tokens >= 0) {
+      return 0;
+    }
+    return (long) Math.ceil(-tokens * 1000 / requestsPerSecond);
+  }
+
+  /**
+   * Returns how long to wait before the retry following the given attempt:
+   * between half and all of a time which doubles with each attempt.
+   */
+  private long getBackoffMillis(int attempt) {
+    long backoff = Math.min(MAX_BACKOFF_MILLIS,
+        initialBackoffMillis << Math.min(attempt, 30));
+    return backoff / 2 + (long) (random.nextDouble() * (backoff / 2 + 1));
+  }
+
+  private static void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to retry.");
+    }
+  }
+}
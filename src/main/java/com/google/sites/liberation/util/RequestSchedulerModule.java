@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+
+/**
+ * GUICE module binding the settings of the {@link RequestScheduler}, which
+ * is installed by the export and import modules.
+ */
+public class RequestSchedulerModule extends AbstractModule {
+
+  /** Name of the binding for the maximum number of requests per second. */
+  static final String REQUESTS_PER_SECOND = "requestsPerSecond";
+
+  /** Name of the binding for the maximum number of concurrent requests. */
+  static final String CONCURRENT_REQUESTS = "concurrentRequests";
+
+  /** Name of the binding for the number of times a request is retried. */
+  static final String MAX_RETRIES = "maxRetries";
+
+  private final double requestsPerSecond;
+  private final int concurrentRequests;
+  private final int maxRetries;
+
+  /**
+   * Creates a new RequestSchedulerModule. A request rate or number of
+   * concurrent requests of zero means there is no limit.
+   */
+  public RequestSchedulerModule(double requestsPerSecond,
+      int concurrentRequests, int maxRetries) {
+    checkArgument(requestsPerSecond >= 0,
+        "requestsPerSecond must not be negative");
+    checkArgument(concurrentRequests >= 0,
+        "concurrentRequests must not be negative");
+    checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+    this.requestsPerSecond = requestsPerSecond;
+    this.concurrentRequests = concurrentRequests;
+    this.maxRetries = maxRetries;
+  }
+
+  @Override
+  protected void configure() {
+    bindConstant().annotatedWith(Names.named(REQUESTS_PER_SECOND))
+        .to(requestsPerSecond);
+    bindConstant().annotatedWith(Names.named(CONCURRENT_REQUESTS))
+        .to(concurrentRequests);
+    bindConstant().annotatedWith(Names.named(MAX_RETRIES))
+        .to(maxRetries);
+  }
+}
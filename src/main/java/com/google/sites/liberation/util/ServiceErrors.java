@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import com.google.gdata.util.RateLimitExceededException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.ServiceUnavailableException;
+
+import java.util.regex.Pattern;
+
+/**
+ * Provides utility methods for telling apart the failures of requests to
+ * the server.
+ */
+public final class ServiceErrors {
+
+  /**
+   * The error codes with which the server reports a request over its rate
+   * limit or quota.
+   */
+  private static final Pattern RATE_LIMIT_REASON = Pattern.compile(
+      "\\b(?:rateLimitExceeded|userRateLimitExceeded|quotaExceeded)\\b");
+
+  private static final int[] STATUS_CODES = {429, 500, 502, 503, 504};
+  private static final String[] STATUS_MESSAGES = {"Too Many Requests",
+      "Internal Server Error", "Bad Gateway", "Service Unavailable",
+      "Gateway Timeout"};
+
+  private ServiceErrors() {
+  }
+
+  /**
+   * Returns whether the given failure means the server rejected the request
+   * without applying it, as it is over quota or briefly unavailable, so the
+   * request may succeed later.
+   */
+  public static boolean isRejected(ServiceException e) {
+    if (e instanceof RateLimitExceededException
+        || e instanceof ServiceUnavailableException) {
+      return true;
+    }
+    if (e instanceof ServiceForbiddenException) {
+      return isRateLimitReason(e.getCodeName())
+          || isRateLimitReason(e.getInternalReason())
+          || (e.getResponseBody() != null
+              && RATE_LIMIT_REASON.matcher(e.getResponseBody()).find());
+    }
+    int status = getStatus(e);
+    return status == 429 || status == 503;
+  }
+
+  /**
+   * Returns whether the given failure is a server error, after which the
+   * request may or may not have been applied.
+   */
+  public static boolean isServerError(ServiceException e) {
+    int status = getStatus(e);
+    return status == 500 || status == 502 || status == 504;
+  }
+
+  private static boolean isRateLimitReason(String reason) {
+    return reason != null && RATE_LIMIT_REASON.matcher(reason).matches();
+  }
+
+  /**
+   * Returns the HTTP status of the given failure, or -1 if it is not known.
+   * Statuses without an exception of their own are reported only by their
+   * status message.
+   */
+  private static int getStatus(ServiceException e) {
+    int code = e.getHttpErrorCodeOverride();
+    if (code != -1) {
+      return code;
+    }
+    String message = e.getMessage();
+    for (int i = 0; i < STATUS_MESSAGES.length; i++) {
+      if (STATUS_MESSAGES[i].equalsIgnoreCase(message)) {
+        return STATUS_CODES[i];
+      }
+    }
+    return -1;
+  }
+}
@@ -27,13 +27,29 @@ import org.apache.logging.log4j.LogManager;
 public class StdOutProgressListener implements ProgressListener {
 
   private static final Logger LOGGER = LogManager.getLogger(StdOutProgressListener.class.getCanonicalName());
+  private final String prefix;
   private double progress;
   private String status;
   
+  /**
+   * Creates a new StdOutProgressListener.
+   */
+  public StdOutProgressListener() {
+    this("");
+  }
+  
+  /**
+   * Creates a new StdOutProgressListener which starts every line it prints
+   * with the given prefix, to tell apart operations running at once.
+   */
+  public StdOutProgressListener(String prefix) {
+    this.prefix = prefix;
+  }
+  
   @Override
   public void setProgress(double progress) {
     this.progress = progress;
-    String progressString = "Current progress: " + (int)(progress*100) + "%.";
+    String progressString = prefix + "Current progress: " + (int)(progress*100) + "%.";
     LOGGER.info(progressString);
     System.out.println(progressString);
   }
@@ -41,8 +57,8 @@ public class StdOutProgressListener implements ProgressListener {
   @Override
   public void setStatus(String status) {
     this.status = status;
-    System.out.println(status);
-    LOGGER.info(status);
+    System.out.println(prefix + status);
+    LOGGER.info(prefix + status);
   }
 
   @Override
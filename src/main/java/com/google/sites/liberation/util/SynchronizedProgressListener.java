@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Implementation of ProgressListener that wraps another ProgressListener so
+ * that it can safely be used from several threads at once.
+ *
+ * <p>All calls are made while holding this listener's lock, so callers that
+ * need to read and then update the progress atomically can synchronize on
+ * this listener.</p>
+ */
+public class SynchronizedProgressListener implements ProgressListener {
+
+  private final ProgressListener delegate;
+  private int completedSteps;
+
+  /**
+   * Creates a new SynchronizedProgressListener that forwards to the given
+   * listener.
+   */
+  public SynchronizedProgressListener(ProgressListener delegate) {
+    this.delegate = checkNotNull(delegate);
+  }
+
+  @Override
+  public synchronized void setProgress(double progress) {
+    delegate.setProgress(progress);
+  }
+
+  @Override
+  public synchronized void setStatus(String status) {
+    delegate.setStatus(status);
+  }
+
+  @Override
+  public synchronized double getProgress() {
+    return delegate.getProgress();
+  }
+
+  @Override
+  public synchronized String getStatus() {
+    return delegate.getStatus();
+  }
+
+  /**
+   * Marks one more of the given total number of steps as complete and sets
+   * the progress accordingly. Progress reported this way never goes backwards,
+   * regardless of the order in which threads finish their steps.
+   */
+  public synchronized void completeStep(int totalSteps) {
+    delegate.setProgress(((double) ++completedSteps) / totalSteps);
+  }
+}
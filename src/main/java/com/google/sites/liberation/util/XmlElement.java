@@ -16,30 +16,33 @@
 
 package com.google.sites.liberation.util;
 
-import com.google.gdata.util.common.base.Pair;
 import com.google.gdata.util.common.base.Preconditions;
 
-import org.apache.commons.lang.StringEscapeUtils;
-
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 /**
  * A very simple implementation of an xml element to aid
  * in generating well formed xhtml pages.
  * 
+ * <p>Children and attributes are kept in arrays which grow as needed, and 
+ * text is only escaped as it is appended, straight to the output.</p>
+ * 
  * @author bsimon@google.com (Benjamin Simon)
  */
 public class XmlElement {
-	
+  
+  private static final byte ELEMENT = 0;
+  private static final byte TEXT = 1;
+  private static final byte XML = 2;
+  private static final int INITIAL_CAPACITY = 4;
+  
   private final String elementType;
-  private final List<Pair<Object, ChildType>> children;
-  private final Map<String, String> attributes;
-
-  private static enum ChildType { ELEMENT, TEXT, XML }
+  private Object[] children;
+  private byte[] childTypes;
+  private int childCount;
+  private String[] attributes;
+  private int attributeCount;
   
   /**
    * Creates a new {@code XmlElement} of the given type.
@@ -49,8 +52,6 @@ public class XmlElement {
   public XmlElement(String elementType) {
     Preconditions.checkNotNull(elementType);
     this.elementType = elementType;
-    children = new LinkedList<Pair<Object, ChildType>>();
-    attributes = new TreeMap<String, String>();
   }
 	
   /**
@@ -61,7 +62,7 @@ public class XmlElement {
    */
   public XmlElement addElement(XmlElement child) {
     Preconditions.checkNotNull(child);
-    children.add(new Pair<Object, ChildType>(child, ChildType.ELEMENT));
+    addChild(child, ELEMENT);
     return this;
   }
   
@@ -74,8 +75,7 @@ public class XmlElement {
    */
   public XmlElement addText(String text) {
     Preconditions.checkNotNull(text);
-    children.add(new Pair<Object, ChildType>(StringEscapeUtils.escapeXml(text),
-        ChildType.TEXT));
+    addChild(text, TEXT);
     return this;
   }
   
@@ -88,7 +88,7 @@ public class XmlElement {
    */
   public XmlElement addXml(String xml) {
     Preconditions.checkNotNull(xml);
-    children.add(new Pair<Object, ChildType>(xml, ChildType.XML));
+    addChild(xml, XML);
     return this;
   }
   
@@ -100,7 +100,30 @@ public class XmlElement {
   public XmlElement setAttribute(String name, String value) {
     Preconditions.checkNotNull(name, "name");
     Preconditions.checkNotNull(value, "value");
-    attributes.put(name, StringEscapeUtils.escapeXml(value));
+    int low = 0;
+    int high = attributeCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = attributes[2 * middle].compareTo(name);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        attributes[2 * middle + 1] = value;
+        return this;
+      }
+    }
+    if (attributes == null) {
+      attributes = new String[2 * INITIAL_CAPACITY];
+    } else if (2 * attributeCount == attributes.length) {
+      attributes = Arrays.copyOf(attributes, 2 * attributes.length);
+    }
+    System.arraycopy(attributes, 2 * low, attributes, 2 * low + 2, 
+        2 * (attributeCount - low));
+    attributes[2 * low] = name;
+    attributes[2 * low + 1] = value;
+    attributeCount++;
     return this;
   }
   
@@ -109,21 +132,26 @@ public class XmlElement {
    */
   public void appendTo(Appendable a) throws IOException {
     a.append('<').append(elementType);
-    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
-      a.append(' ').append(attribute.getKey()).append("=\"")
-          .append(attribute.getValue()).append("\"");
+    for (int i = 0; i < attributeCount; i++) {
+      a.append(' ').append(attributes[2 * i]).append("=\"");
+      XmlWriter.escape(attributes[2 * i + 1], a);
+      a.append('"');
     }
-    if (children.isEmpty()) {
+    if (childCount == 0) {
       a.append(" />");
     } else {
-      a.append(">");
-      for (Pair<Object, ChildType> pair : children) {
-        Object child = pair.getFirst();
-        ChildType type = pair.getSecond();
-        if (type == ChildType.ELEMENT) {
-          ((XmlElement)child).appendTo(a);
-        } else {
-          a.append((String)child);
+      a.append('>');
+      for (int i = 0; i < childCount; i++) {
+        switch (childTypes[i]) {
+          case ELEMENT:
+            ((XmlElement) children[i]).appendTo(a);
+            break;
+          case TEXT:
+            XmlWriter.escape((String) children[i], a);
+            break;
+          default:
+            a.append((String) children[i]);
+            break;
         }
       }
       a.append("</").append(elementType).append('>');
@@ -144,11 +172,60 @@ public class XmlElement {
     return builder.toString();
   }
   
+  /**
+   * Returns whether the given object is an XmlElement of the same type, with
+   * the same attributes and the same children added in the same way.
+   */
   @Override
   public boolean equals(Object other) {
-    if (other instanceof XmlElement) {
-      return toString().equals(other.toString());
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof XmlElement)) {
+      return false;
+    }
+    XmlElement element = (XmlElement) other;
+    if (!elementType.equals(element.elementType) 
+        || attributeCount != element.attributeCount
+        || childCount != element.childCount) {
+      return false;
+    }
+    for (int i = 0; i < 2 * attributeCount; i++) {
+      if (!attributes[i].equals(element.attributes[i])) {
+        return false;
+      }
+    }
+    for (int i = 0; i < childCount; i++) {
+      if (childTypes[i] != element.childTypes[i] 
+          || !children[i].equals(element.children[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  @Override
+  public int hashCode() {
+    int hash = elementType.hashCode();
+    for (int i = 0; i < 2 * attributeCount; i++) {
+      hash = 31 * hash + attributes[i].hashCode();
+    }
+    for (int i = 0; i < childCount; i++) {
+      hash = 31 * (31 * hash + childTypes[i]) + children[i].hashCode();
+    }
+    return hash;
+  }
+  
+  private void addChild(Object child, byte type) {
+    if (children == null) {
+      children = new Object[INITIAL_CAPACITY];
+      childTypes = new byte[INITIAL_CAPACITY];
+    } else if (childCount == children.length) {
+      children = Arrays.copyOf(children, 2 * childCount);
+      childTypes = Arrays.copyOf(childTypes, 2 * childCount);
     }
-    return false;
+    children[childCount] = child;
+    childTypes[childCount] = type;
+    childCount++;
   }
 }
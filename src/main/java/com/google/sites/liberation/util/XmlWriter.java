@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import com.google.gdata.util.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes well formed xhtml straight to an {@code Appendable}, one element at a
+ * time, so that a page never has to be held in memory as a whole.
+ * 
+ * <p>Elements are opened with {@link #start} and closed with {@link #end}.
+ * Attributes may be written with {@link #attr} until the first child of the
+ * element is written, and appear in the order in which they are written. The
+ * output is the same as that of an {@link XmlElement} with the same children
+ * and attributes, written in alphabetical order.</p>
+ */
+public final class XmlWriter {
+
+  private final Appendable out;
+  private final List<String> open;
+  private boolean inStartTag;
+  
+  /**
+   * Creates a new {@code XmlWriter} which writes to the given Appendable.
+   */
+  public XmlWriter(Appendable out) {
+    this.out = Preconditions.checkNotNull(out);
+    this.open = new ArrayList<String>();
+    this.inStartTag = false;
+  }
+  
+  /**
+   * Opens a new element of the given type as a child of the current element.
+   */
+  public XmlWriter start(String elementType) throws IOException {
+    Preconditions.checkNotNull(elementType);
+    closeStartTag();
+    out.append('<').append(elementType);
+    open.add(elementType);
+    inStartTag = true;
+    return this;
+  }
+  
+  /**
+   * Writes an attribute of the element which has just been started. The 
+   * value is converted to xml-safe characters.
+   */
+  public XmlWriter attr(String name, String value) throws IOException {
+    Preconditions.checkNotNull(name, "name");
+    Preconditions.checkNotNull(value, "value");
+    Preconditions.checkState(inStartTag, 
+        "Attributes must be written before any children.");
+    out.append(' ').append(name).append("=\"");
+    escape(value, out);
+    out.append('"');
+    return this;
+  }
+  
+  /**
+   * Writes plain text as a child of the current element. The text is 
+   * converted to xml-safe characters.
+   */
+  public XmlWriter text(String text) throws IOException {
+    Preconditions.checkNotNull(text);
+    closeStartTag();
+    escape(text, out);
+    return this;
+  }
+  
+  /**
+   * Writes a string of xml as a child of the current element, without 
+   * escaping it.
+   */
+  public XmlWriter xml(String xml) throws IOException {
+    Preconditions.checkNotNull(xml);
+    closeStartTag();
+    out.append(xml);
+    return this;
+  }
+  
+  /**
+   * Writes the given element as a child of the current element.
+   */
+  public XmlWriter element(XmlElement element) throws IOException {
+    Preconditions.checkNotNull(element);
+    closeStartTag();
+    element.appendTo(out);
+    return this;
+  }
+  
+  /**
+   * Closes the current element.
+   */
+  public XmlWriter end() throws IOException {
+    Preconditions.checkState(!open.isEmpty(), "No element to end.");
+    String elementType = open.remove(open.size() - 1);
+    if (inStartTag) {
+      out.append(" />");
+      inStartTag = false;
+    } else {
+      out.append("</").append(elementType).append('>');
+    }
+    return this;
+  }
+  
+  /**
+   * Closes every element which is still open.
+   */
+  public void endAll() throws IOException {
+    while (!open.isEmpty()) {
+      end();
+    }
+  }
+  
+  private void closeStartTag() throws IOException {
+    if (inStartTag) {
+      out.append('>');
+      inStartTag = false;
+    }
+  }
+  
+  /**
+   * Appends the given text to the given Appendable, escaped in the same way 
+   * as {@code StringEscapeUtils.escapeXml}: the five xml entities are named, 
+   * and every other character outside of ASCII is written as a numeric 
+   * character reference.
+   */
+  static void escape(CharSequence text, Appendable out) throws IOException {
+    int length = text.length();
+    int copied = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      String entity;
+      switch (c) {
+        case '&': entity = "&amp;"; break;
+        case '<': entity = "&lt;"; break;
+        case '>': entity = "&gt;"; break;
+        case '"': entity = "&quot;"; break;
+        case '\'': entity = "&apos;"; break;
+        default: entity = (c > 0x7F) ? "&#" + (int) c + ";" : null; break;
+      }
+      if (entity != null) {
+        out.append(text, copied, i).append(entity);
+        copied = i + 1;
+      }
+    }
+    out.append(text, copied, length);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of absolute links on link-heavy pages. Run with 
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main AbsoluteLinkConverter}
+ * after {@code mvn test-compile}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AbsoluteLinkConverterBenchmark {
+
+  private static final String URL = "https://sites.google.com/a/domain/site";
+  
+  @Param({"10", "100", "1000"})
+  public int links;
+  
+  private String content;
+  
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder("<div>");
+    for (int i = 0; i < links; i++) {
+      builder.append("<p>Some text before link ").append(i).append(". ");
+      if (i % 2 == 0) {
+        builder.append("<a href=\"").append(URL).append("/page-").append(i)
+            .append("/subpage\">page ").append(i).append("</a>");
+      } else {
+        builder.append("<a href='").append(URL).append("/page-").append(i)
+            .append("'>page ").append(i).append("</a>");
+      }
+      if (i % 5 == 0) {
+        builder.append(" and <a href=\"http://example.com/").append(i)
+            .append("\">elsewhere</a>");
+      }
+      builder.append("</p>");
+    }
+    content = builder.append("</div>").toString();
+  }
+  
+  @Benchmark
+  public String convertLinks() {
+    return AbsoluteLinkConverterImpl.convertLinks(content, URL, "../../");
+  }
+}
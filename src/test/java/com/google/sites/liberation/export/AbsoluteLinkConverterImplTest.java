@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Random;
+
+public class AbsoluteLinkConverterImplTest {
+
+  private static final String URL = "https://sites.google.com/a/domain/site";
+  
+  @Test
+  public void testConvertLinks() throws Exception {
+    EntryStore entryStore = new InMemoryEntryStore();
+    BasePageEntry<?> parent = new WebPageEntry();
+    parent.setId("parent");
+    parent.setPageName(new PageName("parent"));
+    BasePageEntry<?> page = new WebPageEntry();
+    page.setId("page");
+    page.setPageName(new PageName("page"));
+    EntryUtils.setParentId(page, "parent");
+    EntryUtils.setContent(page, "<div><a href=\"" + URL + "/home\">a</a>"
+        + "<a href='" + URL + "/parent/page'>b</a>"
+        + "<a href=\"http://elsewhere.com/x\">c</a></div>");
+    entryStore.addEntry(parent);
+    entryStore.addEntry(page);
+    new AbsoluteLinkConverterImpl().convertLinks(page, entryStore, 
+        new URL(URL), true);
+    assertEquals("<div><a href=\"../../../home/index.html\">a</a>"
+        + "<a href='../../../parent/page/index.html'>b</a>"
+        + "<a href=\"http://elsewhere.com/x\">c</a></div>",
+        EntryUtils.getXhtmlContent(page));
+  }
+  
+  @Test
+  public void testSameAsRepeatedSearch() {
+    Random random = new Random(42);
+    String[] pieces = { "<a href=\"" + URL + "/page\">", 
+        "<a href='" + URL + "/a/b'>", "<a href=\"" + URL + "/\">", 
+        "<a href='\"" + URL + "/x\"'>", "<a href=\"http://other/\">", 
+        "</a>", "href=", "text", URL };
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder content = new StringBuilder();
+      int length = random.nextInt(30);
+      for (int j = 0; j < length; j++) {
+        content.append(pieces[random.nextInt(pieces.length)]);
+      }
+      String expected;
+      try {
+        expected = convertByRepeatedSearch(content.toString(), "../");
+      } catch (StringIndexOutOfBoundsException e) {
+        continue;
+      }
+      assertEquals(expected, AbsoluteLinkConverterImpl.convertLinks(
+          content.toString(), URL, "../"));
+    }
+  }
+  
+  /**
+   * The previous implementation, which searched the whole content again 
+   * after each replacement, for each kind of quote in turn.
+   */
+  private String convertByRepeatedSearch(String content, String siteRoot) {
+    content = convertByRepeatedSearch(content, siteRoot, "href=\"", "\"");
+    return convertByRepeatedSearch(content, siteRoot, "href='", "'");
+  }
+  
+  private String convertByRepeatedSearch(String content, String siteRoot,
+      String prefix, String suffix) {
+    int index = content.indexOf(prefix + URL);
+    while (index != -1) {
+      int startIndex = index + prefix.length();
+      int endIndex = content.indexOf(suffix, startIndex + 1);
+      String beforeLink = content.substring(0, startIndex);
+      String link = content.substring(startIndex + URL.length() + 1, endIndex);
+      String afterLink = content.substring(endIndex);
+      content = beforeLink + siteRoot + link + "/index.html" + afterLink;
+      index = content.indexOf(prefix + URL);
+    }
+    return content;
+  }
+}
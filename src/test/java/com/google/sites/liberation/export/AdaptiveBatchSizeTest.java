@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AdaptiveBatchSizeTest {
+
+  @Test
+  public void testGrowsWhileFast() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(20, 5, 100, 1000);
+    assertEquals(20, batchSize.nextSize());
+    batchSize.recordSuccess(20, 20, 100);
+    assertEquals(40, batchSize.nextSize());
+    batchSize.recordSuccess(40, 40, 100);
+    assertEquals(80, batchSize.nextSize());
+    batchSize.recordSuccess(80, 80, 100);
+    assertEquals(100, batchSize.nextSize());
+  }
+  
+  @Test
+  public void testDoesNotGrowOnShortResponse() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(20, 5, 100, 1000);
+    batchSize.recordSuccess(20, 12, 100);
+    assertEquals(20, batchSize.nextSize());
+  }
+  
+  @Test
+  public void testShrinksWhenSlowOrFailing() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(40, 5, 100, 1000);
+    batchSize.recordSuccess(40, 40, 5000);
+    assertEquals(20, batchSize.nextSize());
+    batchSize.recordFailure(20, 10);
+    assertEquals(10, batchSize.nextSize());
+    batchSize.recordFailure(10, 10);
+    assertEquals(5, batchSize.nextSize());
+    batchSize.recordFailure(5, 10);
+    assertEquals(5, batchSize.nextSize());
+  }
+  
+  @Test
+  public void testFixed() {
+    AdaptiveBatchSize batchSize = AdaptiveBatchSize.fixed(20);
+    batchSize.recordSuccess(20, 20, 1);
+    assertEquals(20, batchSize.nextSize());
+    batchSize.recordFailure(20, 1);
+    assertEquals(20, batchSize.nextSize());
+  }
+}
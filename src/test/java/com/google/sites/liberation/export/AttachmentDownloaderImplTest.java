@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.MediaContent;
+import com.google.gdata.data.OutOfLineContent;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.media.MediaSource;
+import com.google.gdata.data.sites.AttachmentEntry;
+import com.google.gdata.util.ServiceException;
+import com.google.sites.liberation.util.RequestScheduler;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+public class AttachmentDownloaderImplTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Mockery context;
+  private SitesService sitesService;
+  private MediaSource mediaSource;
+  private AttachmentDownloader downloader;
+  private AttachmentEntry attachment;
+  private File file;
+
+  @Before
+  public void before() throws IOException {
+    context = new JUnit4Mockery() {{
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }};
+    sitesService = context.mock(SitesService.class);
+    mediaSource = context.mock(MediaSource.class);
+    downloader = new AttachmentDownloaderImpl(new DirectScheduler());
+    attachment = new AttachmentEntry();
+    attachment.setTitle(new PlainTextConstruct("file.txt"));
+    OutOfLineContent content = new OutOfLineContent();
+    content.setUri("https://host/file.txt");
+    attachment.setContent(content);
+    file = new File(folder.getRoot(), "file.txt");
+  }
+
+  @Test
+  public void testDownload() throws IOException, ServiceException {
+    context.checking(new Expectations() {{
+      oneOf (sitesService).getMedia(with(any(MediaContent.class)));
+          will(returnValue(mediaSource));
+      oneOf (mediaSource).getInputStream();
+          will(returnValue(new ByteArrayInputStream(bytes("contents"))));
+    }});
+    assertTrue(downloader.download(attachment, file, sitesService));
+    assertEquals("contents", Files.toString(file, Charsets.UTF_8));
+  }
+
+  @Test
+  public void testFailedDownloadLeavesNoFile() 
+      throws IOException, ServiceException {
+    final InputStream in = new SequenceInputStream(
+        new ByteArrayInputStream(bytes("the first half")), new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("Connection reset");
+          }
+        });
+    context.checking(new Expectations() {{
+      oneOf (sitesService).getMedia(with(any(MediaContent.class)));
+          will(returnValue(mediaSource));
+      oneOf (mediaSource).getInputStream(); will(returnValue(in));
+    }});
+    assertFalse(downloader.download(attachment, file, sitesService));
+    assertFalse(file.exists());
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * Sends each request straight away, once.
+   */
+  private static class DirectScheduler implements RequestScheduler {
+
+    @Override
+    public <T> T execute(Request<T> request) 
+        throws IOException, ServiceException {
+      return request.execute();
+    }
+
+    @Override
+    public <T> T executeNonIdempotent(Request<T> request)
+        throws IOException, ServiceException {
+      return request.execute();
+    }
+
+    @Override
+    public long getRequestCount() {
+      return 0;
+    }
+
+    @Override
+    public long getThrottledCount() {
+      return 0;
+    }
+
+    @Override
+    public long getRetryCount() {
+      return 0;
+    }
+  }
+}
@@ -23,9 +23,11 @@ import com.google.gdata.client.Query;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.WebPageEntry;
+import com.google.gdata.util.ParseException;
 import com.google.gdata.util.ServiceException;
 import com.google.sites.liberation.util.EntryProvider;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -33,7 +35,11 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author bsimon@google.com (Ben Simon)
@@ -42,13 +48,22 @@ public class ContinuousContentFeedTest {
   
   private URL url;
   private SitesService sitesService;
+  private ExecutorService executor;
   private final BaseContentEntry<?> serviceExceptionEntry = new WebPageEntry();
+  private final BaseContentEntry<?> parseExceptionEntry = new WebPageEntry();
   private final BaseContentEntry<?> ioExceptionEntry = new WebPageEntry();
+  private final BaseContentEntry<?> serverErrorEntry = new WebPageEntry();
   
   @Before
   public void initUrl() throws MalformedURLException {
     url = new URL("http://test.com");
     sitesService = new SitesService("");
+    executor = Executors.newCachedThreadPool();
+  }
+  
+  @After
+  public void shutDownExecutor() {
+    executor.shutdownNow();
   }
   
   @Test
@@ -79,15 +94,15 @@ public class ContinuousContentFeedTest {
     addNormalEntries(entries, 16);
     addServiceExceptions(entries, 2);
     addNormalEntries(entries, 5);
-    addIoExceptions(entries, 1);
+    addParseExceptions(entries, 1);
     addNormalEntries(entries, 4);
-    addIoExceptions(entries, 3);
+    addParseExceptions(entries, 3);
     EntryProvider entryProvider = new FakeEntryDownloader(entries, 5);
     ContinuousContentFeed feed = 
         new ContinuousContentFeed(url, entryProvider, sitesService, 4);
     List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
     while(entries.remove(serviceExceptionEntry)) {}
-    while(entries.remove(ioExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
     assertEquals(entries, newEntries);
   }
   
@@ -106,10 +121,10 @@ public class ContinuousContentFeedTest {
   public void testServerLimitsWithExceptions() {
     List<BaseContentEntry<?>> entries = Lists.newArrayList();
     addNormalEntries(entries, 8);
-    addIoExceptions(entries, 1);
+    addParseExceptions(entries, 1);
     addServiceExceptions(entries, 2);
     addNormalEntries(entries, 16);
-    addIoExceptions(entries, 3);
+    addParseExceptions(entries, 3);
     addServiceExceptions(entries, 1);
     addNormalEntries(entries, 20);
     EntryProvider entryProvider = new FakeEntryDownloader(entries, 5);
@@ -117,7 +132,7 @@ public class ContinuousContentFeedTest {
         new ContinuousContentFeed(url, entryProvider, sitesService, 8);
     List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
     while(entries.remove(serviceExceptionEntry)) {}
-    while(entries.remove(ioExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
     assertEquals(entries, newEntries);
   }
   
@@ -130,12 +145,13 @@ public class ContinuousContentFeedTest {
         new ContinuousContentFeed(url, entryProvider, sitesService, 100);
     List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
     assertEquals(entries, newEntries);
+    assertTrue(feed.isComplete());
   }
   
   @Test
   public void testNothingLimitsWithExceptions() {
     List<BaseContentEntry<?>> entries = Lists.newArrayList();
-    addIoExceptions(entries, 4);
+    addParseExceptions(entries, 4);
     addNormalEntries(entries, 21);
     addServiceExceptions(entries, 1);
     addNormalEntries(entries, 20);
@@ -146,7 +162,164 @@ public class ContinuousContentFeedTest {
         new ContinuousContentFeed(url, entryProvider, sitesService, 100);
     List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
     while(entries.remove(serviceExceptionEntry)) {}
-    while(entries.remove(ioExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
+    assertEquals(entries, newEntries);
+    assertFalse(feed.isComplete());
+  }
+  
+  @Test
+  public void testPrefetchedServerLimitsNumPerRequest() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 45);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 5);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, 7, 
+            executor, 3);
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
+    assertEquals(entries, newEntries);
+  }
+  
+  @Test
+  public void testPrefetchedExactMultipleOfRequestSize() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 24);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 100);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, 8, 
+            executor, 4);
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
+    assertEquals(entries, newEntries);
+  }
+  
+  @Test
+  public void testPrefetchedWithExceptions() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 8);
+    addParseExceptions(entries, 1);
+    addServiceExceptions(entries, 2);
+    addNormalEntries(entries, 16);
+    addParseExceptions(entries, 3);
+    addServiceExceptions(entries, 1);
+    addNormalEntries(entries, 20);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 5);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, 8, 
+            executor, 3);
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
+    while(entries.remove(serviceExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
+    assertEquals(entries, newEntries);
+  }
+  
+  @Test
+  public void testFailedRangesDoNotEndFeed() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 5);
+    addServiceExceptions(entries, 12);
+    addNormalEntries(entries, 3);
+    addParseExceptions(entries, 6);
+    addNormalEntries(entries, 9);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 100);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, 5);
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
+    while(entries.remove(serviceExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
+    assertEquals(entries, newEntries);
+  }
+  
+  @Test
+  public void testPrefetchedFailedRangesDoNotEndFeed() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 5);
+    addServiceExceptions(entries, 12);
+    addNormalEntries(entries, 3);
+    addParseExceptions(entries, 6);
+    addNormalEntries(entries, 9);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 100);
+    ContinuousContentFeed feed = new ContinuousContentFeed(url, 
+        entryProvider, sitesService, 5, executor, 3);
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
+    while(entries.remove(serviceExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
+    assertEquals(entries, newEntries);
+  }
+  
+  @Test
+  public void testFeedEndsWhenEveryRequestFails() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addServiceExceptions(entries, 1000);
+    addNormalEntries(entries, 1);
+    FakeEntryDownloader entryProvider = new FakeEntryDownloader(entries, 100);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, 5);
+    assertTrue(Lists.newArrayList(feed).isEmpty());
+    assertFalse(feed.isComplete());
+    assertEquals(100, entryProvider.requests.get());
+  }
+  
+  @Test
+  public void testIoExceptionEndsFeed() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 10);
+    entries.add(ioExceptionEntry);
+    addNormalEntries(entries, 20);
+    FakeEntryDownloader entryProvider = new FakeEntryDownloader(entries, 100);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, 5);
+    assertEquals(entries.subList(0, 10), Lists.newArrayList(feed));
+    assertFalse(feed.isComplete());
+    assertEquals(3, entryProvider.requests.get());
+  }
+  
+  @Test
+  public void testServerErrorEndsFeed() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 10);
+    entries.add(serverErrorEntry);
+    addNormalEntries(entries, 20);
+    FakeEntryDownloader entryProvider = new FakeEntryDownloader(entries, 100);
+    ContinuousContentFeed feed = new ContinuousContentFeed(url, 
+        entryProvider, sitesService, 5, executor, 3);
+    assertEquals(entries.subList(0, 10), Lists.newArrayList(feed));
+    assertFalse(feed.isComplete());
+  }
+  
+  @Test
+  public void testPrefetchedFeedsShareExecutor() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 40);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 100);
+    ExecutorService sharedExecutor = Executors.newFixedThreadPool(2);
+    try {
+      ContinuousContentFeed feed = new ContinuousContentFeed(url, 
+          entryProvider, sitesService, 5, sharedExecutor, 3);
+      // Abandons an iterator part way through, leaving queries in flight.
+      Iterator<BaseContentEntry<?>> abandoned = feed.iterator();
+      assertEquals(entries.get(0), abandoned.next());
+      assertEquals(entries, Lists.newArrayList(feed));
+      assertEquals(entries, Lists.newArrayList(feed));
+    } finally {
+      sharedExecutor.shutdownNow();
+    }
+  }
+  
+  @Test
+  public void testAdaptiveWithExceptions() {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    addNormalEntries(entries, 30);
+    addServiceExceptions(entries, 2);
+    addNormalEntries(entries, 50);
+    addParseExceptions(entries, 1);
+    addNormalEntries(entries, 7);
+    EntryProvider entryProvider = new FakeEntryDownloader(entries, 100);
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(4, 2, 64, 60000);
+    ContinuousContentFeed feed = 
+        new ContinuousContentFeed(url, entryProvider, sitesService, batchSize, 
+            executor, 2, 1);
+    List<BaseContentEntry<?>> newEntries = Lists.newArrayList(feed);
+    while(entries.remove(serviceExceptionEntry)) {}
+    while(entries.remove(parseExceptionEntry)) {}
     assertEquals(entries, newEntries);
   }
   
@@ -162,9 +335,9 @@ public class ContinuousContentFeedTest {
     }
   }
   
-  private void addIoExceptions(List<BaseContentEntry<?>> entries, int num) {
+  private void addParseExceptions(List<BaseContentEntry<?>> entries, int num) {
     for(int i = 0; i < num; i++) {
-      entries.add(ioExceptionEntry);
+      entries.add(parseExceptionEntry);
     }
   }
   
@@ -172,6 +345,7 @@ public class ContinuousContentFeedTest {
     
     private final int maxResultsPerRequest;
     private final List<BaseContentEntry<?>> entries;
+    final AtomicInteger requests = new AtomicInteger();
     
     FakeEntryDownloader(List<BaseContentEntry<?>> entries, int maxResultsPerRequest) {
       this.maxResultsPerRequest = maxResultsPerRequest;
@@ -180,6 +354,7 @@ public class ContinuousContentFeedTest {
     
     public List<BaseContentEntry<?>> getEntries(Query query, SitesService sitesService) 
         throws ServiceException, IOException {
+      requests.incrementAndGet();
       int fromIndex = query.getStartIndex() - 1;
       int max = Math.min(maxResultsPerRequest, query.getMaxResults());
       int toIndex = Math.min(fromIndex + max, entries.size());
@@ -190,9 +365,15 @@ public class ContinuousContentFeedTest {
       if (response.contains(serviceExceptionEntry)) {
         throw new ServiceException("Error");
       }
+      if (response.contains(parseExceptionEntry)) {
+        throw new ParseException("Error");
+      }
       if (response.contains(ioExceptionEntry)) {
         throw new IOException("Error");
       }
+      if (response.contains(serverErrorEntry)) {
+        throw new ServiceException("Internal Server Error");
+      }
       return response;
     }
   }
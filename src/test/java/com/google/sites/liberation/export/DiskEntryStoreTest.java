@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.sites.AttachmentEntry;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+public class DiskEntryStoreTest {
+
+  private static final String ID = 
+      "https://sites.google.com/feeds/content/domain/webspace/";
+  
+  private DiskEntryStore entryStore;
+  
+  @Before
+  public void setUp() throws IOException {
+    entryStore = new DiskEntryStore(
+        new File(System.getProperty("java.io.tmpdir")),
+        new SitesService("").getExtensionProfile());
+  }
+  
+  @After
+  public void tearDown() throws IOException {
+    entryStore.close();
+  }
+  
+  @Test
+  public void testGetEntry() {
+    assertNull(entryStore.getEntry(ID + "entry1"));
+    entryStore.addEntry(getNewEntry(ID + "entry1", null, "Entry 1"));
+    entryStore.addEntry(getNewEntry(ID + "entry2", ID + "entry1", "Entry 2"));
+    BaseContentEntry<?> entry1 = entryStore.getEntry(ID + "entry1");
+    assertTrue(entry1 instanceof WebPageEntry);
+    assertEquals(ID + "entry1", entry1.getId());
+    assertEquals("Entry 1", entry1.getTitle().getPlainText());
+    assertEquals("Entry 1", 
+        ((BasePageEntry<?>) entry1).getPageName().getValue());
+    BaseContentEntry<?> entry2 = entryStore.getEntry(ID + "entry2");
+    assertEquals("Entry 2", entry2.getTitle().getPlainText());
+    assertEquals(ID + "entry1", EntryUtils.getParentId(entry2));
+    assertNull(entryStore.getEntry(ID + "entry3"));
+  }
+  
+  @Test
+  public void testGetChildrenAndParent() {
+    assertTrue(entryStore.getChildren(ID + "entry1").isEmpty());
+    entryStore.addEntry(getNewEntry(ID + "entry1", null, "Entry 1"));
+    entryStore.addEntry(getNewEntry(ID + "entry2", ID + "entry1", "Entry 2"));
+    entryStore.addEntry(getNewEntry(ID + "entry3", ID + "entry1", "Entry 3"));
+    AttachmentEntry attachment = new AttachmentEntry();
+    attachment.setId(ID + "entry4");
+    attachment.setTitle(new PlainTextConstruct("file.txt"));
+    EntryUtils.setParentId(attachment, ID + "entry2");
+    entryStore.addEntry(attachment);
+    Collection<BaseContentEntry<?>> children1 = entryStore.getChildren(ID + "entry1");
+    assertEquals(2, children1.size());
+    Collection<BaseContentEntry<?>> children2 = entryStore.getChildren(ID + "entry2");
+    assertEquals(1, children2.size());
+    assertTrue(children2.iterator().next() instanceof AttachmentEntry);
+    assertEquals(Arrays.asList(ID + "entry2", ID + "entry3"), 
+        entryStore.getChildPageIds(ID + "entry1"));
+    assertTrue(entryStore.getChildPageIds(ID + "entry2").isEmpty());
+    assertEquals(ID + "entry1", entryStore.getParent(ID + "entry2").getId());
+    assertEquals(ID + "entry2", entryStore.getParent(ID + "entry4").getId());
+    assertNull(entryStore.getParent(ID + "entry1"));
+    assertEquals(1, entryStore.getTopLevelEntries().size());
+    assertEquals(ID + "entry1", 
+        entryStore.getTopLevelEntries().iterator().next().getId());
+  }
+  
+  private BaseContentEntry<?> getNewEntry(String id, String parentId,
+      String title) {
+    WebPageEntry entry = new WebPageEntry();
+    entry.setId(id);
+    if (parentId != null) {
+      EntryUtils.setParentId(entry, parentId);
+    }
+    entry.setTitle(new PlainTextConstruct(title));
+    entry.setPageName(new PageName(title));
+    return entry;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.ExtensionProfile;
+import com.google.gdata.data.ILink;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.sites.AttachmentEntry;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.SitesLink;
+import com.google.gdata.data.sites.WebPageEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+public class ExportCheckpointTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ExtensionProfile extensionProfile;
+  private File rootDirectory;
+  private WebPageEntry page;
+  private AttachmentEntry attachment;
+
+  @Before
+  public void before() throws IOException {
+    extensionProfile = new SitesService("").getExtensionProfile();
+    rootDirectory = folder.newFolder("site");
+    page = new WebPageEntry();
+    page.setId("1");
+    page.setTitle(new PlainTextConstruct("Page 1"));
+    page.setPageName(new PageName("Page-1"));
+    attachment = new AttachmentEntry();
+    attachment.setId("2");
+    attachment.setTitle(new PlainTextConstruct("file.txt"));
+    attachment.addLink(SitesLink.Rel.PARENT, ILink.Type.ATOM,
+        "https://sites.google.com/feeds/content/domain/webspace/1");
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    ExportCheckpoint checkpoint = open(true);
+    checkpoint.entryFetched(page);
+    checkpoint.entryFetched(attachment);
+    checkpoint.feedRead(21);
+    checkpoint.pageDone("1");
+    checkpoint.revisionsDone("1");
+    checkpoint.attachmentDone("2", 1234);
+    checkpoint.close();
+    assertTrue(ExportCheckpoint.exists(rootDirectory));
+
+    checkpoint = open(true);
+    List<BaseContentEntry<?>> entries = checkpoint.getEntries();
+    assertEquals(2, entries.size());
+    assertTrue(entries.get(0) instanceof WebPageEntry);
+    assertEquals("Page-1",
+        ((WebPageEntry) entries.get(0)).getPageName().getValue());
+    assertTrue(entries.get(1) instanceof AttachmentEntry);
+    assertTrue(checkpoint.hasEntry("2"));
+    assertEquals(21, checkpoint.getStartIndex());
+    assertFalse(checkpoint.isFeedComplete());
+    assertTrue(checkpoint.isPageDone("1"));
+    assertTrue(checkpoint.isRevisionsDone("1"));
+    assertEquals(1234, checkpoint.getAttachmentChecksum("2"));
+    assertEquals(ExportManifest.NO_CHECKSUM,
+        checkpoint.getAttachmentChecksum("1"));
+    checkpoint.feedComplete();
+    checkpoint.close();
+
+    checkpoint = open(true);
+    assertTrue(checkpoint.isFeedComplete());
+    assertEquals(2, checkpoint.getEntries().size());
+    checkpoint.delete();
+    assertFalse(ExportCheckpoint.exists(rootDirectory));
+  }
+
+  @Test
+  public void testIgnoresTruncatedRecord() throws IOException {
+    ExportCheckpoint checkpoint = open(false);
+    checkpoint.pageDone("1");
+    checkpoint.close();
+    Writer out = new FileWriter(
+        new File(rootDirectory, ExportCheckpoint.FILE_NAME), true);
+    out.write("E\tcom.google.gdata.data.sites.WebPageEntry\t%3Cent");
+    out.close();
+
+    checkpoint = open(true);
+    assertTrue(checkpoint.isPageDone("1"));
+    assertTrue(checkpoint.getEntries().isEmpty());
+    checkpoint.pageDone("3");
+    checkpoint.close();
+
+    checkpoint = open(true);
+    assertTrue(checkpoint.isPageDone("1"));
+    assertTrue(checkpoint.isPageDone("3"));
+    checkpoint.close();
+  }
+
+  @Test
+  public void testStartsOver() throws IOException {
+    ExportCheckpoint checkpoint = open(false);
+    checkpoint.entryFetched(page);
+    checkpoint.pageDone("1");
+    checkpoint.close();
+
+    checkpoint = ExportCheckpoint.open(rootDirectory, true, true,
+        extensionProfile);
+    assertFalse(checkpoint.isPageDone("1"));
+    checkpoint.close();
+
+    checkpoint = open(false);
+    assertTrue(checkpoint.getEntries().isEmpty());
+    assertEquals(1, checkpoint.getStartIndex());
+    checkpoint.close();
+  }
+
+  @Test
+  public void testDisabled() throws IOException {
+    ExportCheckpoint checkpoint = open(false);
+    checkpoint.pageDone("1");
+    checkpoint.close();
+
+    checkpoint = ExportCheckpoint.disabled(rootDirectory);
+    assertFalse(ExportCheckpoint.exists(rootDirectory));
+    assertFalse(checkpoint.isPageDone("1"));
+    checkpoint.entryFetched(page);
+    checkpoint.feedRead(21);
+    checkpoint.pageDone("1");
+    checkpoint.attachmentDone("2", 1234);
+    assertFalse(checkpoint.hasEntry("1"));
+    checkpoint.close();
+    assertFalse(ExportCheckpoint.exists(rootDirectory));
+  }
+
+  private ExportCheckpoint open(boolean resume) throws IOException {
+    return ExportCheckpoint.open(rootDirectory, false, resume,
+        extensionProfile);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.ListPageEntry;
+import com.google.inject.Guice;
+import com.google.sites.liberation.util.EntryUtils;
+import com.google.sites.liberation.util.XmlWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rendering of the pages of a generated site of the given size
+ * and shape, to an {@code Appendable} which only counts what it is given.
+ * Run with {@code java -cp <test classpath> org.openjdk.jmh.Main
+ * ExportRendering} after {@code mvn test-compile}, adding {@code -prof gc}
+ * to also see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportRenderingBenchmark {
+
+  @Param({"100", "1000"})
+  public int pages;
+
+  @Param({"3"})
+  public int depth;
+
+  @Param({"10", "100"})
+  public int linksPerPage;
+
+  @Param({"10", "100"})
+  public int listItems;
+
+  private EntryStore entryStore;
+  private List<BasePageEntry<?>> sitePages;
+  private BasePageEntry<?> webPage;
+  private BasePageEntry<?> listPage;
+  private PageExporter pageExporter;
+  private AbsoluteLinkConverter linkConverter;
+  private URL siteUrl;
+
+  @Setup
+  public void setUp() throws IOException {
+    SyntheticSite site = 
+        new SyntheticSite(pages, depth, linksPerPage, listItems);
+    entryStore = site.newEntryStore();
+    sitePages = site.getPages();
+    for (BasePageEntry<?> page : sitePages) {
+      if (page instanceof ListPageEntry) {
+        listPage = (listPage == null) ? page : listPage;
+      } else {
+        webPage = (webPage == null) ? page : webPage;
+      }
+    }
+    pageExporter = Guice.createInjector(new SiteExporterModule())
+        .getInstance(PageExporter.class);
+    linkConverter = new AbsoluteLinkConverterImpl();
+    siteUrl = new URL(SyntheticSite.SITE_URL);
+    // Builds the page paths once, as the export does before writing pages.
+    entryStore.getPagePaths();
+  }
+
+  @Benchmark
+  public long renderPage() throws IOException {
+    CountingAppendable out = new CountingAppendable();
+    pageExporter.exportPage(webPage, EntryUtils.getXhtmlContent(webPage), 
+        entryStore, out, true);
+    return out.count;
+  }
+
+  @Benchmark
+  public long renderListPage() throws IOException {
+    CountingAppendable out = new CountingAppendable();
+    pageExporter.exportPage(listPage, EntryUtils.getXhtmlContent(listPage), 
+        entryStore, out, true);
+    return out.count;
+  }
+
+  @Benchmark
+  public long convertLinks() {
+    long length = 0;
+    for (BasePageEntry<?> page : sitePages) {
+      length += linkConverter.getConvertedContent(page, entryStore, siteUrl, 
+          false).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  public long sideBar() throws IOException {
+    NavigationSideBar sideBar = new NavigationSideBar(
+        entryStore.getPagePaths(), entryStore.getTopLevelEntries());
+    CountingAppendable out = new CountingAppendable();
+    XmlWriter writer = new XmlWriter(out);
+    for (BasePageEntry<?> page : sitePages) {
+      sideBar.writeTo(writer, page.getId());
+    }
+    return out.count;
+  }
+
+  @Benchmark
+  public long renderSite() throws IOException {
+    CountingAppendable out = new CountingAppendable();
+    for (BasePageEntry<?> page : sitePages) {
+      pageExporter.exportPage(page, EntryUtils.getXhtmlContent(page), 
+          entryStore, out, true);
+    }
+    return out.count;
+  }
+
+  /**
+   * An {@code Appendable} which discards what it is given, counting the
+   * characters so that the rendering cannot be optimized away.
+   */
+  private static class CountingAppendable implements Appendable {
+
+    long count;
+
+    @Override
+    public Appendable append(CharSequence csq) {
+      count += csq.length();
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      count += end - start;
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      count++;
+      return this;
+    }
+  }
+}
@@ -19,6 +19,7 @@ package com.google.sites.liberation.export;
 import static org.junit.Assert.*;
 
 import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.sites.AttachmentEntry;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.WebPageEntry;
 import com.google.sites.liberation.export.EntryStore;
@@ -28,6 +29,7 @@ import com.google.sites.liberation.util.EntryUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -79,6 +81,40 @@ public class InMemoryEntryStoreTest {
     assertTrue(entryStore.getChildren("entry4").isEmpty());
   }
   
+  @Test
+  public void testGetChildPageIds() {
+    assertTrue(entryStore.getChildPageIds("entry1").isEmpty());
+    entryStore.addEntry(getNewEntry("entry1"));
+    entryStore.addEntry(getNewEntry("entry2", "entry1"));
+    AttachmentEntry attachment = new AttachmentEntry();
+    attachment.setId("entry3");
+    EntryUtils.setParentId(attachment, "entry1");
+    entryStore.addEntry(attachment);
+    entryStore.addEntry(getNewEntry("entry4", "entry1"));
+    assertEquals(Arrays.asList("entry2", "entry4"), 
+        entryStore.getChildPageIds("entry1"));
+    assertTrue(entryStore.getChildPageIds("entry2").isEmpty());
+  }
+  
+  @Test
+  public void testChildAddedBeforeParent() {
+    BaseContentEntry<?> entry1 = getNewEntry("entry1");
+    BaseContentEntry<?> entry2 = getNewEntry("entry2", "entry1");
+    BaseContentEntry<?> entry3 = getNewEntry("entry3", "entry1");
+    entryStore.addEntry(entry3);
+    entryStore.addEntry(entry2);
+    assertNull(entryStore.getParent("entry3"));
+    entryStore.addEntry(entry1);
+    entryStore.addEntry(getNewEntry("entry2", "entry3"));
+    assertEquals(entry1, entryStore.getParent("entry3"));
+    assertEquals(entry1, entryStore.getParent("entry2"));
+    assertEquals(entry2, entryStore.getEntry("entry2"));
+    Collection<BaseContentEntry<?>> children = entryStore.getChildren("entry1");
+    assertEquals(2, children.size());
+    assertEquals(entry3, children.iterator().next());
+    assertTrue(entryStore.getChildren("entry3").isEmpty());
+  }
+  
   private BaseContentEntry<?> getNewEntry(String id) {
     return getNewEntry(id, null, "");
   }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.sites.AttachmentEntry;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+public class IncrementalExportTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File previousDirectory;
+  private File rootDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    previousDirectory = folder.newFolder("previous");
+    rootDirectory = folder.newFolder("root");
+  }
+
+  @Test
+  public void testManifestRoundTrip() throws IOException {
+    assertNull(ExportManifest.read(previousDirectory));
+    ExportManifest manifest = new ExportManifest(true);
+    BaseContentEntry<?> page = getNewPage("page1", null, 1);
+    BaseContentEntry<?> attachment = getNewAttachment("file", "page1", 2);
+    manifest.addEntry(page);
+    manifest.addEntry(attachment);
+    manifest.setPath("file", new File("page1/a\tb c.txt"), 42);
+    manifest.write(previousDirectory);
+    ExportManifest read = ExportManifest.read(previousDirectory);
+    assertTrue(read.getRevisionsExported());
+    assertEquals(Sets.newHashSet("page1", "file"), read.getIds());
+    assertNull(read.getRecord("page1").parentId);
+    assertNull(read.getRecord("page1").path);
+    assertEquals(1000, read.getRecord("page1").updated);
+    assertEquals("page1", read.getRecord("file").parentId);
+    assertEquals(new File("page1/a\tb c.txt"), read.getRecord("file").path);
+    assertEquals(42, read.getRecord("file").checksum);
+    assertTrue(read.getRecord("file").isSameVersion(
+        manifest.getRecord("file")));
+  }
+
+  @Test
+  public void testWithoutPreviousExport() {
+    IncrementalExport export =
+        IncrementalExport.start(null, rootDirectory, false);
+    BaseContentEntry<?> page = getNewPage("page1", null, 1);
+    export.addEntry(page);
+    export.findStalePages(getEntryStore(page), Sets.newHashSet("page1"));
+    assertTrue(export.isStale("page1"));
+    assertFalse(export.carryPage(page, new File("page1")));
+  }
+
+  @Test
+  public void testStalePages() throws IOException {
+    List<BaseContentEntry<?>> before = getSite(1, 1, 1, 1, 1);
+    writePreviousExport(before);
+    assertEquals(Sets.newHashSet(),
+        getStalePages(getSite(1, 1, 1, 1, 1)));
+    // A changed page is stale along with its parent and descendants.
+    assertEquals(Sets.newHashSet("page1", "page2", "page3"),
+        getStalePages(getSite(1, 2, 1, 1, 1)));
+    // A changed attachment only affects its parent.
+    assertEquals(Sets.newHashSet("page3"),
+        getStalePages(getSite(1, 1, 1, 1, 2)));
+    // A changed top level page affects the navigation of every page.
+    assertEquals(Sets.newHashSet("page1", "page2", "page3", "page4"),
+        getStalePages(getSite(2, 1, 1, 1, 1)));
+  }
+
+  @Test
+  public void testRemovedEntry() throws IOException {
+    writePreviousExport(getSite(1, 1, 1, 1, 1));
+    List<BaseContentEntry<?>> after = getSite(1, 1, 1, 1, 1);
+    after.remove(after.size() - 1);
+    assertEquals(Sets.newHashSet("page3"), getStalePages(after));
+  }
+
+  @Test
+  public void testCarryForward() throws IOException {
+    List<BaseContentEntry<?>> site = getSite(1, 1, 1, 1, 1);
+    writeFile(new File(previousDirectory, "page1/page2/page3/index.html"),
+        "page3");
+    File attachmentFile =
+        new File(previousDirectory, "page1/page2/page3/file.txt");
+    writeFile(attachmentFile, "contents");
+    ExportManifest manifest = writePreviousExport(site);
+    manifest.setPath("file", new File("page1/page2/page3/file.txt"),
+        ExportManifest.checksum(attachmentFile));
+    manifest.write(previousDirectory);
+
+    IncrementalExport export =
+        IncrementalExport.start(previousDirectory, rootDirectory, false);
+    EntryStore entryStore = getEntryStore(site);
+    Set<String> pageIds = Sets.newHashSet();
+    for (BaseContentEntry<?> entry : site) {
+      export.addEntry(entry);
+      if (entry instanceof WebPageEntry) {
+        pageIds.add(entry.getId());
+      }
+    }
+    export.findStalePages(entryStore, pageIds);
+    assertTrue(export.carryPage(site.get(2), new File("page1/page2/page3")));
+    assertTrue(new File(rootDirectory,
+        "page1/page2/page3/index.html").isFile());
+    assertFalse(export.carryPage(site.get(3), new File("page4")));
+    assertTrue(export.carryAttachment(site.get(4),
+        new File("page1/page2/page3/file.txt")));
+    assertEquals(ExportManifest.checksum(attachmentFile),
+        ExportManifest.checksum(new File(rootDirectory,
+            "page1/page2/page3/file.txt")));
+
+    writeFile(attachmentFile, "corrupted");
+    assertFalse(export.carryAttachment(site.get(4),
+        new File("page1/page2/page3/file.txt")));
+  }
+
+  /**
+   * Returns three nested pages and a separate top level page, each with the
+   * given version, and an attachment of the third page.
+   */
+  private List<BaseContentEntry<?>> getSite(int page1, int page2, int page3,
+      int page4, int attachment) {
+    List<BaseContentEntry<?>> site = Lists.newArrayList();
+    site.add(getNewPage("page1", null, page1));
+    site.add(getNewPage("page2", "page1", page2));
+    site.add(getNewPage("page3", "page2", page3));
+    site.add(getNewPage("page4", null, page4));
+    site.add(getNewAttachment("file", "page3", attachment));
+    return site;
+  }
+
+  private ExportManifest writePreviousExport(
+      List<BaseContentEntry<?>> entries) throws IOException {
+    ExportManifest manifest = new ExportManifest(false);
+    EntryStore entryStore = getEntryStore(entries);
+    for (BaseContentEntry<?> entry : entries) {
+      manifest.addEntry(entry);
+      File path = entryStore.getPagePaths().getDirectory(entry.getId());
+      if (path != null) {
+        manifest.setPath(entry.getId(), path, ExportManifest.NO_CHECKSUM);
+      }
+    }
+    manifest.write(previousDirectory);
+    return manifest;
+  }
+
+  private Set<String> getStalePages(List<BaseContentEntry<?>> entries) {
+    IncrementalExport export =
+        IncrementalExport.start(previousDirectory, rootDirectory, false);
+    Set<String> pageIds = Sets.newHashSet();
+    for (BaseContentEntry<?> entry : entries) {
+      export.addEntry(entry);
+      if (entry instanceof WebPageEntry) {
+        pageIds.add(entry.getId());
+      }
+    }
+    export.findStalePages(getEntryStore(entries), pageIds);
+    Set<String> stale = Sets.newHashSet();
+    for (String id : pageIds) {
+      if (export.isStale(id)) {
+        stale.add(id);
+      }
+    }
+    return stale;
+  }
+
+  private EntryStore getEntryStore(BaseContentEntry<?>... entries) {
+    return getEntryStore(Arrays.asList(entries));
+  }
+
+  private EntryStore getEntryStore(List<BaseContentEntry<?>> entries) {
+    EntryStore entryStore = new InMemoryEntryStore();
+    for (BaseContentEntry<?> entry : entries) {
+      entryStore.addEntry(entry);
+    }
+    return entryStore;
+  }
+
+  private void writeFile(File file, String contents) throws IOException {
+    file.getParentFile().mkdirs();
+    Writer out = new FileWriter(file);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+
+  private BaseContentEntry<?> getNewPage(String id, String parentId,
+      int version) {
+    WebPageEntry page = new WebPageEntry();
+    page.setId(id);
+    page.setPageName(new PageName(id));
+    page.setUpdated(new DateTime(version * 1000L, 0));
+    if (parentId != null) {
+      EntryUtils.setParentId(page, parentId);
+    }
+    return page;
+  }
+
+  private BaseContentEntry<?> getNewAttachment(String id, String parentId,
+      int version) {
+    AttachmentEntry attachment = new AttachmentEntry();
+    attachment.setId(id);
+    attachment.setUpdated(new DateTime(version * 1000L, 0));
+    EntryUtils.setParentId(attachment, parentId);
+    return attachment;
+  }
+}
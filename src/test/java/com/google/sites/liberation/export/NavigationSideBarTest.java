@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryUtils;
+import com.google.sites.liberation.util.XmlWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class NavigationSideBarTest {
+
+  private EntryStore entryStore;
+  private NavigationSideBar sideBar;
+  
+  @Before
+  public void setUp() {
+    entryStore = new InMemoryEntryStore();
+    entryStore.addEntry(getNewPage("b", "B & b", null));
+    entryStore.addEntry(getNewPage("a", "A", null));
+    entryStore.addEntry(getNewPage("c", "C", "b"));
+    sideBar = new NavigationSideBar(entryStore.getPagePaths(), 
+        entryStore.getTopLevelEntries());
+  }
+  
+  @Test
+  public void testTopLevelPage() throws IOException {
+    assertEquals("<table><tr><th align=\"left\">Navigation</th></tr>"
+        + "<tr><td><small><a href=\"../a/index.html\">A</a></small></td></tr>"
+        + "<tr><td><small>B &amp; b</small></td></tr></table>", 
+        write("b"));
+  }
+  
+  @Test
+  public void testSubpage() throws IOException {
+    String expected = "<table><tr><th align=\"left\">Navigation</th></tr>"
+        + "<tr><td><small><a href=\"../../a/index.html\">A</a></small></td>"
+        + "</tr><tr><td><small><a href=\"../../b/index.html\">B &amp; b</a>"
+        + "</small></td></tr></table>";
+    assertEquals(expected, write("c"));
+    assertEquals(expected, write("c"));
+  }
+  
+  private String write(String id) throws IOException {
+    StringBuilder out = new StringBuilder();
+    sideBar.writeTo(new XmlWriter(out), id);
+    return out.toString();
+  }
+  
+  private BasePageEntry<?> getNewPage(String id, String title, 
+      String parentId) {
+    WebPageEntry page = new WebPageEntry();
+    page.setId(id);
+    page.setTitle(new PlainTextConstruct(title));
+    page.setPageName(new PageName(id));
+    if (parentId != null) {
+      EntryUtils.setParentId(page, parentId);
+    }
+    return page;
+  }
+}
@@ -18,6 +18,7 @@ package com.google.sites.liberation.export;
 
 import com.google.common.collect.Lists;
 import com.google.gdata.data.DateTime;
+import com.google.gdata.data.ExtensionProfile;
 import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.sites.AnnouncementEntry;
 import com.google.gdata.data.sites.AnnouncementsPageEntry;
@@ -32,6 +33,7 @@ import com.google.gdata.data.sites.PageName;
 import com.google.gdata.data.sites.WebPageEntry;
 import com.google.sites.liberation.util.EntryUtils;
 import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
 import com.google.sites.liberation.renderers.AncestorLinksRenderer;
 import com.google.sites.liberation.renderers.AnnouncementsRenderer;
 import com.google.sites.liberation.renderers.AttachmentsRenderer;
@@ -93,7 +95,8 @@ public class PageExporterImplTest {
         subpageLinksRenderer,
         titleRenderer);
     out = new StringBuilder();
-    entryStore = new InMemoryEntryStoreFactory().newEntryStore();
+    entryStore = new InMemoryEntryStoreFactory().newEntryStore(
+        new ExtensionProfile());
   }
   
   @SuppressWarnings("unchecked")
@@ -164,8 +167,9 @@ public class PageExporterImplTest {
         will(returnValue(new XmlElement("div")));
       oneOf (titleRenderer).renderTitle(entry); 
         will(returnValue(new XmlElement("div")));
-      oneOf (contentRenderer).renderContent(entry, false); 
-        will(returnValue(new XmlElement("div")));
+      oneOf (contentRenderer).writeContent(with(same(entry)), 
+          with(equal("content")), with(equal(false)), 
+          with(any(XmlWriter.class)));
       oneOf (subpageLinksRenderer).renderSubpageLinks(with(equal(subpages))); 
         will(returnValue(new XmlElement("div")));
       oneOf (attachmentsRenderer).renderAttachments(with(equal(attachments))); 
@@ -174,7 +178,7 @@ public class PageExporterImplTest {
         will(returnValue(new XmlElement("div")));
     }});
     
-    exporter.exportPage(entry, entryStore, out, false);
+    exporter.exportPage(entry, "content", entryStore, out, false);
   }
 
   @Test
@@ -202,13 +206,14 @@ public class PageExporterImplTest {
     context.checking(new Expectations() {{
       oneOf (titleRenderer).renderTitle(entry); 
         will(returnValue(new XmlElement("div")));
-      oneOf (contentRenderer).renderContent(entry, true); 
-        will(returnValue(new XmlElement("div")));
-      oneOf (listRenderer).renderList(with(entry), with(equal(listItems))); 
-        will(returnValue(new XmlElement("div")));
+      oneOf (contentRenderer).writeContent(with(same(entry)), 
+          with(equal("content")), with(equal(true)), 
+          with(any(XmlWriter.class)));
+      oneOf (listRenderer).writeList(with(same(entry)), 
+          with(equal(listItems)), with(any(XmlWriter.class)));
     }});
     
-    exporter.exportPage(entry, entryStore, out, true);
+    exporter.exportPage(entry, "content", entryStore, out, true);
   }
   
   @Test
@@ -236,13 +241,14 @@ public class PageExporterImplTest {
     context.checking(new Expectations() {{
       oneOf (titleRenderer).renderTitle(entry); 
         will(returnValue(new XmlElement("div")));
-      oneOf (contentRenderer).renderContent(entry, false); 
-        will(returnValue(new XmlElement("div")));
+      oneOf (contentRenderer).writeContent(with(same(entry)), 
+          with(equal("content")), with(equal(false)), 
+          with(any(XmlWriter.class)));
       oneOf (fileCabinetRenderer).renderFileCabinet(with(equal(attachments))); 
         will(returnValue(new XmlElement("div")));
     }});
     
-    exporter.exportPage(entry, entryStore, out, false);
+    exporter.exportPage(entry, "content", entryStore, out, false);
   }
   
   @Test
@@ -270,13 +276,14 @@ public class PageExporterImplTest {
     context.checking(new Expectations() {{
       oneOf (titleRenderer).renderTitle(entry); 
         will(returnValue(new XmlElement("div")));
-      oneOf (contentRenderer).renderContent(entry, true); 
-        will(returnValue(new XmlElement("div")));
+      oneOf (contentRenderer).writeContent(with(same(entry)), 
+          with(equal("content")), with(equal(true)), 
+          with(any(XmlWriter.class)));
       oneOf (announcementsRenderer).renderAnnouncements(
           with(equal(announcements))); 
         will(returnValue(new XmlElement("div")));
     }});
     
-    exporter.exportPage(entry, entryStore, out, true);
+    exporter.exportPage(entry, "content", entryStore, out, true);
   }
 }
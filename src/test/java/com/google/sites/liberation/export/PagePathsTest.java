@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.data.sites.AttachmentEntry;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class PagePathsTest {
+
+  private EntryStore entryStore;
+
+  @Before
+  public void setUp() {
+    entryStore = new InMemoryEntryStore();
+  }
+
+  @Test
+  public void testHierarchy() {
+    BasePageEntry<?> page1 = getNewPage("page1", null);
+    BasePageEntry<?> page2 = getNewPage("page2", "page1");
+    BasePageEntry<?> page3 = getNewPage("page3", "page2");
+    BaseContentEntry<?> attachment = new AttachmentEntry();
+    attachment.setId("attachment");
+    EntryUtils.setParentId(attachment, "page3");
+    entryStore.addEntry(page3);
+    entryStore.addEntry(attachment);
+    entryStore.addEntry(page1);
+    entryStore.addEntry(page2);
+    PagePaths paths = entryStore.getPagePaths();
+    assertEquals(new File("page1"), paths.getDirectory("page1"));
+    assertEquals(new File("page1/page2/page3"), paths.getDirectory("page3"));
+    assertEquals("../", paths.getPathToRoot("page1"));
+    assertEquals("../../../", paths.getPathToRoot("page3"));
+    assertTrue(paths.getAncestors("page1").isEmpty());
+    assertEquals(Arrays.asList(page1, page2), paths.getAncestors("page3"));
+    assertEquals(Arrays.asList(page1, page2, page3),
+        paths.getAncestors("attachment"));
+    assertNull(paths.getDirectory("attachment"));
+  }
+
+  @Test
+  public void testMissingAncestor() {
+    entryStore.addEntry(getNewPage("page2", "page1"));
+    entryStore.addEntry(getNewPage("page3", "page2"));
+    PagePaths paths = entryStore.getPagePaths();
+    assertNull(paths.getDirectory("page2"));
+    assertNull(paths.getDirectory("page3"));
+    assertEquals("../", paths.getPathToRoot("page2"));
+    assertEquals("../../", paths.getPathToRoot("page3"));
+    assertEquals(1, paths.getAncestors("page3").size());
+  }
+
+  @Test
+  public void testRecomputedAfterAdd() {
+    entryStore.addEntry(getNewPage("page1", null));
+    PagePaths paths = entryStore.getPagePaths();
+    assertSame(paths, entryStore.getPagePaths());
+    entryStore.addEntry(getNewPage("page2", "page1"));
+    assertNotSame(paths, entryStore.getPagePaths());
+    assertEquals(new File("page1/page2"),
+        entryStore.getPagePaths().getDirectory("page2"));
+  }
+
+  private BasePageEntry<?> getNewPage(String id, String parentId) {
+    WebPageEntry page = new WebPageEntry();
+    page.setId(id);
+    page.setPageName(new PageName(id));
+    if (parentId != null) {
+      EntryUtils.setParentId(page, parentId);
+    }
+    return page;
+  }
+}
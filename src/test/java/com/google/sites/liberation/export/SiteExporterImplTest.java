@@ -18,8 +18,11 @@ package com.google.sites.liberation.export;
 
 import static org.junit.Assert.*;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.ILink;
 import com.google.gdata.data.PlainTextConstruct;
@@ -33,13 +36,19 @@ import com.google.gdata.data.sites.PageName;
 import com.google.gdata.data.sites.SitesLink;
 import com.google.gdata.data.sites.WebPageEntry;
 import com.google.gdata.util.XmlBlob;
+import com.google.sites.liberation.util.EntryUtils;
 import com.google.sites.liberation.util.ProgressListener;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.jmock.lib.legacy.ClassImposteriser;
 
 import java.io.File;
@@ -47,13 +56,24 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author bsimon@google.com (Benjamin Simon)
  */
 public class SiteExporterImplTest {
   
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  // The checkpoint journals entries as Atom, in which a parent link must be
+  // absolute.
+  private static final String ID = 
+      "https://host/feeds/content/domain/webspace/";
+  
   private Mockery context;
   private AbsoluteLinkConverter linkConverter;
   private AppendableFactory appendableFactory;
@@ -68,12 +88,15 @@ public class SiteExporterImplTest {
   private SitesService sitesService;
   private Collection<BaseContentEntry<?>> entries;
   private URL feedUrl;
+  private URL siteUrl;
   private Map<AttachmentEntry, File> downloaded;
+  private Set<AttachmentEntry> failing;
   
   @Before
   public void before() throws MalformedURLException {
     context = new JUnit4Mockery() {{
       setImposteriser(ClassImposteriser.INSTANCE);
+      setThreadingPolicy(new Synchroniser());
     }};
     linkConverter = context.mock(AbsoluteLinkConverter.class);
     appendableFactory = context.mock(AppendableFactory.class);
@@ -86,19 +109,23 @@ public class SiteExporterImplTest {
     revisionsExporter = context.mock(RevisionsExporter.class);
     siteExporter = new SiteExporterImpl(linkConverter, appendableFactory, 
         attachmentDownloader, entryStoreFactory, feedProvider, pageExporter, 
-        revisionsExporter);
+        revisionsExporter, 1, 1, 1, false);
     sitesService = new SitesService("");
     entries = Sets.newHashSet();
     feedUrl = new URL("https://host/feeds/content/domain/webspace");
+    siteUrl = new URL("https://host/a/domain/webspace");
   }
   
   @Test
   public void testEmptyExport() {
     context.checking(new Expectations() {{
-      allowing (entryStoreFactory).newEntryStore(); 
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
           will(returnValue(entryStore));
       allowing (progressListener).setStatus(with(any(String.class)));
-      allowing (feedProvider).getEntries(feedUrl, sitesService);
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(equal(1)), 
+          with(any(ExecutorService.class)));
           will(returnValue(entries));
     }});
     
@@ -118,9 +145,13 @@ public class SiteExporterImplTest {
     final Appendable out = context.mock(Appendable.class);
     
     context.checking(new Expectations() {{
-      allowing (entryStoreFactory).newEntryStore(); 
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
           will(returnValue(entryStore));
-      allowing (feedProvider).getEntries(feedUrl, sitesService);
+      allowing (entryStore).getPagePaths(); will(returnValue(getPagePaths()));
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(equal(1)), 
+          with(any(ExecutorService.class)));
           will(returnValue(entries));
       allowing (entryStore).getEntry("1"); will(returnValue(page));
       allowing (entryStore).getParent("1"); will(returnValue(null));
@@ -130,9 +161,12 @@ public class SiteExporterImplTest {
       oneOf (appendableFactory).getAppendable(
           new File("path/Page-1/index.html"));
           will(returnValue(out));
-      oneOf (linkConverter).convertLinks(page, entryStore, 
-          new URL("https://host/a/domain/webspace"), false);
-      oneOf (pageExporter).exportPage(page, entryStore, out, true);
+      oneOf (linkConverter).getConvertedContent(with(same(page)), 
+          with(same(entryStore)), with(equal(siteUrl)), with(equal(false)));
+          will(returnValue("content"));
+      oneOf (pageExporter).exportPage(with(same(page)), 
+          with(equal("content")), with(same(entryStore)), with(same(out)), 
+          with(equal(true)));
       oneOf (revisionsExporter).exportRevisions(page, entryStore, 
           new File("path/Page-1"), sitesService, 
           new URL("https://host/a/domain/webspace"));
@@ -159,9 +193,13 @@ public class SiteExporterImplTest {
     final Appendable out = context.mock(Appendable.class);
     
     context.checking(new Expectations() {{
-      allowing (entryStoreFactory).newEntryStore(); 
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
           will(returnValue(entryStore));
-      allowing (feedProvider).getEntries(feedUrl, sitesService);
+      allowing (entryStore).getPagePaths(); will(returnValue(getPagePaths()));
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(equal(1)), 
+          with(any(ExecutorService.class)));
           will(returnValue(entries));
       allowing (entryStore).getEntry("1"); will(returnValue(page));
       allowing (entryStore).getParent("1"); will(returnValue(null));
@@ -174,9 +212,12 @@ public class SiteExporterImplTest {
       oneOf (appendableFactory).getAppendable(
           new File("path/Page-1/index.html"));
           will(returnValue(out));
-      oneOf (linkConverter).convertLinks(page, entryStore, 
-          new URL("https://host/a/domain/webspace"), false);
-      oneOf (pageExporter).exportPage(page, entryStore, out, false);
+      oneOf (linkConverter).getConvertedContent(with(same(page)), 
+          with(same(entryStore)), with(equal(siteUrl)), with(equal(false)));
+          will(returnValue("content"));
+      oneOf (pageExporter).exportPage(with(same(page)), 
+          with(equal("content")), with(same(entryStore)), with(same(out)), 
+          with(equal(false)));
     }});
     
     export(false);
@@ -222,9 +263,13 @@ public class SiteExporterImplTest {
         "out2");
     
     context.checking(new Expectations() {{
-      allowing (entryStoreFactory).newEntryStore(); 
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
           will(returnValue(entryStore));
-      allowing (feedProvider).getEntries(feedUrl, sitesService);
+      allowing (entryStore).getPagePaths(); will(returnValue(getPagePaths()));
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(equal(1)), 
+          with(any(ExecutorService.class)));
           will(returnValue(entries));
       allowing (entryStore).getEntry("1"); will(returnValue(page1));
       allowing (entryStore).getEntry("2"); will(returnValue(attachment1));
@@ -249,12 +294,18 @@ public class SiteExporterImplTest {
       oneOf (appendableFactory).getAppendable(
           new File("path/Page-1/Page-2/index.html"));
           will(returnValue(out2));
-      oneOf (linkConverter).convertLinks(page1, entryStore, 
-          new URL("https://host/a/domain/webspace"), false);
-      oneOf (linkConverter).convertLinks(page2, entryStore, 
-          new URL("https://host/a/domain/webspace"), false);
-      oneOf (pageExporter).exportPage(page1, entryStore, out1, true);
-      oneOf (pageExporter).exportPage(page2, entryStore, out2, true);
+      oneOf (linkConverter).getConvertedContent(with(same(page1)), 
+          with(same(entryStore)), with(equal(siteUrl)), with(equal(false)));
+          will(returnValue("content"));
+      oneOf (linkConverter).getConvertedContent(with(same(page2)), 
+          with(same(entryStore)), with(equal(siteUrl)), with(equal(false)));
+          will(returnValue("content"));
+      oneOf (pageExporter).exportPage(with(same(page1)), 
+          with(equal("content")), with(same(entryStore)), with(same(out1)), 
+          with(equal(true)));
+      oneOf (pageExporter).exportPage(with(same(page2)), 
+          with(equal("content")), with(same(entryStore)), with(same(out2)), 
+          with(equal(true)));
       oneOf (revisionsExporter).exportRevisions(page1, entryStore,
           new File("path/Page-1"), sitesService, 
           new URL("https://host/a/domain/webspace"));
@@ -272,11 +323,253 @@ public class SiteExporterImplTest {
         new File("path/Page-1/Page-2/document.doc")));
   }
   
+  @Test
+  public void testFailedDownloadDownloadedAgain() throws IOException {
+    AttachmentEntry attachment = allowPageWithAttachment();
+    File first = folder.newFolder("first");
+    failing.add(attachment);
+    SiteExportResult result = siteExporter.exportSite("host", "domain", 
+        "webspace", false, sitesService, first, null, progressListener);
+    assertNull(ExportManifest.read(first).getRecord(ID + "2").path);
+    assertEquals(2, result.getEntries());
+    assertEquals(0, result.getFailedPages());
+    assertEquals(1, result.getFailedAttachments());
+    
+    File second = folder.newFolder("second");
+    downloaded.clear();
+    failing.clear();
+    result = siteExporter.exportSite("host", "domain", "webspace", false, 
+        sitesService, second, first, progressListener);
+    assertEquals(0, result.getFailedAttachments());
+    assertEquals(new File(second, "Page-1/file.txt"), 
+        downloaded.get(attachment));
+    assertEquals(new File("Page-1/file.txt"), 
+        ExportManifest.read(second).getRecord(ID + "2").path);
+  }
+  
+  @Test
+  public void testFailedDownloadNotCheckpointed() throws IOException {
+    siteExporter = new SiteExporterImpl(linkConverter, appendableFactory, 
+        attachmentDownloader, entryStoreFactory, feedProvider, pageExporter, 
+        revisionsExporter, 1, 1, 1, true);
+    AttachmentEntry attachment = allowPageWithAttachment();
+    File root = folder.newFolder("root");
+    failing.add(attachment);
+    try {
+      siteExporter.exportSite("host", "domain", "webspace", false, 
+          sitesService, root, new InterruptingListener());
+      fail("The export should have been interrupted.");
+    } catch (IllegalStateException e) {
+      // The checkpoint is kept, as it is when the process dies.
+    }
+    ExportCheckpoint checkpoint = ExportCheckpoint.open(root, false, true, 
+        sitesService.getExtensionProfile());
+    assertTrue(checkpoint.isPageDone(ID + "1"));
+    assertEquals(ExportManifest.NO_CHECKSUM, 
+        checkpoint.getAttachmentChecksum(ID + "2"));
+    checkpoint.close();
+    
+    downloaded.clear();
+    failing.clear();
+    siteExporter.exportSite("host", "domain", "webspace", false, sitesService,
+        root, progressListener);
+    // The resumed export reads a copy of the attachment from the checkpoint.
+    assertTrue(downloaded.containsValue(new File(root, "Page-1/file.txt")));
+  }
+  
+  /**
+   * Adds a page with an attachment to the site, allowing any export of it,
+   * and returns the attachment.
+   */
+  private AttachmentEntry allowPageWithAttachment() throws IOException {
+    final BasePageEntry<?> page = new WebPageEntry();
+    page.setId(ID + "1");
+    page.setTitle(new PlainTextConstruct("Page 1"));
+    page.setPageName(new PageName("Page-1"));
+    final AttachmentEntry attachment = new AttachmentEntry();
+    attachment.setId(ID + "2");
+    attachment.setTitle(new PlainTextConstruct("file.txt"));
+    attachment.addLink(SitesLink.Rel.PARENT, ILink.Type.ATOM, ID + "1");
+    entries.add(page);
+    entries.add(attachment);
+    
+    context.checking(new Expectations() {{
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
+          will(returnValue(entryStore));
+      allowing (entryStore).getPagePaths(); will(returnValue(getPagePaths()));
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(any(Integer.class)), 
+          with(any(ExecutorService.class)));
+          will(returnValue(entries));
+      allowing (entryStore).addEntry(with(any(BaseContentEntry.class)));
+      allowing (entryStore).getEntry(ID + "1"); will(returnValue(page));
+      allowing (entryStore).getParent(ID + "1"); will(returnValue(null));
+      allowing (entryStore).getEntry(ID + "2"); will(returnValue(attachment));
+      allowing (entryStore).getParent(ID + "2"); will(returnValue(page));
+      allowing (progressListener).setStatus(with(any(String.class)));
+      allowing (progressListener).setProgress(with(any(Double.class)));
+      allowing (appendableFactory).getAppendable(with(any(File.class)));
+          will(returnValue(new StringBuilder()));
+      allowing (linkConverter).getConvertedContent(
+          with(any(BasePageEntry.class)), with(same(entryStore)), 
+          with(equal(siteUrl)), with(equal(false)));
+          will(returnValue("content"));
+      allowing (pageExporter).exportPage(with(any(BasePageEntry.class)), 
+          with(equal("content")), with(same(entryStore)), 
+          with(any(Appendable.class)), with(equal(false)));
+    }});
+    return attachment;
+  }
+  
+  @Test
+  public void testSeveralPagesInParallel() throws IOException {
+    siteExporter = new SiteExporterImpl(linkConverter, appendableFactory, 
+        attachmentDownloader, entryStoreFactory, feedProvider, pageExporter, 
+        revisionsExporter, 3, 2, 2, false);
+    final BasePageEntry<?>[] pages = new BasePageEntry<?>[5];
+    final Appendable[] outs = new Appendable[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = new WebPageEntry();
+      pages[i].setId(Integer.toString(i));
+      pages[i].setTitle(new PlainTextConstruct("Page " + i));
+      pages[i].setPageName(new PageName("Page-" + i));
+      XmlBlob blob = new XmlBlob();
+      blob.setBlob("content");
+      pages[i].setContent(new XhtmlTextConstruct(blob));
+      entries.add(pages[i]);
+      outs[i] = context.mock(Appendable.class, "out" + i);
+    }
+    
+    context.checking(new Expectations() {{
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
+          will(returnValue(entryStore));
+      allowing (entryStore).getPagePaths(); will(returnValue(getPagePaths()));
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(equal(1)), 
+          with(any(ExecutorService.class)));
+          will(returnValue(entries));
+      allowing (progressListener).setStatus(with(any(String.class)));
+      allowing (progressListener).setProgress(with(any(Double.class)));
+      for (int i = 0; i < pages.length; i++) {
+        String id = Integer.toString(i);
+        allowing (entryStore).getEntry(id); will(returnValue(pages[i]));
+        allowing (entryStore).getParent(id); will(returnValue(null));
+        oneOf (entryStore).addEntry(pages[i]);
+        oneOf (appendableFactory).getAppendable(
+            new File("path/Page-" + i + "/index.html"));
+            will(returnValue(outs[i]));
+        oneOf (linkConverter).getConvertedContent(with(same(pages[i])), 
+            with(same(entryStore)), with(equal(siteUrl)), with(equal(false)));
+            will(returnValue("content " + i));
+        oneOf (pageExporter).exportPage(with(same(pages[i])), 
+            with(equal("content " + i)), with(same(entryStore)), 
+            with(same(outs[i])), with(equal(true)));
+        oneOf (revisionsExporter).exportRevisions(pages[i], entryStore, 
+            new File("path/Page-" + i), sitesService, 
+            new URL("https://host/a/domain/webspace"));
+      }
+    }});
+    
+    export(true);
+  }
+  
+  @Test
+  public void testConvertsLinksWithoutChangingPage() throws IOException {
+    siteExporter = new SiteExporterImpl(new AbsoluteLinkConverterImpl(), 
+        appendableFactory, attachmentDownloader, entryStoreFactory, 
+        feedProvider, pageExporter, revisionsExporter, 1, 1, 1, false);
+    final BasePageEntry<?> page = new WebPageEntry();
+    page.setId("1");
+    page.setTitle(new PlainTextConstruct("Page 1"));
+    page.setPageName(new PageName("Page-1"));
+    final String content = 
+        "<a href=\"https://host/a/domain/webspace/Page-1\">link</a>";
+    EntryUtils.setContent(page, content);
+    entries.add(page);
+    final Appendable out = context.mock(Appendable.class);
+    final List<String> exported = Lists.newArrayList();
+    
+    context.checking(new Expectations() {{
+      allowing (entryStoreFactory).newEntryStore(
+          sitesService.getExtensionProfile());
+          will(returnValue(entryStore));
+      allowing (entryStore).getPagePaths(); will(returnValue(getPagePaths()));
+      allowing (feedProvider).getEntries(with(equal(feedUrl)), 
+          with(same(sitesService)), with(equal(1)), 
+          with(any(ExecutorService.class)));
+          will(returnValue(entries));
+      allowing (entryStore).getEntry("1"); will(returnValue(page));
+      allowing (entryStore).getParent("1"); will(returnValue(null));
+      allowing (progressListener).setStatus(with(any(String.class)));
+      allowing (progressListener).setProgress(with(any(Double.class)));
+      oneOf (entryStore).addEntry(page);
+      oneOf (appendableFactory).getAppendable(
+          new File("path/Page-1/index.html"));
+          will(returnValue(out));
+      oneOf (pageExporter).exportPage(with(same(page)), 
+          with(any(String.class)), with(same(entryStore)), with(same(out)), 
+          with(equal(false)));
+          will(new CustomAction("record page") {
+            @Override
+            public Object invoke(Invocation invocation) {
+              exported.add((String) invocation.getParameter(1));
+              return null;
+            }
+          });
+    }});
+    
+    export(false);
+    assertEquals(content, EntryUtils.getXhtmlContent(page));
+    assertEquals("<a href=\"../Page-1/index.html\">link</a>", 
+        exported.get(0));
+  }
+  
+  /**
+   * Returns the paths of the test entries, as computed by a real store.
+   */
+  private PagePaths getPagePaths() {
+    EntryStore store = new InMemoryEntryStore();
+    for (BaseContentEntry<?> entry : entries) {
+      store.addEntry(entry);
+    }
+    return store.getPagePaths();
+  }
+  
   private void export(boolean exportRevisions) {
     siteExporter.exportSite("host", "domain", "webspace", exportRevisions, 
         sitesService, new File("path"), progressListener);
   }
   
+  /**
+   * A listener which stops the export just before it would complete, as if
+   * the process had died.
+   */
+  private static class InterruptingListener implements ProgressListener {
+    
+    @Override
+    public String getStatus() {
+      return "";
+    }
+    
+    @Override
+    public double getProgress() {
+      return 0;
+    }
+    
+    @Override
+    public void setStatus(String status) {
+      if (status.equals("Export complete.")) {
+        throw new IllegalStateException("Interrupted");
+      }
+    }
+    
+    @Override
+    public void setProgress(double progress) {
+    }
+  }
+  
   /**
    * This class was needed because mocking the AttachmentDownloader with JMock
    * kept non-sensically failing (Greg agreed).
@@ -284,13 +577,25 @@ public class SiteExporterImplTest {
   private class FakeDownloader implements AttachmentDownloader {
     
     FakeDownloader() {
-      downloaded = Maps.newHashMap();
+      downloaded = Maps.newConcurrentMap();
+      failing = Sets.newHashSet();
     }
     
     @Override
-    public void download(AttachmentEntry attachment, File file, 
+    public boolean download(AttachmentEntry attachment, File file, 
         SitesService sitesService) {
       downloaded.put(attachment, file);
+      if (failing.contains(attachment)) {
+        return false;
+      }
+      if (file.getParentFile().isDirectory()) {
+        try {
+          Files.write("attachment", file, Charsets.UTF_8);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return true;
     }
   }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.export;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.Person;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.sites.AttachmentEntry;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.CommentEntry;
+import com.google.gdata.data.sites.ListItemEntry;
+import com.google.gdata.data.sites.ListPageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.gdata.data.spreadsheet.Column;
+import com.google.gdata.data.spreadsheet.Data;
+import com.google.gdata.data.spreadsheet.Field;
+import com.google.sites.liberation.util.EntryUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates the entries of a site of a given size and shape, for
+ * benchmarks of the export.
+ *
+ * <p>The pages form a tree of the given depth, with every fourth page a list
+ * page and the others web pages. Each web page links to other pages of the
+ * site by absolute URL and has a comment and an attachment; each list page
+ * has the given number of list items.</p>
+ */
+final class SyntheticSite {
+
+  static final String SITE_URL = "https://sites.google.com/a/domain/site";
+  private static final String ID_PREFIX =
+      "https://sites.google.com/feeds/content/domain/site/";
+  private static final int COLUMNS = 5;
+
+  private final List<BaseContentEntry<?>> entries;
+  private final List<BasePageEntry<?>> pages;
+  private final List<String> contents;
+
+  /**
+   * Generates a site of {@code pageCount} pages nested up to {@code depth}
+   * deep, with {@code linksPerPage} links in each web page and
+   * {@code listItems} items in each list page.
+   */
+  SyntheticSite(int pageCount, int depth, int linksPerPage, int listItems) {
+    checkArgument(pageCount > 0 && depth > 0);
+    entries = Lists.newArrayList();
+    pages = Lists.newArrayList();
+    contents = Lists.newArrayList();
+    // Enough children per page that the tree is about depth levels deep.
+    int fanout = Math.max(2,
+        (int) Math.ceil(Math.pow(pageCount, 1.0 / depth)));
+    String[] paths = new String[pageCount];
+    DateTime updated = DateTime.parseDateTime("2009-07-01T12:00:00.000Z");
+    for (int i = 0; i < pageCount; i++) {
+      int parent = (i < fanout) ? -1 : (i - fanout) / fanout;
+      String name = "page-" + i;
+      paths[i] = (parent == -1) ? name : paths[parent] + "/" + name;
+      BasePageEntry<?> page;
+      if (i % 4 == 3) {
+        ListPageEntry listPage = new ListPageEntry();
+        Data data = new Data();
+        for (int c = 0; c < COLUMNS; c++) {
+          data.addColumn(new Column(columnIndex(c), "Column " + c));
+        }
+        listPage.setData(data);
+        page = listPage;
+      } else {
+        page = new WebPageEntry();
+      }
+      init(page, "page" + i, "Page " + i, updated);
+      page.setPageName(new PageName(name));
+      if (parent != -1) {
+        EntryUtils.setParentId(page, pages.get(parent).getId());
+      }
+      pages.add(page);
+      entries.add(page);
+      if (page instanceof ListPageEntry) {
+        EntryUtils.setContent(page, "<div>List " + i + "</div>");
+        for (int j = 0; j < listItems; j++) {
+          ListItemEntry item = new ListItemEntry();
+          init(item, "item" + i + "-" + j, "Item " + j, updated);
+          for (int c = 0; c < COLUMNS; c++) {
+            item.addField(new Field(columnIndex(c), "Column " + c,
+                "Value " + j + "." + c));
+          }
+          EntryUtils.setParentId(item, page.getId());
+          entries.add(item);
+        }
+      } else {
+        CommentEntry comment = new CommentEntry();
+        init(comment, "comment" + i, "Comment " + i, updated);
+        EntryUtils.setContent(comment, "<div>A comment on page " + i
+            + ".</div>");
+        EntryUtils.setParentId(comment, page.getId());
+        entries.add(comment);
+        AttachmentEntry attachment = new AttachmentEntry();
+        init(attachment, "attachment" + i, "file-" + i + ".txt", updated);
+        EntryUtils.setParentId(attachment, page.getId());
+        entries.add(attachment);
+      }
+    }
+    for (int i = 0; i < pageCount; i++) {
+      BasePageEntry<?> page = pages.get(i);
+      if (page instanceof ListPageEntry) {
+        contents.add(null);
+      } else {
+        contents.add(content(i, linksPerPage, paths));
+      }
+    }
+    resetContent();
+  }
+
+  private static String columnIndex(int column) {
+    return String.valueOf((char) ('A' + column));
+  }
+
+  private static void init(BaseContentEntry<?> entry, String id, String title,
+      DateTime updated) {
+    entry.setId(ID_PREFIX + id);
+    entry.setTitle(new PlainTextConstruct(title));
+    entry.getAuthors().add(new Person("Author", null, "author@domain.com"));
+    entry.setUpdated(updated);
+  }
+
+  /**
+   * Returns the content of web page {@code i}, made up of paragraphs each
+   * holding a link to another page of the site.
+   */
+  private static String content(int i, int linksPerPage, String[] paths) {
+    StringBuilder builder = new StringBuilder("<div>");
+    for (int j = 0; j < linksPerPage; j++) {
+      String path = paths[(i * 31 + j * 17) % paths.length];
+      builder.append("<p>Some text before link ").append(j).append(". ");
+      builder.append("<a href=\"").append(SITE_URL).append('/').append(path)
+          .append("\">").append(path).append("</a>");
+      if (j % 5 == 0) {
+        builder.append(" and <a href=\"http://example.com/").append(j)
+            .append("\">elsewhere</a>");
+      }
+      builder.append("</p>");
+    }
+    return builder.append("</div>").toString();
+  }
+
+  /**
+   * Returns every entry in the site, each page before its children.
+   */
+  List<BaseContentEntry<?>> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Returns the pages of the site, each before its subpages.
+   */
+  List<BasePageEntry<?>> getPages() {
+    return Collections.unmodifiableList(pages);
+  }
+
+  /**
+   * Returns a new store holding every entry in the site.
+   */
+  EntryStore newEntryStore() {
+    EntryStore entryStore = new InMemoryEntryStore();
+    for (BaseContentEntry<?> entry : entries) {
+      entryStore.addEntry(entry);
+    }
+    return entryStore;
+  }
+
+  /**
+   * Restores the original content of the web pages, with absolute links,
+   * undoing any link conversion.
+   */
+  void resetContent() {
+    for (int i = 0; i < pages.size(); i++) {
+      if (contents.get(i) != null) {
+        EntryUtils.setContent(pages.get(i), contents.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.client.batch.BatchInterruptedException;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.batch.BatchInterrupted;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.CommentEntry;
+import com.google.gdata.data.sites.ContentFeed;
+import com.google.sites.liberation.util.RequestScheduler;
+import com.google.sites.liberation.util.RequestSchedulerImpl;
+
+import org.hamcrest.Description;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+public class EntryBatchUploaderImplTest {
+
+  private Mockery context;
+  private SitesService sitesService;
+  private EntryInserter entryInserter;
+  private EntryUpdater entryUpdater;
+  private RequestScheduler requestScheduler;
+  private URL feedUrl;
+  private URL batchUrl;
+
+  @Before
+  public void before() throws IOException {
+    context = new JUnit4Mockery() {{
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }};
+    sitesService = context.mock(SitesService.class);
+    entryInserter = context.mock(EntryInserter.class);
+    entryUpdater = context.mock(EntryUpdater.class);
+    requestScheduler = new RequestSchedulerImpl(0, 0, 0);
+    feedUrl = new URL("http://sites.google.com/feeds/content/site/test");
+    batchUrl = new URL(feedUrl.toExternalForm() + "/batch");
+  }
+
+  @Test
+  public void testBatches() throws Exception {
+    final List<BaseContentEntry<?>> newEntries = getEntries(3);
+    List<BaseContentEntry<?>> oldEntries = Lists.newArrayList();
+    oldEntries.add(null);
+    oldEntries.add(getEntry(feedUrl + "/old"));
+    oldEntries.add(null);
+
+    context.checking(new Expectations() {{
+      exactly(2).of (sitesService).batch(with(equal(batchUrl)),
+          with(any(ContentFeed.class)));
+        will(answerBatch(-1));
+    }});
+
+    List<BaseContentEntry<?>> results = new EntryBatchUploaderImpl(
+        entryInserter, entryUpdater, requestScheduler, 2).uploadEntries(
+        newEntries, oldEntries, feedUrl, sitesService);
+    assertEquals(3, results.size());
+    assertEquals(BatchOperationType.INSERT,
+        BatchUtils.getBatchOperationType(results.get(0)));
+    assertEquals(BatchOperationType.UPDATE,
+        BatchUtils.getBatchOperationType(results.get(1)));
+    assertEquals(feedUrl + "/old", results.get(1).getId());
+    assertEquals("2", BatchUtils.getBatchId(results.get(2)));
+  }
+
+  @Test
+  public void testFailedOperation() throws Exception {
+    List<BaseContentEntry<?>> newEntries = getEntries(2);
+    List<BaseContentEntry<?>> oldEntries = nulls(2);
+
+    context.checking(new Expectations() {{
+      oneOf (sitesService).batch(with(equal(batchUrl)),
+          with(any(ContentFeed.class)));
+        will(answerBatch(1));
+    }});
+
+    List<BaseContentEntry<?>> results = new EntryBatchUploaderImpl(
+        entryInserter, entryUpdater, requestScheduler, 10).uploadEntries(
+        newEntries, oldEntries, feedUrl, sitesService);
+    assertNotNull(results.get(0));
+    assertNull(results.get(1));
+  }
+
+  @Test
+  public void testFailedBatch() throws Exception {
+    final List<BaseContentEntry<?>> newEntries = getEntries(2);
+    final List<BaseContentEntry<?>> oldEntries = nulls(2);
+    oldEntries.set(1, getEntry(feedUrl + "/old"));
+    final BaseContentEntry<?> updated = getEntry("updated");
+
+    context.checking(new Expectations() {{
+      oneOf (sitesService).batch(with(equal(batchUrl)),
+          with(any(ContentFeed.class)));
+        will(throwException(new IOException()));
+      never (entryInserter);
+      oneOf (entryUpdater).updateEntry(oldEntries.get(1), newEntries.get(1),
+          sitesService);
+        will(returnValue(updated));
+    }});
+
+    List<BaseContentEntry<?>> results = new EntryBatchUploaderImpl(
+        entryInserter, entryUpdater, requestScheduler, 10).uploadEntries(
+        newEntries, oldEntries, feedUrl, sitesService);
+    assertNull(results.get(0));
+    assertSame(updated, results.get(1));
+    assertNull(BatchUtils.getBatchId(newEntries.get(1)));
+  }
+
+  @Test
+  public void testInterruptedBatch() throws Exception {
+    final List<BaseContentEntry<?>> newEntries = getEntries(2);
+    List<BaseContentEntry<?>> oldEntries = nulls(2);
+    final BaseContentEntry<?> inserted = getEntry("inserted");
+
+    context.checking(new Expectations() {{
+      oneOf (sitesService).batch(with(equal(batchUrl)),
+          with(any(ContentFeed.class)));
+        will(interruptAfterFirst());
+      oneOf (entryInserter).insertEntry(newEntries.get(1), feedUrl,
+          sitesService);
+        will(returnValue(inserted));
+    }});
+
+    List<BaseContentEntry<?>> results = new EntryBatchUploaderImpl(
+        entryInserter, entryUpdater, requestScheduler, 10).uploadEntries(
+        newEntries, oldEntries, feedUrl, sitesService);
+    assertEquals("0", BatchUtils.getBatchId(results.get(0)));
+    assertSame(inserted, results.get(1));
+    assertNull(BatchUtils.getBatchId(newEntries.get(1)));
+  }
+
+  @Test
+  public void testWithoutBatching() {
+    final List<BaseContentEntry<?>> newEntries = getEntries(2);
+    final List<BaseContentEntry<?>> oldEntries = nulls(2);
+    oldEntries.set(1, getEntry("old"));
+    final BaseContentEntry<?> inserted = getEntry("inserted");
+    final BaseContentEntry<?> updated = getEntry("updated");
+
+    context.checking(new Expectations() {{
+      oneOf (entryInserter).insertEntry(newEntries.get(0), feedUrl,
+          sitesService);
+        will(returnValue(inserted));
+      oneOf (entryUpdater).updateEntry(oldEntries.get(1), newEntries.get(1),
+          sitesService);
+        will(returnValue(updated));
+    }});
+
+    assertEquals(entries(inserted, updated),
+        new EntryBatchUploaderImpl(entryInserter, entryUpdater,
+            requestScheduler, 1).uploadEntries(newEntries, oldEntries,
+            feedUrl, sitesService));
+  }
+
+  /**
+   * Returns an action which answers a batch request with the requested
+   * entries in reverse order, failing the operation with the given batch id.
+   */
+  private Action answerBatch(final int failedId) {
+    return new Action() {
+      @Override
+      public Object invoke(Invocation invocation) {
+        ContentFeed request = (ContentFeed) invocation.getParameter(1);
+        ContentFeed response = new ContentFeed();
+        for (BaseContentEntry<?> entry : request.getEntries()) {
+          BatchStatus status = BatchStatus.createSuccessStatus();
+          if (BatchUtils.getBatchId(entry).equals(
+              Integer.toString(failedId))) {
+            status = new BatchStatus();
+            status.setCode(409);
+            status.setReason("Conflict");
+          }
+          entry.setExtension(status);
+          response.getEntries().add(0, entry);
+        }
+        return response;
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("answers batch");
+      }
+    };
+  }
+
+  /**
+   * Returns an action which answers the first entry of a batch request and
+   * then throws the exception of a batch the server interrupted.
+   */
+  private Action interruptAfterFirst() {
+    return new Action() {
+      @Override
+      public Object invoke(Invocation invocation) throws Throwable {
+        ContentFeed request = (ContentFeed) invocation.getParameter(1);
+        ContentFeed response = new ContentFeed();
+        BaseContentEntry<?> entry = request.getEntries().get(0);
+        entry.setExtension(BatchStatus.createSuccessStatus());
+        response.getEntries().add(entry);
+        throw new BatchInterruptedException(response, new BatchInterrupted(
+            "Interrupted", request.getEntries().size(), 1, 0));
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("interrupts batch");
+      }
+    };
+  }
+
+  private List<BaseContentEntry<?>> entries(BaseContentEntry<?>... entries) {
+    return Lists.newArrayList(entries);
+  }
+
+  private List<BaseContentEntry<?>> getEntries(int size) {
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      entries.add(new CommentEntry());
+    }
+    return entries;
+  }
+
+  private List<BaseContentEntry<?>> nulls(int size) {
+    return Lists.newArrayList(
+        Collections.<BaseContentEntry<?>>nCopies(size, null));
+  }
+
+  private BaseContentEntry<?> getEntry(String id) {
+    BaseContentEntry<?> entry = new CommentEntry();
+    entry.setId(id);
+    return entry;
+  }
+}
@@ -19,19 +19,27 @@ package com.google.sites.liberation.imprt;
 import static org.junit.Assert.*;
 
 import com.google.common.collect.Lists;
+import com.google.gdata.client.Query;
 import com.google.gdata.client.sites.ContentQuery;
 import com.google.gdata.client.sites.SitesService;
 import com.google.gdata.data.ILink;
+import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.sites.BaseContentEntry;
 import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.CommentEntry;
 import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebAttachmentEntry;
 import com.google.gdata.data.sites.WebPageEntry;
 import com.google.gdata.util.ServiceException;
 import com.google.sites.liberation.util.EntryProvider;
+import com.google.sites.liberation.util.EntryUtils;
+import com.google.sites.liberation.util.RequestSchedulerImpl;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Before;
 import org.junit.Test;
@@ -49,9 +57,12 @@ public class EntryUploaderImplTest {
 
   private Mockery context;
   private SitesService sitesService;
+  private EntryBatchUploader entryBatchUploader;
   private EntryInserter entryInserter;
   private EntryProvider entryProvider;
   private EntryUpdater entryUpdater;
+  private EntryProvider indexProvider;
+  private RemoteEntryIndex remoteEntryIndex;
   private EntryUploader entryUploader;
   private URL feedUrl;
   
@@ -61,12 +72,16 @@ public class EntryUploaderImplTest {
       setImposteriser(ClassImposteriser.INSTANCE);
     }};
     sitesService = context.mock(SitesService.class);
+    entryBatchUploader = context.mock(EntryBatchUploader.class);
     entryInserter = context.mock(EntryInserter.class);
     entryProvider = context.mock(EntryProvider.class);
     entryUpdater = context.mock(EntryUpdater.class);
+    indexProvider = context.mock(EntryProvider.class, "indexProvider");
     feedUrl = new URL("http://sites.google.com/feeds/content/site/test");
-    entryUploader = new EntryUploaderImpl(entryInserter, entryProvider, 
-        entryUpdater);
+    remoteEntryIndex = new RemoteEntryIndex(indexProvider);
+    entryUploader = new EntryUploaderImpl(entryBatchUploader, entryInserter, 
+        entryProvider, entryUpdater, remoteEntryIndex, 
+        new RequestSchedulerImpl(0, 0, 0));
   }
   
   @Test
@@ -143,4 +158,155 @@ public class EntryUploaderImplTest {
     assertEquals(returnedEntry, entryUploader.uploadEntry(newEntry, ancestors,
         feedUrl, sitesService));
   }
+  
+  @Test
+  public void testUploadEntries() throws IOException, ServiceException {
+    final BasePageEntry<?> parent = new WebPageEntry();
+    parent.setPageName(new PageName("parent"));
+    final List<BasePageEntry<?>> ancestors = Lists.newLinkedList();
+    ancestors.add(parent);
+    final BasePageEntry<?> page = new WebPageEntry();
+    page.setPageName(new PageName("entry"));
+    final BaseContentEntry<?> webAttachment = new WebAttachmentEntry();
+    webAttachment.setTitle(new PlainTextConstruct("link"));
+    final BaseContentEntry<?> returnedPage = new WebPageEntry();
+    final BaseContentEntry<?> returnedAttachment = new WebAttachmentEntry();
+    
+    context.checking(new Expectations() {{
+      allowing (entryProvider).getEntries(with(any(ContentQuery.class)), 
+          with(sitesService));
+          will(returnValue(Lists.newArrayList()));
+      oneOf (entryInserter).insertEntry(page, feedUrl, sitesService);
+          will(returnValue(returnedPage));
+      oneOf (entryBatchUploader).uploadEntries(
+          Lists.<BaseContentEntry<?>>newArrayList(webAttachment), 
+          Lists.<BaseContentEntry<?>>newArrayList((BaseContentEntry<?>) null), 
+          feedUrl, sitesService);
+          will(returnValue(entries(returnedAttachment)));
+    }});
+    
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    entries.add(page);
+    entries.add(webAttachment);
+    assertEquals(entries(returnedPage, returnedAttachment), 
+        entryUploader.uploadEntries(entries, ancestors, feedUrl, sitesService));
+  }
+  
+  @Test
+  public void testUploadCommentsQueriesOnce() 
+      throws IOException, ServiceException {
+    final String parentId = feedUrl.toExternalForm() + "/parent";
+    final BaseContentEntry<?> existing = getComment(parentId, "existing");
+    final BaseContentEntry<?> serverComment = new CommentEntry();
+    serverComment.setContent(new PlainTextConstruct("existing"));
+    final BaseContentEntry<?> comment = getComment(parentId, "new");
+    final BaseContentEntry<?> duplicate = getComment(parentId, "new");
+    final BaseContentEntry<?> returnedComment = new CommentEntry();
+    
+    context.checking(new Expectations() {{
+      oneOf (entryProvider).getEntries(with(any(ContentQuery.class)), 
+          with(sitesService));
+          will(returnValue(entries(serverComment)));
+      oneOf (entryBatchUploader).uploadEntries(
+          Lists.<BaseContentEntry<?>>newArrayList(comment), 
+          Lists.<BaseContentEntry<?>>newArrayList((BaseContentEntry<?>) null), 
+          feedUrl, sitesService);
+          will(returnValue(entries(returnedComment)));
+    }});
+    
+    List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    entries.add(existing);
+    entries.add(comment);
+    entries.add(duplicate);
+    assertEquals(entries(existing, returnedComment, duplicate), 
+        entryUploader.uploadEntries(entries, 
+            new LinkedList<BasePageEntry<?>>(), feedUrl, sitesService));
+  }
+  
+  private List<BaseContentEntry<?>> entries(BaseContentEntry<?>... entries) {
+    return Lists.newArrayList(entries);
+  }
+  
+  private BaseContentEntry<?> getComment(String parentId, String content) {
+    BaseContentEntry<?> comment = new CommentEntry();
+    EntryUtils.setContent(comment, content);
+    EntryUtils.setParentId(comment, parentId);
+    return comment;
+  }
+  
+  @Test
+  public void testUploadWithRemoteEntryIndex() 
+      throws IOException, ServiceException {
+    final BasePageEntry<?> remoteParent = new WebPageEntry();
+    remoteParent.setId(feedUrl.toExternalForm() + "/parent");
+    remoteParent.setPageName(new PageName("parent"));
+    final BasePageEntry<?> remoteEntry = new WebPageEntry();
+    remoteEntry.setId(feedUrl.toExternalForm() + "/entry");
+    remoteEntry.setPageName(new PageName("entry"));
+    EntryUtils.setParentId(remoteEntry, remoteParent.getId());
+    final List<BaseContentEntry<?>> remoteEntries = Lists.newArrayList();
+    remoteEntries.add(remoteParent);
+    remoteEntries.add(remoteEntry);
+    
+    final BasePageEntry<?> parent = new WebPageEntry();
+    parent.setPageName(new PageName("parent"));
+    final List<BasePageEntry<?>> ancestors = Lists.newLinkedList();
+    ancestors.add(parent);
+    final BasePageEntry<?> updatedEntry = new WebPageEntry();
+    updatedEntry.setPageName(new PageName("entry"));
+    final BasePageEntry<?> insertedEntry = new WebPageEntry();
+    insertedEntry.setPageName(new PageName("other"));
+    final BaseContentEntry<?> returnedEntry = new WebPageEntry();
+    
+    context.checking(new Expectations() {{
+      allowing (indexProvider).getEntries(with(any(ContentQuery.class)), 
+          with(sitesService));
+          will(new CustomAction("return the remote entries once") {
+            @Override
+            public Object invoke(Invocation invocation) {
+              Query query = (Query) invocation.getParameter(0);
+              return (query.getStartIndex() == 1) ? remoteEntries 
+                  : Lists.newArrayList();
+            }
+          });
+      never (entryProvider);
+      oneOf (entryUpdater).updateEntry(remoteEntry, updatedEntry, 
+          sitesService);
+          will(returnValue(returnedEntry));
+      oneOf (entryInserter).insertEntry(insertedEntry, feedUrl, sitesService);
+          will(returnValue(returnedEntry));
+    }});
+    
+    remoteEntryIndex.load(feedUrl, sitesService);
+    assertEquals(returnedEntry, entryUploader.uploadEntry(updatedEntry, 
+        ancestors, feedUrl, sitesService));
+    assertEquals(returnedEntry, entryUploader.uploadEntry(insertedEntry, 
+        ancestors, feedUrl, sitesService));
+  }
+  
+  @Test
+  public void testIncompleteRemoteEntryIndex() 
+      throws IOException, ServiceException {
+    final String id = feedUrl.toExternalForm() + "/entry";
+    final BaseContentEntry<?> newEntry = new WebPageEntry();
+    newEntry.setId(id);
+    final BaseContentEntry<?> oldEntry = new WebPageEntry();
+    oldEntry.setId(id);
+    final BaseContentEntry<?> returnedEntry = new WebPageEntry();
+    
+    context.checking(new Expectations() {{
+      allowing (indexProvider).getEntries(with(any(ContentQuery.class)), 
+          with(sitesService));
+          will(throwException(new ServiceException("Error")));
+      oneOf (sitesService).getEntry(new URL(id), WebPageEntry.class);
+          will(returnValue(oldEntry));
+      oneOf (entryUpdater).updateEntry(oldEntry, newEntry, sitesService);
+          will(returnValue(returnedEntry));
+    }});
+    
+    remoteEntryIndex.load(feedUrl, sitesService);
+    assertFalse(remoteEntryIndex.isLoaded(feedUrl));
+    assertEquals(returnedEntry, entryUploader.uploadEntry(newEntry, 
+        new LinkedList<BasePageEntry<?>>(), feedUrl, sitesService));
+  }
 }
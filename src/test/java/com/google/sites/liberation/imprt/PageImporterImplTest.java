@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.ListItemEntry;
+import com.google.gdata.data.sites.ListPageEntry;
+import com.google.gdata.data.spreadsheet.Data;
+import com.google.sites.liberation.parsers.PageParser;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+public class PageImporterImplTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Mockery context;
+  private EntryUploader entryUploader;
+  private PageParser pageParser;
+  private RelativeLinkConverter linkConverter;
+  private PageImporter pageImporter;
+  private SitesService sitesService;
+  private File directory;
+  private URL feedUrl;
+  private URL siteUrl;
+  private ListPageEntry page;
+  private ListPageEntry returnedPage;
+  private List<BaseContentEntry<?>> items;
+
+  @Before
+  public void before() throws IOException {
+    context = new JUnit4Mockery() {{
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }};
+    entryUploader = context.mock(EntryUploader.class);
+    pageParser = context.mock(PageParser.class);
+    linkConverter = context.mock(RelativeLinkConverter.class);
+    pageImporter = new PageImporterImpl(context.mock(EntryUpdater.class),
+        entryUploader, pageParser, linkConverter,
+        context.mock(RevisionsImporter.class));
+    sitesService = context.mock(SitesService.class);
+    directory = folder.newFolder("list");
+    new File(directory, "index.html").createNewFile();
+    feedUrl = new URL("https://sites.google.com/feeds/content/domain/site");
+    siteUrl = new URL("https://sites.google.com/a/domain/site");
+    page = new ListPageEntry();
+    returnedPage = new ListPageEntry();
+    returnedPage.setId(feedUrl + "/list");
+    returnedPage.setData(new Data());
+    items = Lists.newArrayList();
+    items.add(new ListItemEntry());
+    items.add(new ListItemEntry());
+  }
+
+  @Test
+  public void testImportPage() {
+    expectUpload(items);
+    ImportedPage imported = importPage();
+    assertSame(returnedPage, imported.getEntry());
+    assertTrue(imported.isComplete());
+  }
+
+  @Test
+  public void testChildFailure() {
+    List<BaseContentEntry<?>> uploaded = Lists.newArrayList();
+    uploaded.add(items.get(0));
+    uploaded.add(null);
+    expectUpload(uploaded);
+    ImportedPage imported = importPage();
+    assertSame(returnedPage, imported.getEntry());
+    assertFalse(imported.isComplete());
+  }
+
+  private ImportedPage importPage() {
+    return pageImporter.importPage(directory, false,
+        Lists.<BasePageEntry<?>>newArrayList(), feedUrl, siteUrl,
+        sitesService);
+  }
+
+  private void expectUpload(final List<BaseContentEntry<?>> uploaded) {
+    final List<BaseContentEntry<?>> entries = Lists.newArrayList();
+    entries.add(page);
+    entries.addAll(items);
+    context.checking(new Expectations() {{
+      oneOf (pageParser).parsePage(new File(directory, "index.html"));
+        will(returnValue(entries));
+      oneOf (linkConverter).convertLinks(with(same(page)),
+          with(any(List.class)), with(equal(siteUrl)), with(equal(false)));
+      oneOf (entryUploader).uploadEntry(with(same(page)),
+          with(any(List.class)), with(equal(feedUrl)),
+          with(same(sitesService)));
+        will(returnValue(returnedPage));
+      oneOf (entryUploader).uploadEntries(with(equal(items)),
+          with(any(List.class)), with(equal(feedUrl)),
+          with(same(sitesService)));
+        will(returnValue(uploaded));
+    }});
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.PageName;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Random;
+
+public class RelativeLinkConverterImplTest {
+
+  private static final String URL = "https://sites.google.com/a/domain/site";
+  
+  private List<BasePageEntry<?>> ancestors;
+  
+  @Before
+  public void setUp() {
+    ancestors = Lists.newArrayList();
+    for (String name : new String[] { "grandparent", "parent" }) {
+      BasePageEntry<?> ancestor = new WebPageEntry();
+      ancestor.setPageName(new PageName(name));
+      ancestors.add(ancestor);
+    }
+  }
+  
+  @Test
+  public void testConvertLinks() throws Exception {
+    BasePageEntry<?> page = new WebPageEntry();
+    EntryUtils.setContent(page, "<div><a href=\"../sibling/index.html\">a</a>"
+        + "<a href='../../../home/index.html'>b</a>"
+        + "<a href=\"http://elsewhere.com/x\">c</a></div>");
+    new RelativeLinkConverterImpl().convertLinks(page, ancestors, 
+        new URL(URL), false);
+    assertEquals("<div><a href=\"" + URL + "/grandparent/parent/sibling\">a</a>"
+        + "<a href='" + URL + "/home'>b</a>"
+        + "<a href=\"http://elsewhere.com/x\">c</a></div>",
+        EntryUtils.getXhtmlContent(page));
+  }
+  
+  @Test
+  public void testSameAsRepeatedSearch() {
+    Random random = new Random(42);
+    String[] pieces = { "<a href=\"../page/index.html\">", 
+        "<a href='../../a/b'>", "<a href=\"../../../../../x/index.html\">", 
+        "<a href='\"../x\"'>", "<a href=\"http://other/\">", "<a href=\"../\">",
+        "</a>", "href=", "text", "../" };
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder content = new StringBuilder();
+      int length = random.nextInt(30);
+      for (int j = 0; j < length; j++) {
+        content.append(pieces[random.nextInt(pieces.length)]);
+      }
+      for (boolean isRevision : new boolean[] { false, true }) {
+        assertEquals(convertByRepeatedSearch(content.toString(), isRevision),
+            RelativeLinkConverterImpl.convertLinks(content.toString(), 
+                ancestors, URL, isRevision));
+      }
+    }
+  }
+  
+  /**
+   * The previous implementation, which searched the whole content again 
+   * after each replacement, for each kind of quote in turn.
+   */
+  private String convertByRepeatedSearch(String content, boolean isRevision) {
+    content = convertByRepeatedSearch(content, isRevision, "href=\"", "\"");
+    return convertByRepeatedSearch(content, isRevision, "href='", "'");
+  }
+  
+  private String convertByRepeatedSearch(String content, boolean isRevision,
+      String prefix, String suffix) {
+    int index = content.indexOf(prefix + "../");
+    while (index != -1) {
+      int startIndex = index + prefix.length();
+      int endIndex = content.indexOf(suffix, startIndex);
+      if (endIndex == -1) {
+        break;
+      }
+      String link = content.substring(startIndex, endIndex);
+      if (link.startsWith("../")) {
+        if (isRevision) {
+          link = link.substring(3);
+        }
+        int ancestorIndex = ancestors.size();
+        while (link.startsWith("../") && ancestorIndex >= 0) {
+          link = link.substring(3);
+          ancestorIndex--;
+        }
+        String str = "";
+        while (ancestorIndex >= 0 && ancestorIndex < ancestors.size()) {
+          str = ancestors.get(ancestorIndex).getPageName().getValue() + "/" 
+              + str;
+          ancestorIndex--;
+        }
+        link = str + link;
+      }
+      if (link.endsWith("/index.html")) {
+        link = link.substring(0, link.lastIndexOf("/index.html"));
+      }
+      String beforeLink = content.substring(0, startIndex);
+      String afterLink = content.substring(endIndex);
+      content = beforeLink + URL + "/" + link + afterLink;
+      index = content.indexOf(prefix + "../");
+    }
+    return content;
+  }
+}
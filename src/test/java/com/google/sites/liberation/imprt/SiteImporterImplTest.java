@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.imprt;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Sets;
+import com.google.gdata.client.sites.SitesService;
+import com.google.gdata.data.sites.BasePageEntry;
+import com.google.gdata.data.sites.WebPageEntry;
+import com.google.sites.liberation.util.EntryProvider;
+import com.google.sites.liberation.util.ProgressListener;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class SiteImporterImplTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Mockery context;
+  private EntryProvider entryProvider;
+  private PageImporter pageImporter;
+  private ProgressListener progressListener;
+  private SitesService sitesService;
+  private File rootDirectory;
+  private File page1;
+  private File page2;
+
+  @Before
+  public void before() throws IOException {
+    context = new JUnit4Mockery() {{
+      setImposteriser(ClassImposteriser.INSTANCE);
+      setThreadingPolicy(new Synchroniser());
+    }};
+    entryProvider = context.mock(EntryProvider.class);
+    pageImporter = context.mock(PageImporter.class);
+    progressListener = context.mock(ProgressListener.class);
+    sitesService = context.mock(SitesService.class);
+    rootDirectory = folder.newFolder("site");
+    page1 = new File(rootDirectory, "page1");
+    page2 = new File(page1, "page2");
+    writeFile(new File(page1, "index.html"), "page 1");
+    writeFile(new File(page1, "attachment.txt"), "attachment");
+    writeFile(new File(page2, "index.html"), "page 2");
+    context.checking(new Expectations() {{
+      ignoring (progressListener);
+    }});
+  }
+
+  @Test
+  public void testSkipsUnchangedPages() throws IOException {
+    expectImport(page1, "id1");
+    expectImport(page2, "id2");
+    importSite(true);
+    assertTrue(new File(rootDirectory, ImportManifest.FILE_NAME).isFile());
+    context.assertIsSatisfied();
+
+    importSite(true);
+    context.assertIsSatisfied();
+
+    writeFile(new File(page1, "attachment.txt"), "changed");
+    expectImport(page1, "id1");
+    importSite(true);
+    context.assertIsSatisfied();
+  }
+
+  @Test
+  public void testChildOfUnchangedPage() throws IOException {
+    expectImport(page1, "id1");
+    expectImport(page2, "id2");
+    importSite(true);
+    context.assertIsSatisfied();
+
+    writeFile(new File(page2, "index.html"), "changed");
+    expectImport(page2, "id2");
+    importSite(true);
+    context.assertIsSatisfied();
+    assertEquals("id1", ImportManifest.read(rootDirectory)
+        .getRecord("page1/page2").parentId);
+  }
+
+  @Test
+  public void testImportsIncompletePageAgain() throws IOException {
+    expectImport(page1, "id1", false);
+    expectImport(page2, "id2");
+    importSite(true);
+    context.assertIsSatisfied();
+    assertNull(ImportManifest.read(rootDirectory).getRecord("page1"));
+    assertNotNull(ImportManifest.read(rootDirectory).getRecord("page1/page2"));
+
+    expectImport(page1, "id1");
+    importSite(true);
+    context.assertIsSatisfied();
+    assertNotNull(ImportManifest.read(rootDirectory).getRecord("page1"));
+  }
+
+  @Test
+  public void testImportsEverythingWhenNotSkipping() throws IOException {
+    expectImport(page1, "id1");
+    expectImport(page2, "id2");
+    importSite(true);
+    context.assertIsSatisfied();
+
+    expectImport(page1, "id1");
+    expectImport(page2, "id2");
+    importSite(false);
+  }
+
+  @Test
+  public void testResumesInterruptedImport() throws IOException {
+    expectImport(page1, "id1");
+    context.checking(new Expectations() {{
+      oneOf (pageImporter).importPage(with(equal(page2)),
+          with(equal(false)), with(any(List.class)), with(any(URL.class)),
+          with(any(URL.class)), with(equal(sitesService)));
+        will(throwException(new IllegalStateException("Network down")));
+    }});
+    try {
+      importSite(false);
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertTrue(new File(rootDirectory, ImportManifest.JOURNAL_NAME)
+          .isFile());
+    }
+    context.assertIsSatisfied();
+
+    expectImport(page2, "id2");
+    importSite(false);
+    context.assertIsSatisfied();
+    assertFalse(new File(rootDirectory, ImportManifest.JOURNAL_NAME).isFile());
+    assertEquals("id1", ImportManifest.read(rootDirectory)
+        .getRecord("page1/page2").parentId);
+  }
+
+  @Test
+  public void testParentsBeforeChildren() throws IOException {
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        writeFile(new File(rootDirectory, "a" + i + "/b" + j + "/index.html"),
+            "b" + j);
+      }
+      writeFile(new File(rootDirectory, "a" + i + "/index.html"), "a" + i);
+    }
+    final Set<String> imported = Collections.synchronizedSet(
+        Sets.<String>newHashSet());
+    PageImporter recordingImporter = new PageImporter() {
+      @Override
+      public ImportedPage importPage(File directory,
+          boolean importRevisions, List<BasePageEntry<?>> ancestors,
+          URL feedUrl, URL siteUrl, SitesService sitesService) {
+        String id = directory.getPath();
+        if (!ancestors.isEmpty()) {
+          String parentId = ancestors.get(ancestors.size() - 1).getId();
+          assertEquals(directory.getParent(), parentId);
+          assertTrue(imported.contains(parentId));
+        }
+        assertTrue(imported.add(id));
+        return new ImportedPage(getPage(id), true);
+      }
+    };
+    new SiteImporterImpl(recordingImporter,
+        new RemoteEntryIndex(entryProvider), false, false, 3).importSite(
+        "sites.google.com", null, "webspace", false, sitesService,
+        rootDirectory, progressListener);
+    assertEquals(22, imported.size());
+  }
+
+  private void importSite(boolean skipUnchangedPages) {
+    new SiteImporterImpl(pageImporter, new RemoteEntryIndex(entryProvider),
+        skipUnchangedPages, false, 1).importSite("sites.google.com", null,
+        "webspace", false, sitesService, rootDirectory, progressListener);
+  }
+
+  private void expectImport(File directory, String id) {
+    expectImport(directory, id, true);
+  }
+
+  private void expectImport(final File directory, final String id,
+      final boolean complete) {
+    context.checking(new Expectations() {{
+      oneOf (pageImporter).importPage(with(equal(directory)),
+          with(equal(false)), with(any(List.class)), with(any(URL.class)),
+          with(any(URL.class)), with(equal(sitesService)));
+        will(returnValue(new ImportedPage(getPage(id), complete)));
+    }});
+  }
+
+  private BasePageEntry<?> getPage(String id) {
+    WebPageEntry page = new WebPageEntry();
+    page.setId(id);
+    return page;
+  }
+
+  private void writeFile(File file, String contents) throws IOException {
+    file.getParentFile().mkdirs();
+    Writer out = new FileWriter(file);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+}
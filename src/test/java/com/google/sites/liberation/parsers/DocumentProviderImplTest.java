@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.parsers;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.sites.liberation.util.EntryType;
+import com.google.sites.liberation.util.EntryUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+public class DocumentProviderImplTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DocumentProvider documentProvider;
+  private PageParser pageParser;
+
+  @Before
+  public void setUp() {
+    Injector injector = Guice.createInjector();
+    documentProvider = injector.getInstance(DocumentProvider.class);
+    pageParser = injector.getInstance(PageParser.class);
+  }
+
+  @Test
+  public void testMalformedPageTidiedWithoutDoctype() throws IOException {
+    Document document = documentProvider.getDocument(
+        write("malformed", getPage(false)));
+    assertNull(document.getDoctype());
+    assertEquals("html", document.getDocumentElement().getTagName());
+  }
+
+  @Test
+  public void testMalformedPageParsesLikeWellFormedPage() throws IOException {
+    List<BaseContentEntry<?>> expected =
+        pageParser.parsePage(write("wellformed", getPage(true)));
+    List<BaseContentEntry<?>> actual =
+        pageParser.parsePage(write("malformed", getPage(false)));
+    assertEquals(2, expected.size());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      BaseContentEntry<?> expectedEntry = expected.get(i);
+      BaseContentEntry<?> actualEntry = actual.get(i);
+      assertEquals(EntryType.getType(expectedEntry),
+          EntryType.getType(actualEntry));
+      assertEquals(expectedEntry.getId(), actualEntry.getId());
+      assertEquals(getTitle(expectedEntry), getTitle(actualEntry));
+      assertEquals(expectedEntry.getAuthors().get(0).getEmail(),
+          actualEntry.getAuthors().get(0).getEmail());
+      assertEquals(expectedEntry.getUpdated(), actualEntry.getUpdated());
+      assertEquals(normalize(EntryUtils.getXhtmlContent(expectedEntry)),
+          normalize(EntryUtils.getXhtmlContent(actualEntry)));
+    }
+  }
+
+  /**
+   * Returns a web page with a comment, in which a malformed page leaves its
+   * paragraph and line break open and uses an entity XML does not define.
+   */
+  private static String getPage(boolean wellFormed) {
+    String author = "<span class=\"author\"><span class=\"vcard\">"
+        + "<a class=\"fn\" href=\"mailto:author@domain.com\">Author</a>"
+        + "</span></span>";
+    String updated = "<abbr class=\"updated\" "
+        + "title=\"2009-07-01T12:00:00.000Z\">Jul 1, 2009</abbr>";
+    return "<html><head><title>Page</title></head><body>"
+        + "<div class=\"hentry webpage\" id=\"http://host/page\">"
+        + "<h3><span class=\"entry-title\">Page</span></h3>"
+        + "<div class=\"entry-content\"><div><p>Some text"
+        + (wellFormed ? "&#160;" : "&nbsp;")
+        + "<a href=\"../other/index.html\">a link</a>"
+        + (wellFormed ? "<br/></p>" : "<br>")
+        + "</div></div>"
+        + "<small>Updated on " + updated + " by " + author + "</small>"
+        + "<div class=\"hentry comment\" id=\"http://host/comment\">"
+        + author + " - " + updated
+        + "<div class=\"entry-content\"><div>A comment"
+        + (wellFormed ? "&#160;" : "&nbsp;") + "here.</div></div></div>"
+        + "</div></body></html>";
+  }
+
+  private static String getTitle(BaseContentEntry<?> entry) {
+    return (entry.getTitle() == null) ? null 
+        : entry.getTitle().getPlainText();
+  }
+
+  /**
+   * Returns the given xhtml with the white space JTidy may add removed.
+   */
+  private static String normalize(String xhtml) {
+    return xhtml.replaceAll("\\s+", "");
+  }
+
+  private File write(String name, String html) throws IOException {
+    File file = new File(folder.newFolder(name), "index.html");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+        "UTF-8");
+    try {
+      writer.write(html);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+}
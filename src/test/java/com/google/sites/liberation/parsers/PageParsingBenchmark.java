@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.parsers;
+
+import com.google.common.collect.Lists;
+import com.google.gdata.data.sites.BaseContentEntry;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures, in pages per second, the parsing of generated hCard and hAtom
+ * index.html files like those written by the export, with a given number of
+ * comments or list items. Well-formed pages are read straight into a DOM,
+ * while malformed ones fail to parse and go through JTidy first.
+ *
+ * <p>Run with {@code java -cp <test classpath>
+ * com.google.sites.liberation.parsers.PageParsingBenchmark} after
+ * {@code mvn test-compile} to also see allocation rates, or through
+ * {@code org.openjdk.jmh.Main PageParsing} with {@code -prof gc}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageParsingBenchmark {
+
+  private static final String ID_PREFIX =
+      "https://sites.google.com/feeds/content/domain/site/";
+  private static final int COLUMNS = 5;
+
+  @Param({"10", "100", "1000"})
+  public int entries;
+
+  @Param({"true", "false"})
+  public boolean wellFormed;
+
+  private File directory;
+  private File webPage;
+  private File listPage;
+  private DocumentProvider documentProvider;
+  private EntryParser entryParser;
+  private PageParser pageParser;
+  private List<Element> entryElements;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = File.createTempFile("page-parsing", "");
+    directory.delete();
+    directory.mkdir();
+    // Each page is in its own folder, as JTidy writes index.xml beside it.
+    webPage = write("webpage", webPage(entries, wellFormed));
+    listPage = write("listpage", listPage(entries, wellFormed));
+    Injector injector = Guice.createInjector();
+    documentProvider = injector.getInstance(DocumentProvider.class);
+    entryParser = injector.getInstance(EntryParser.class);
+    pageParser = injector.getInstance(PageParser.class);
+    entryElements = Lists.newArrayList();
+    findEntries(documentProvider.getDocument(webPage).getDocumentElement(),
+        entryElements);
+    if (pageParser.parsePage(webPage).size() != entries + 1) {
+      throw new IllegalStateException("Generated page did not parse.");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    delete(directory);
+  }
+
+  @Benchmark
+  public Document parseDocument() throws IOException {
+    return documentProvider.getDocument(webPage);
+  }
+
+  @Benchmark
+  public int parseEntries() {
+    int parsed = 0;
+    for (Element element : entryElements) {
+      if (entryParser.parseEntry(element) != null) {
+        parsed++;
+      }
+    }
+    return parsed;
+  }
+
+  @Benchmark
+  public List<BaseContentEntry<?>> parsePage() {
+    return pageParser.parsePage(webPage);
+  }
+
+  @Benchmark
+  public List<BaseContentEntry<?>> parseListPage() {
+    return pageParser.parsePage(listPage);
+  }
+
+  /**
+   * Runs these benchmarks with the allocation profiler.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PageParsingBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+
+  /**
+   * Returns a web page holding link-heavy content and the given number of
+   * comments. A malformed page leaves its paragraphs and line breaks open
+   * and uses an entity XML does not define.
+   */
+  private static String webPage(int comments, boolean wellFormed) {
+    StringBuilder builder = new StringBuilder();
+    startPage(builder, "webpage", "page", "Web Page");
+    builder.append("<div class=\"entry-content\"><div>");
+    for (int i = 0; i < 50; i++) {
+      builder.append("<p>Some text before link ").append(i).append('.')
+          .append(wellFormed ? "&#160;" : "&nbsp;")
+          .append("<a href=\"../page-").append(i).append("/index.html\">")
+          .append("page ").append(i).append("</a>")
+          .append(wellFormed ? "<br/></p>" : "<br>");
+    }
+    builder.append("</div></div>");
+    builder.append("<small>Updated on ").append(updated()).append(" by ")
+        .append(author()).append("</small>");
+    builder.append("<div><b>Comments (").append(comments)
+        .append(")</b><br/>");
+    for (int i = 0; i < comments; i++) {
+      builder.append("<div class=\"hentry comment\" id=\"").append(ID_PREFIX)
+          .append("comment").append(i).append("\">")
+          .append(author()).append(" - ").append(updated())
+          .append("<div class=\"entry-content\"><div>A comment ")
+          .append(wellFormed ? "" : "<p>").append("on the page ")
+          .append(i).append(".</div></div></div>");
+    }
+    builder.append("</div>");
+    return endPage(builder);
+  }
+
+  /**
+   * Returns a list page holding the given number of list items.
+   */
+  private static String listPage(int items, boolean wellFormed) {
+    StringBuilder builder = new StringBuilder();
+    startPage(builder, "listpage", "list", "List Page");
+    builder.append("<div class=\"entry-content\"><div>A list.</div></div>");
+    builder.append("<table border=\"1\"><tr class=\"gs:data\">");
+    for (int c = 0; c < COLUMNS; c++) {
+      builder.append("<th class=\"gs:column\" title=\"").append(column(c))
+          .append("\">Column ").append(c).append("</th>");
+    }
+    builder.append("<th>Author</th><th>Updated</th><th>Version</th></tr>");
+    for (int i = 0; i < items; i++) {
+      builder.append("<tr class=\"hentry listitem\" id=\"").append(ID_PREFIX)
+          .append("item").append(i).append("\">");
+      for (int c = 0; c < COLUMNS; c++) {
+        builder.append("<td class=\"gs:field\" title=\"").append(column(c))
+            .append("\">Value ").append(i).append('.').append(c)
+            .append(wellFormed ? "</td>" : "");
+      }
+      builder.append("<td>").append(author()).append("</td><td>")
+          .append(updated()).append("</td><td>")
+          .append("<span class=\"sites:revision\">1</span></td></tr>");
+    }
+    builder.append("</table>");
+    return endPage(builder);
+  }
+
+  private static void startPage(StringBuilder builder, String type, String id,
+      String title) {
+    builder.append("<html><head><title>").append(title)
+        .append("</title></head><body><table width=\"100%\">")
+        .append("<tr valign=\"top\"><td width=\"150px\"></td><td>")
+        .append("<div class=\"hentry ").append(type).append("\" id=\"")
+        .append(ID_PREFIX).append(id).append("\">")
+        .append("<h3><span class=\"entry-title\">").append(title)
+        .append("</span></h3>");
+  }
+
+  private static String endPage(StringBuilder builder) {
+    return builder.append("</div></td></tr></table></body></html>")
+        .toString();
+  }
+
+  private static String author() {
+    return "<span class=\"author\"><span class=\"vcard\">"
+        + "<a class=\"fn\" href=\"mailto:author@domain.com\">Author</a>"
+        + "</span></span>";
+  }
+
+  private static String updated() {
+    return "<abbr class=\"updated\" title=\"2009-07-01T12:00:00.000Z\">"
+        + "Jul 1, 2009</abbr>";
+  }
+
+  private static String column(int column) {
+    return String.valueOf((char) ('A' + column));
+  }
+
+  private File write(String name, String html) throws IOException {
+    File folder = new File(directory, name);
+    folder.mkdir();
+    File file = new File(folder, "index.html");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+        "UTF-8");
+    try {
+      writer.write(html);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  private static void findEntries(Element element, List<Element> found) {
+    NodeList nodeList = element.getChildNodes();
+    for (int i = 0; i < nodeList.getLength(); i++) {
+      Node node = nodeList.item(i);
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        Element child = (Element) node;
+        if (ParserUtils.hasClass(child, "hentry")) {
+          found.add(child);
+        }
+        findEntries(child, found);
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
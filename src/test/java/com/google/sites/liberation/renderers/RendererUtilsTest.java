@@ -27,10 +27,14 @@ import com.google.gdata.data.Person;
 import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.XhtmlTextConstruct;
 import com.google.gdata.util.XmlBlob;
+import com.google.sites.liberation.util.EntryUtils;
 import com.google.sites.liberation.util.XmlElement;
+import com.google.sites.liberation.util.XmlWriter;
 
 import org.junit.Test;
 
+import java.io.IOException;
+
 public class RendererUtilsTest {
 
   @Test
@@ -134,4 +138,34 @@ public class RendererUtilsTest {
     assertEquals("<abbr class=\"updated\" title=\"" + date + 
         "\">Nov 25, 2598</abbr>", element.toString());
   }
+
+  @Test
+  public void testWritersMatchElements() throws IOException {
+    Person author = new Person();
+    author.setName("Ben Simon");
+    BaseContentEntry<?> entry = new WebPageEntry();
+    entry.setId("page");
+    entry.getAuthors().add(author);
+    entry.setRevision(new Revision(3));
+    entry.setUpdated(DateTime.parseDateTime("2009-07-02T21:46:23.133Z"));
+    XmlBlob blob = new XmlBlob();
+    blob.setBlob("<div>content</div>");
+    entry.setContent(new XhtmlTextConstruct(blob));
+    StringBuilder elements = new StringBuilder();
+    RendererUtils.getAuthorElement(entry).appendTo(elements);
+    RendererUtils.getXhtmlContentElement(entry).appendTo(elements);
+    RendererUtils.getRevisionElement(entry).appendTo(elements);
+    RendererUtils.getUpdatedElement(entry).appendTo(elements);
+    RendererUtils.getEntryElement(entry, "tr").appendTo(elements);
+    StringBuilder written = new StringBuilder();
+    XmlWriter writer = new XmlWriter(written);
+    RendererUtils.writeAuthor(entry, writer);
+    RendererUtils.writeXhtmlContent(EntryUtils.getXhtmlContent(entry), 
+        writer);
+    RendererUtils.writeRevision(entry, writer);
+    RendererUtils.writeUpdated(entry, writer);
+    RendererUtils.startEntryElement(entry, "tr", writer);
+    writer.end();
+    assertEquals(elements.toString(), written.toString());
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class MainTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void before() throws IOException {
+    directory = folder.newFolder("exports");
+  }
+
+  @Test
+  public void testFindInterruptedExport() throws IOException {
+    assertNull(Main.findInterruptedExport(directory));
+    newSite("2009-07-01", "a", true);
+    newSite("2009-07-01", "b", false);
+    newSite("2009-07-02", "a", false);
+    newSite("2009-07-03", "a", false);
+    new File(directory, "2009-07-04").mkdir();
+    assertEquals("2009-07-01", Main.findInterruptedExport(directory));
+    newSite("2009-07-02", "b", true);
+    assertEquals("2009-07-02", Main.findInterruptedExport(directory));
+  }
+
+  @Test
+  public void testNoInterruptedExport() throws IOException {
+    newSite("2009-07-01", "a", false);
+    newSite("2009-07-02", "a", false);
+    assertNull(Main.findInterruptedExport(directory));
+  }
+
+  @Test
+  public void testWithoutExportedSites() throws IOException {
+    newSite("2009-07-01", "a", false);
+    newSite("2009-07-01", "b", true);
+    assertEquals(Arrays.asList("b", "c"), Main.withoutExportedSites(
+        Arrays.asList("a", "b", "c"), new File(directory, "2009-07-01")));
+  }
+
+  private void newSite(String date, String webspace, boolean interrupted)
+      throws IOException {
+    File siteDirectory = new File(new File(directory, date), webspace);
+    siteDirectory.mkdirs();
+    if (interrupted) {
+      new File(siteDirectory, ".export-checkpoint").createNewFile();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.client.sites.SitesService;
+import com.google.sites.liberation.export.SiteExportResult;
+import com.google.sites.liberation.export.SiteExporter;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MultiSiteExporterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Mockery context;
+  private SitesService sitesService;
+  private File rootDirectory;
+
+  @Before
+  public void before() throws IOException {
+    context = new JUnit4Mockery() {{
+      setImposteriser(ClassImposteriser.INSTANCE);
+      setThreadingPolicy(new Synchroniser());
+    }};
+    sitesService = context.mock(SitesService.class);
+    rootDirectory = folder.newFolder("export");
+  }
+
+  @Test
+  public void testExportSites() {
+    FakeSiteExporter siteExporter = new FakeSiteExporter();
+    MultiSiteExporter exporter = new MultiSiteExporter(siteExporter, 2);
+    List<MultiSiteExporter.SiteSummary> summaries = exporter.exportSites(
+        "sites.google.com", "domain", Arrays.asList("a", "b", "c", "fail",
+        "d"), false, sitesService, rootDirectory, null);
+    assertEquals(5, summaries.size());
+    assertEquals("a", summaries.get(0).getWebspace());
+    assertEquals("d", summaries.get(4).getWebspace());
+    assertNull(summaries.get(0).getFailure());
+    assertEquals(3, summaries.get(0).getEntries());
+    assertEquals(0, summaries.get(0).getFailedPages());
+    assertEquals(0, summaries.get(0).getFailedAttachments());
+    assertEquals(1, summaries.get(1).getFailedPages());
+    assertEquals(2, summaries.get(2).getFailedAttachments());
+    assertEquals("fail", summaries.get(3).getWebspace());
+    assertTrue(summaries.get(3).getFailure() instanceof IllegalStateException);
+    assertEquals(0, summaries.get(3).getEntries());
+    assertEquals(5, siteExporter.exported.get());
+    assertTrue(siteExporter.maxInFlight.get() <= 2);
+  }
+
+  @Test
+  public void testPreviousDirectory() {
+    FakeSiteExporter siteExporter = new FakeSiteExporter();
+    File previousRoot = new File(folder.getRoot(), "previous");
+    new MultiSiteExporter(siteExporter, 1).exportSites("sites.google.com",
+        null, Arrays.asList("a"), false, sitesService, rootDirectory,
+        previousRoot);
+    assertEquals(new File(previousRoot, "a"), siteExporter.previousDirectory);
+  }
+
+  /**
+   * A SiteExporter which finds three entries in each site, fails to export a
+   * page of "b" and two attachments of "c", and fails for the webspace 
+   * "fail".
+   */
+  private static class FakeSiteExporter implements SiteExporter {
+
+    final AtomicInteger exported = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    volatile File previousDirectory;
+
+    @Override
+    public SiteExportResult exportSite(String host, String domain, 
+        String webspace, boolean exportRevisions, SitesService sitesService,
+        File rootDirectory, ProgressListener progressListener) {
+      return exportSite(host, domain, webspace, exportRevisions, sitesService,
+          rootDirectory, null, progressListener);
+    }
+
+    @Override
+    public SiteExportResult exportSite(String host, String domain, 
+        String webspace, boolean exportRevisions, SitesService sitesService,
+        File rootDirectory, File previousDirectory,
+        ProgressListener progressListener) {
+      this.previousDirectory = previousDirectory;
+      int current = inFlight.incrementAndGet();
+      synchronized (maxInFlight) {
+        maxInFlight.set(Math.max(maxInFlight.get(), current));
+      }
+      try {
+        exported.incrementAndGet();
+        if (webspace.equals("fail")) {
+          throw new IllegalStateException("Export failed");
+        }
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      return new SiteExportResult(3, webspace.equals("b") ? 1 : 0,
+          webspace.equals("c") ? 2 : 0);
+    }
+  }
+}
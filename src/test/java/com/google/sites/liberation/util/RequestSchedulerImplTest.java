@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static org.junit.Assert.*;
+
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.ServiceUnavailableException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestSchedulerImplTest {
+
+  @Test
+  public void testRetriesUnavailable() throws IOException, ServiceException {
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    assertEquals("done", scheduler.execute(
+        new FailingRequest(2, new ServiceUnavailableException("Unavailable"))));
+    assertEquals(1, scheduler.getRequestCount());
+    assertEquals(2, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testRetriesQuotaExceeded() throws IOException, ServiceException {
+    ServiceException e = new ServiceForbiddenException("Forbidden");
+    e.setResponseBody("<error><reason>quotaExceeded</reason></error>");
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    assertEquals("done", scheduler.execute(new FailingRequest(1, e)));
+    assertEquals(1, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testRetriesRateLimitCode() throws IOException, ServiceException {
+    ServiceException e = new ServiceForbiddenException("Forbidden");
+    e.setCode("userRateLimitExceeded");
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    assertEquals("done", scheduler.executeNonIdempotent(
+        new FailingRequest(1, e)));
+    assertEquals(1, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testRetriesTooManyRequests()
+      throws IOException, ServiceException {
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    assertEquals("done", scheduler.executeNonIdempotent(
+        new FailingRequest(1, new ServiceException("Too Many Requests"))));
+    assertEquals(1, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testDoesNotRetryOtherForbidden() throws IOException {
+    ServiceException e = new ServiceForbiddenException("Forbidden");
+    e.setResponseBody("Unable to generate the page at this rate.");
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    try {
+      scheduler.execute(new FailingRequest(1, e));
+      fail("Expected ServiceException");
+    } catch (ServiceException caught) {
+      assertSame(e, caught);
+    }
+    assertEquals(0, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testRetriesServerErrorOnlyIfIdempotent()
+      throws IOException, ServiceException {
+    ServiceException e = new ServiceException("Internal Server Error");
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    assertEquals("done", scheduler.execute(new FailingRequest(1, e)));
+    assertEquals(1, scheduler.getRetryCount());
+    try {
+      scheduler.executeNonIdempotent(new FailingRequest(1, e));
+      fail("Expected ServiceException");
+    } catch (ServiceException caught) {
+      assertSame(e, caught);
+    }
+    assertEquals(1, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testGivesUp() throws IOException {
+    ServiceException e = new ServiceUnavailableException("Unavailable");
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 2);
+    try {
+      scheduler.execute(new FailingRequest(5, e));
+      fail("Expected ServiceException");
+    } catch (ServiceException caught) {
+      assertSame(e, caught);
+    }
+    assertEquals(2, scheduler.getRetryCount());
+  }
+
+  @Test
+  public void testDoesNotRetryOtherFailures() throws IOException {
+    RequestSchedulerImpl scheduler = newScheduler(0, 0, 3);
+    try {
+      scheduler.execute(new FailingRequest(1,
+          new ResourceNotFoundException("Not Found")));
+      fail("Expected ServiceException");
+    } catch (ServiceException e) {
+      assertEquals(0, scheduler.getRetryCount());
+    }
+    try {
+      scheduler.execute(new FailingRequest(1,
+          new ServiceForbiddenException("Forbidden")));
+      fail("Expected ServiceException");
+    } catch (ServiceException e) {
+      assertEquals(0, scheduler.getRetryCount());
+    }
+  }
+
+  @Test
+  public void testThrottles() throws IOException, ServiceException {
+    RequestSchedulerImpl scheduler = newScheduler(50, 0, 0);
+    long start = System.nanoTime();
+    for (int i = 0; i < 52; i++) {
+      scheduler.execute(new FailingRequest(0, null));
+    }
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    assertEquals(52, scheduler.getRequestCount());
+    assertEquals(2, scheduler.getThrottledCount());
+  }
+
+  @Test
+  public void testLimitsConcurrentRequests() throws Exception {
+    final RequestSchedulerImpl scheduler = newScheduler(0, 2, 0);
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    for (int i = 0; i < 12; i++) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            scheduler.execute(new RequestScheduler.Request<Void>() {
+              @Override
+              public Void execute() {
+                int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                  maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                try {
+                  Thread.sleep(5);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return null;
+              }
+            });
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(2, maxInFlight.get());
+  }
+
+  private RequestSchedulerImpl newScheduler(double requestsPerSecond,
+      int concurrentRequests, int maxRetries) {
+    return new RequestSchedulerImpl(requestsPerSecond, concurrentRequests,
+        maxRetries, 1, new Random(0));
+  }
+
+  /**
+   * A request which fails with the given exception a number of times before
+   * succeeding.
+   */
+  private static class FailingRequest
+      implements RequestScheduler.Request<String> {
+
+    private final ServiceException exception;
+    private int failures;
+
+    FailingRequest(int failures, ServiceException exception) {
+      this.failures = failures;
+      this.exception = exception;
+    }
+
+    @Override
+    public String execute() throws ServiceException {
+      if (failures > 0) {
+        failures--;
+        throw exception;
+      }
+      return "done";
+    }
+  }
+}
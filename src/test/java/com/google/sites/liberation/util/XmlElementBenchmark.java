@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building and writing a page-sized tree with {@link XmlElement}
+ * and with the previous {@link LegacyXmlElement}. Run with 
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main XmlElement -prof gc}
+ * after {@code mvn test-compile} to also see the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlElementBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int rows;
+  
+  @Benchmark
+  public StringBuilder current() throws IOException {
+    XmlElement table = new XmlElement("table").setAttribute("width", "100%");
+    for (int i = 0; i < rows; i++) {
+      XmlElement link = new XmlElement("a").setAttribute("href", 
+          "../page-" + i + "/index.html").addText("Page " + i + " & more");
+      table.addElement(new XmlElement("tr").setAttribute("valign", "top")
+          .addElement(new XmlElement("td").addElement(
+              new XmlElement("small").addElement(link)))
+          .addElement(new XmlElement("td").addText("<updated> " + i)));
+    }
+    StringBuilder out = new StringBuilder();
+    table.appendTo(out);
+    return out;
+  }
+  
+  @Benchmark
+  public StringBuilder legacy() throws IOException {
+    LegacyXmlElement table = 
+        new LegacyXmlElement("table").setAttribute("width", "100%");
+    for (int i = 0; i < rows; i++) {
+      LegacyXmlElement link = new LegacyXmlElement("a").setAttribute("href", 
+          "../page-" + i + "/index.html").addText("Page " + i + " & more");
+      table.addElement(new LegacyXmlElement("tr").setAttribute("valign", "top")
+          .addElement(new LegacyXmlElement("td").addElement(
+              new LegacyXmlElement("small").addElement(link)))
+          .addElement(new LegacyXmlElement("td").addText("<updated> " + i)));
+    }
+    StringBuilder out = new StringBuilder();
+    table.appendTo(out);
+    return out;
+  }
+}
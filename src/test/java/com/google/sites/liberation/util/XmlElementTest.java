@@ -111,4 +111,40 @@ public class XmlElementTest {
     div.setAttribute("href", "not#");
     assertEquals("<div class=\"main\" href=\"not#\" />", div.toString());
   }
+  
+  @Test
+  public void testEqualsAndHashCode() {
+    XmlElement div1 = new XmlElement("div").setAttribute("id", "1")
+        .setAttribute("class", "main").addText("<text>")
+        .addElement(new XmlElement("hr"));
+    XmlElement div2 = new XmlElement("div").setAttribute("class", "main")
+        .setAttribute("id", "1").addText("<text>")
+        .addElement(new XmlElement("hr"));
+    assertEquals(div1, div2);
+    assertEquals(div1.hashCode(), div2.hashCode());
+    div2.addElement(new XmlElement("br"));
+    assertFalse(div1.equals(div2));
+    assertFalse(new XmlElement("div").addText("&lt;").equals(
+        new XmlElement("div").addXml("&lt;")));
+    assertFalse(new XmlElement("div").equals("<div />"));
+  }
+  
+  @Test
+  public void testManyChildrenAndAttributes() {
+    XmlElement div = new XmlElement("div");
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      div.addText(Integer.toString(i));
+      expected.append(i);
+    }
+    for (char c = 'z'; c >= 'a'; c--) {
+      div.setAttribute(String.valueOf(c), "\"");
+    }
+    StringBuilder attributes = new StringBuilder();
+    for (char c = 'a'; c <= 'z'; c++) {
+      attributes.append(' ').append(c).append("=\"&quot;\"");
+    }
+    assertEquals("<div" + attributes + ">" + expected + "</div>", 
+        div.toString());
+  }
 }
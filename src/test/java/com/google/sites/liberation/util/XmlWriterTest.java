@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.sites.liberation.util;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class XmlWriterTest {
+
+  private StringBuilder out;
+  private XmlWriter writer;
+  
+  @Before
+  public void setUp() {
+    out = new StringBuilder();
+    writer = new XmlWriter(out);
+  }
+  
+  @Test
+  public void testEmptyElement() throws IOException {
+    writer.start("div").end();
+    assertEquals("<div />", out.toString());
+  }
+  
+  @Test
+  public void testSameAsXmlElement() throws IOException {
+    XmlElement div = new XmlElement("div").setAttribute("class", "a & b")
+        .setAttribute("id", "main");
+    div.addElement(new XmlElement("hr"));
+    div.addText("<text>");
+    div.addElement(new XmlElement("span").addXml("<b>bold</b>"));
+    div.addText("");
+    writer.start("div").attr("class", "a & b").attr("id", "main");
+    writer.start("hr").end();
+    writer.text("<text>");
+    writer.start("span").xml("<b>bold</b>").end();
+    writer.text("");
+    writer.end();
+    assertEquals(div.toString(), out.toString());
+  }
+  
+  @Test
+  public void testElement() throws IOException {
+    XmlElement span = new XmlElement("span").addText("text");
+    writer.start("div").attr("id", "1").element(span).endAll();
+    assertEquals("<div id=\"1\"><span>text</span></div>", out.toString());
+  }
+  
+  @Test
+  public void testAttributeAfterChild() throws IOException {
+    writer.start("div").text("text");
+    try {
+      writer.attr("id", "1");
+      fail("Attributes after children should throw exception");
+    } catch (IllegalStateException e) {}
+  }
+  
+  @Test
+  public void testEndWithoutStart() throws IOException {
+    try {
+      writer.end();
+      fail("Ending without an open element should throw exception");
+    } catch (IllegalStateException e) {}
+  }
+  
+  @Test
+  public void testEscape() throws IOException {
+    String text = "plain <a href=\"x\">'&'</a> café € 😀";
+    StringBuilder escaped = new StringBuilder();
+    XmlWriter.escape(text, escaped);
+    assertEquals(StringEscapeUtils.escapeXml(text), escaped.toString());
+  }
+}